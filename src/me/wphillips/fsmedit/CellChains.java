@@ -0,0 +1,196 @@
+package me.wphillips.fsmedit;
+
+import java.util.Arrays;
+
+/**
+ * Element slots filed under cells of a spatial index. The slots of a cell
+ * are chained through per-slot links and cells are found through an open
+ * addressing table of their keys, so filing an element costs a few array
+ * slots and a cell is dropped from the table as soon as it empties.
+ */
+final class CellChains {
+    /** Cell key each slot is filed under. */
+    private long[] cellOf;
+    /** Next and previous slot in the same cell, or -1. */
+    private int[] next;
+    private int[] prev;
+    /** Table of cell keys with the first slot + 1 of each cell, 0 marking an empty entry. */
+    private long[] keys;
+    private int[] heads;
+    private int cells;
+
+    /** Slots collected by a region query. */
+    static final class Hits {
+        private int[] slots = new int[16];
+        private int count;
+
+        void add(int slot) {
+            if (count == slots.length) {
+                slots = Arrays.copyOf(slots, count * 2);
+            }
+            slots[count++] = slot;
+        }
+
+        /** Get the collected slots in ascending order. */
+        int[] sorted() {
+            int[] result = Arrays.copyOf(slots, count);
+            Arrays.sort(result);
+            return result;
+        }
+    }
+
+    CellChains(int capacity) {
+        int c = Math.max(16, capacity);
+        cellOf = new long[c];
+        next = new int[c];
+        prev = new int[c];
+        keys = new long[Integer.highestOneBit(c - 1) << 1];
+        heads = new int[keys.length];
+    }
+
+    /** File a slot under a cell. */
+    void link(int slot, long key) {
+        if (slot >= cellOf.length) {
+            int c = Math.max(slot + 1, cellOf.length * 2);
+            cellOf = Arrays.copyOf(cellOf, c);
+            next = Arrays.copyOf(next, c);
+            prev = Arrays.copyOf(prev, c);
+        }
+        int head = head(key);
+        cellOf[slot] = key;
+        prev[slot] = -1;
+        next[slot] = head;
+        if (head >= 0) {
+            prev[head] = slot;
+        }
+        setHead(key, slot);
+    }
+
+    /** Take a slot out of its cell. */
+    void unlink(int slot) {
+        int n = next[slot];
+        int p = prev[slot];
+        if (n >= 0) {
+            prev[n] = p;
+        }
+        if (p >= 0) {
+            next[p] = n;
+        } else {
+            setHead(cellOf[slot], n);
+        }
+    }
+
+    /** Follow an element that moved from slot {@code from} to the vacant slot {@code to}. */
+    void move(int from, int to) {
+        long key = cellOf[from];
+        int n = next[from];
+        int p = prev[from];
+        cellOf[to] = key;
+        next[to] = n;
+        prev[to] = p;
+        if (n >= 0) {
+            prev[n] = to;
+        }
+        if (p >= 0) {
+            next[p] = to;
+        } else {
+            setHead(key, to);
+        }
+    }
+
+    /** Get the key of the cell a slot is filed under. */
+    long cellOf(int slot) {
+        return cellOf[slot];
+    }
+
+    /** Get the slot after the given one in its cell, or -1. */
+    int next(int slot) {
+        return next[slot];
+    }
+
+    /** Get the first slot of a cell, or -1 if it is empty. */
+    int head(long key) {
+        int mask = keys.length - 1;
+        for (int h = hash(key) & mask; heads[h] != 0; h = (h + 1) & mask) {
+            if (keys[h] == key) {
+                return heads[h] - 1;
+            }
+        }
+        return -1;
+    }
+
+    /** Get the number of non-empty cells. */
+    int cellCount() {
+        return cells;
+    }
+
+    /** Get the number of table entries, for scanning every cell with {@link #keyAt} and {@link #headAt}. */
+    int tableLength() {
+        return keys.length;
+    }
+
+    long keyAt(int entry) {
+        return keys[entry];
+    }
+
+    /** Get the first slot of the cell in a table entry, or -1 if the entry is empty. */
+    int headAt(int entry) {
+        return heads[entry] - 1;
+    }
+
+    /** Set the first slot of a cell, dropping the cell from the table when it becomes empty. */
+    private void setHead(long key, int slot) {
+        int mask = keys.length - 1;
+        int h = hash(key) & mask;
+        while (heads[h] != 0 && keys[h] != key) {
+            h = (h + 1) & mask;
+        }
+        if (slot >= 0) {
+            if (heads[h] == 0) {
+                keys[h] = key;
+                heads[h] = slot + 1;
+                if (++cells * 2 > keys.length) {
+                    rehash(keys.length * 2);
+                }
+            } else {
+                heads[h] = slot + 1;
+            }
+        } else if (heads[h] != 0) {
+            // Shift later entries of the probe run back so lookups never stop early
+            int gap = h;
+            for (int j = (gap + 1) & mask; heads[j] != 0; j = (j + 1) & mask) {
+                int home = hash(keys[j]) & mask;
+                if (((j - home) & mask) >= ((j - gap) & mask)) {
+                    keys[gap] = keys[j];
+                    heads[gap] = heads[j];
+                    gap = j;
+                }
+            }
+            heads[gap] = 0;
+            cells--;
+        }
+    }
+
+    private void rehash(int size) {
+        long[] oldKeys = keys;
+        int[] oldHeads = heads;
+        keys = new long[size];
+        heads = new int[size];
+        int mask = size - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldHeads[i] != 0) {
+                int h = hash(oldKeys[i]) & mask;
+                while (heads[h] != 0) {
+                    h = (h + 1) & mask;
+                }
+                keys[h] = oldKeys[i];
+                heads[h] = oldHeads[i];
+            }
+        }
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
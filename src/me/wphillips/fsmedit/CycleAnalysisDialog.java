@@ -12,6 +12,8 @@ import java.awt.Window;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Dialog that guides the user through analyzing cycles starting from a chosen node.
@@ -28,6 +30,8 @@ public class CycleAnalysisDialog extends JDialog {
     private final JTextArea loopDetailsArea;
     private final JMenuItem copyMenuItem;
     private boolean hasRunAnalysis;
+    /** Analysis running in the background, or {@code null} when idle. */
+    private SwingWorker<GraphSnapshot.Result<List<List<UUID>>>, Void> analysis;
     private final GraphPanel.NodeSelectionListener nodeSelectionListener;
 
     public CycleAnalysisDialog(Window owner, GraphPanel panel) {
@@ -139,6 +143,7 @@ public class CycleAnalysisDialog extends JDialog {
         if (node != selectedStartNode) {
             selectedStartNode = node;
             hasRunAnalysis = false;
+            analysis = null;
             panel.clearCycleAnalysis();
         }
         updateStartNodeLabel(selectedStartNode);
@@ -160,14 +165,49 @@ public class CycleAnalysisDialog extends JDialog {
                     "No Node Selected", JOptionPane.WARNING_MESSAGE);
             return;
         }
-        hasRunAnalysis = true;
-        List<List<Edge>> results = panel.findCyclesFrom(selectedStartNode);
-        if (results.isEmpty()) {
+        int start = panel.getGraph().indexOf(selectedStartNode);
+        if (start < 0) {
+            // The start node was deleted, so no cycles are reachable from it
+            analysis = null;
+            hasRunAnalysis = true;
             panel.clearCycleAnalysis();
-        } else {
-            panel.setCycleAnalysis(results);
+            updateNavigation();
+            return;
         }
+        // Search a snapshot in the background so the graph stays editable
+        GraphSnapshot snapshot = panel.createSnapshot();
+        analysis = new SwingWorker<>() {
+            @Override
+            protected GraphSnapshot.Result<List<List<UUID>>> doInBackground() {
+                return snapshot.compute(s -> GraphAnalysis.findCyclesFrom(
+                        s, start, Integer.MAX_VALUE));
+            }
+
+            @Override
+            protected void done() {
+                if (analysis != this || !isDisplayable()) {
+                    return;
+                }
+                analysis = null;
+                try {
+                    GraphSnapshot.Result<List<List<UUID>>> result = get();
+                    hasRunAnalysis = true;
+                    if (result.getValue().isEmpty()) {
+                        panel.clearCycleAnalysis();
+                    } else {
+                        panel.setCycleAnalysis(result);
+                    }
+                } catch (InterruptedException | ExecutionException ex) {
+                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                    JOptionPane.showMessageDialog(CycleAnalysisDialog.this,
+                            "Cycle analysis failed: " + cause.getMessage(),
+                            "Error", JOptionPane.ERROR_MESSAGE);
+                }
+                updateNavigation();
+            }
+        };
         updateNavigation();
+        analysis.execute();
     }
 
     private void showPreviousCycle() {
@@ -197,6 +237,7 @@ public class CycleAnalysisDialog extends JDialog {
     }
 
     private void clearAnalysis() {
+        analysis = null;
         panel.clearCycleAnalysis();
         hasRunAnalysis = false;
         updateNavigation();
@@ -210,7 +251,13 @@ public class CycleAnalysisDialog extends JDialog {
 
         boolean hasNodes = panel.getNodeCount() > 0;
         boolean hasStartNode = selectedStartNode != null;
-        analyzeButton.setEnabled(hasNodes && hasStartNode);
+        analyzeButton.setEnabled(hasNodes && hasStartNode && analysis == null);
+        if (analysis != null) {
+            prevButton.setEnabled(false);
+            nextButton.setEnabled(false);
+            statusLabel.setText("Searching for loops...");
+            return;
+        }
         if (!hasNodes) {
             prevButton.setEnabled(false);
             nextButton.setEnabled(false);
@@ -241,7 +288,12 @@ public class CycleAnalysisDialog extends JDialog {
             if (index < 0 || index >= count) {
                 index = 0;
             }
-            statusLabel.setText(String.format("Loop %d of %d", index + 1, count));
+            String status = String.format("Loop %d of %d", index + 1, count);
+            if (panel.getCycleAnalysisVersion() != panel.getGraph().getChangeCount()) {
+                // The graph was edited after the loops were found
+                status += " (graph changed)";
+            }
+            statusLabel.setText(status);
             loopDetailsArea.setText(describeCycle(panel.getCycleAnalysisLoops().get(index)));
         } else if (hasRunAnalysis) {
             statusLabel.setText("No loops found.");
@@ -0,0 +1,603 @@
+package me.wphillips.fsmedit;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Streaming reader and writer for Graphviz DOT files. The reader tokenizes
+ * the input as it parses, so memory use depends on the size of the graph and
+ * not the size of the file. Only the first graph in a file is read.
+ * <p>
+ * Node and edge properties map to these attributes:
+ * <pre>
+ * node  label, fillcolor (or color), pos "x,y" in points, width in inches,
+ *       comment (metadata), pin (locked), initial (start node)
+ * edge  label (text), id, spline=bezier, curvature
+ * </pre>
+ * Node names become node identifiers. Positions are written with the y axis
+ * pointing up as Graphviz expects.
+ */
+final class DotFormat {
+    private DotFormat() {}
+
+    /** Points per inch, used to convert node widths. */
+    private static final double POINTS_PER_INCH = 72.0;
+
+    /** Read a graph from DOT source. */
+    static GraphModel read(Reader in) throws IOException {
+        return new Parser(new Lexer(in)).parse();
+    }
+
+    /** Write a graph as DOT directly from the given lists. */
+    static void write(Writer out, List<Node> nodes, List<Edge> edges, Node start)
+            throws IOException {
+        out.write("digraph fsm {\n");
+        out.write("  node [shape=circle, style=filled];\n");
+        for (Node n : nodes) {
+            out.write("  ");
+            quote(out, n.getId());
+            out.write(" [label=");
+            quote(out, n.getLabel() == null ? "" : n.getLabel());
+            out.write(", pos=\"" + n.getX() + "," + (-n.getY()) + "!\"");
+            out.write(", width=" + Math.round(20_000 * n.getRadius() / POINTS_PER_INCH) / 10_000.0);
+            out.write(", fillcolor=\"" + GraphBuilder.formatColor(n.getColor()) + "\"");
+            if (n.getMetadata() != null && !n.getMetadata().isEmpty()) {
+                out.write(", comment=");
+                quote(out, n.getMetadata());
+            }
+            if (n.isLocked()) {
+                out.write(", pin=true");
+            }
+            if (n == start) {
+                out.write(", initial=true");
+            }
+            out.write("];\n");
+        }
+        for (Edge e : edges) {
+            out.write("  ");
+            quote(out, e.getFrom().getId());
+            out.write(" -> ");
+            quote(out, e.getTo().getId());
+            out.write(" [id=\"" + e.getId() + "\"");
+            if (e.getText() != null && !e.getText().isEmpty()) {
+                out.write(", label=");
+                quote(out, e.getText());
+            }
+            if (e.getSplineType() == Edge.SplineType.BEZIER) {
+                out.write(", spline=bezier");
+            }
+            out.write(", curvature=" + e.getCurvature());
+            out.write("];\n");
+        }
+        out.write("}\n");
+    }
+
+    /** Write a quoted string using the escapes understood by {@link #unescape}. */
+    private static void quote(Writer out, String s) throws IOException {
+        out.write('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"' -> out.write("\\\"");
+                case '\\' -> out.write("\\\\");
+                case '\n' -> out.write("\\n");
+                case '\r' -> { }
+                default -> out.write(c);
+            }
+        }
+        out.write('"');
+    }
+
+    /**
+     * Interpret the escape sequences of a Graphviz label: {@code \N} is the
+     * node name, {@code \n}, {@code \l} and {@code \r} are line breaks.
+     */
+    private static String unescape(String s, String nodeName) {
+        if (s.indexOf('\\') < 0) {
+            return s;
+        }
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c != '\\' || i + 1 == s.length()) {
+                sb.append(c);
+                continue;
+            }
+            char next = s.charAt(++i);
+            switch (next) {
+                case 'n', 'l', 'r' -> sb.append('\n');
+                case 'N' -> sb.append(nodeName == null ? "" : nodeName);
+                default -> sb.append(next);
+            }
+        }
+        return sb.toString();
+    }
+
+    private enum TokenType { ID, STRING, EDGE_OP, PUNCT, EOF }
+
+    /** Splits DOT source into tokens, reading the input incrementally. */
+    private static final class Lexer {
+        private final Reader in;
+        private final char[] buf = new char[8192];
+        private int pos;
+        private int len;
+        private int line = 1;
+        private boolean lineStart = true;
+        private TokenType type;
+        private String value;
+
+        Lexer(Reader in) {
+            this.in = in;
+        }
+
+        private int peek() throws IOException {
+            if (pos == len) {
+                len = in.read(buf, 0, buf.length);
+                pos = 0;
+                if (len <= 0) {
+                    len = 0;
+                    return -1;
+                }
+            }
+            return buf[pos];
+        }
+
+        private int read() throws IOException {
+            int c = peek();
+            if (c >= 0) {
+                pos++;
+                if (c == '\n') {
+                    line++;
+                }
+            }
+            return c;
+        }
+
+        IOException error(String message) {
+            return new IOException("Line " + line + ": " + message);
+        }
+
+        /** Advance to the next token. */
+        void next() throws IOException {
+            skipSpace();
+            int c = peek();
+            value = null;
+            if (c < 0) {
+                type = TokenType.EOF;
+            } else if (c == '"') {
+                type = TokenType.STRING;
+                value = quoted();
+            } else if (c == '<') {
+                type = TokenType.STRING;
+                value = html();
+            } else if (c == '-') {
+                read();
+                int d = peek();
+                if (d == '>' || d == '-') {
+                    read();
+                    type = TokenType.EDGE_OP;
+                } else {
+                    type = TokenType.ID;
+                    value = "-" + numeral();
+                }
+            } else if (Character.isLetterOrDigit(c) || c == '_' || c == '.' || c >= 0x80) {
+                type = TokenType.ID;
+                value = Character.isDigit(c) || c == '.' ? numeral() : identifier();
+            } else {
+                read();
+                type = TokenType.PUNCT;
+                value = String.valueOf((char) c);
+            }
+        }
+
+        private void skipSpace() throws IOException {
+            while (true) {
+                int c = peek();
+                if (c == '\n') {
+                    read();
+                    lineStart = true;
+                } else if (c >= 0 && Character.isWhitespace(c)) {
+                    read();
+                } else if (c == '#' && lineStart) {
+                    skipLine();
+                } else if (c == '/') {
+                    read();
+                    int d = peek();
+                    if (d == '/') {
+                        skipLine();
+                    } else if (d == '*') {
+                        read();
+                        int prev = 0;
+                        int e;
+                        while ((e = read()) >= 0 && !(prev == '*' && e == '/')) {
+                            prev = e;
+                        }
+                    } else {
+                        throw error("unexpected '/'");
+                    }
+                } else {
+                    lineStart = false;
+                    return;
+                }
+            }
+        }
+
+        private void skipLine() throws IOException {
+            int c;
+            while ((c = peek()) >= 0 && c != '\n') {
+                read();
+            }
+        }
+
+        private String identifier() throws IOException {
+            StringBuilder sb = new StringBuilder();
+            int c;
+            while ((c = peek()) >= 0 && (Character.isLetterOrDigit(c) || c == '_' || c >= 0x80)) {
+                sb.append((char) read());
+            }
+            return sb.toString();
+        }
+
+        private String numeral() throws IOException {
+            StringBuilder sb = new StringBuilder();
+            int c;
+            while ((c = peek()) >= 0 && (Character.isDigit(c) || c == '.')) {
+                sb.append((char) read());
+            }
+            if (sb.length() == 0) {
+                throw error("expected a number");
+            }
+            return sb.toString();
+        }
+
+        /**
+         * Read a quoted string, joining strings concatenated with '+'. Only
+         * escaped quotes and line continuations are handled here; label
+         * escapes are interpreted later.
+         */
+        private String quoted() throws IOException {
+            StringBuilder sb = new StringBuilder();
+            while (true) {
+                read();
+                int c;
+                while ((c = read()) != '"') {
+                    if (c < 0) {
+                        throw error("unterminated string");
+                    }
+                    if (c == '\\') {
+                        int d = read();
+                        if (d == '"') {
+                            sb.append('"');
+                        } else if (d != '\n' && d >= 0) {
+                            sb.append('\\').append((char) d);
+                        }
+                    } else {
+                        sb.append((char) c);
+                    }
+                }
+                skipSpace();
+                if (peek() != '+') {
+                    return sb.toString();
+                }
+                read();
+                skipSpace();
+                if (peek() != '"') {
+                    throw error("expected a string after '+'");
+                }
+            }
+        }
+
+        /** Read an HTML-like label, returning its content without markup. */
+        private String html() throws IOException {
+            StringBuilder sb = new StringBuilder();
+            int depth = 0;
+            boolean inTag = false;
+            do {
+                int c = read();
+                if (c < 0) {
+                    throw error("unterminated HTML string");
+                }
+                if (c == '<') {
+                    depth++;
+                    inTag = depth > 1;
+                } else if (c == '>') {
+                    depth--;
+                    inTag = false;
+                } else if (!inTag && depth >= 1) {
+                    sb.append((char) c);
+                }
+            } while (depth > 0);
+            return sb.toString().trim();
+        }
+    }
+
+    /** Recursive descent parser that feeds a {@link GraphBuilder}. */
+    private static final class Parser {
+        private final Lexer lexer;
+        private final GraphBuilder builder = new GraphBuilder();
+        /** Subgraph member sets, innermost last. */
+        private final List<Set<Node>> scopes = new ArrayList<>();
+        private Map<String, String> nodeDefaults = new HashMap<>();
+        private Map<String, String> edgeDefaults = new HashMap<>();
+        private final Set<Node> declared = new HashSet<>();
+        private Edge.SplineType defaultSpline = Edge.SplineType.STRAIGHT;
+
+        Parser(Lexer lexer) {
+            this.lexer = lexer;
+        }
+
+        GraphModel parse() throws IOException {
+            lexer.next();
+            if (keyword("strict")) {
+                lexer.next();
+            }
+            if (!keyword("graph") && !keyword("digraph")) {
+                throw lexer.error("expected 'graph' or 'digraph'");
+            }
+            lexer.next();
+            if (lexer.type == TokenType.ID || lexer.type == TokenType.STRING) {
+                lexer.next();
+            }
+            expect("{");
+            statements();
+            expect("}");
+            return builder.build();
+        }
+
+        private boolean keyword(String word) {
+            return lexer.type == TokenType.ID && word.equalsIgnoreCase(lexer.value);
+        }
+
+        private boolean punct(String p) {
+            return lexer.type == TokenType.PUNCT && p.equals(lexer.value);
+        }
+
+        private void expect(String p) throws IOException {
+            if (!punct(p)) {
+                throw lexer.error("expected '" + p + "' but found "
+                        + (lexer.type == TokenType.EOF ? "end of file" : "'" + lexer.value + "'"));
+            }
+            lexer.next();
+        }
+
+        private String id() throws IOException {
+            if (lexer.type != TokenType.ID && lexer.type != TokenType.STRING) {
+                throw lexer.error("expected an identifier");
+            }
+            String v = lexer.value;
+            lexer.next();
+            return v;
+        }
+
+        private void statements() throws IOException {
+            while (!punct("}") && lexer.type != TokenType.EOF) {
+                statement();
+                if (punct(";")) {
+                    lexer.next();
+                }
+            }
+        }
+
+        private void statement() throws IOException {
+            if (keyword("graph")) {
+                lexer.next();
+                graphAttributes(attributes());
+            } else if (keyword("node")) {
+                lexer.next();
+                nodeDefaults.putAll(attributes());
+            } else if (keyword("edge")) {
+                lexer.next();
+                edgeDefaults.putAll(attributes());
+            } else if (keyword("subgraph") || punct("{")) {
+                edgeChain(subgraph());
+            } else {
+                String name = id();
+                if (punct("=")) {
+                    lexer.next();
+                    graphAttributes(Map.of(name, id()));
+                    return;
+                }
+                port();
+                if (lexer.type == TokenType.EDGE_OP) {
+                    edgeChain(List.of(reference(name)));
+                } else {
+                    Node n = reference(name);
+                    Map<String, String> attrs = attributes();
+                    if (!attrs.isEmpty()) {
+                        applyNode(n, name, attrs);
+                    }
+                }
+            }
+        }
+
+        private void port() throws IOException {
+            while (punct(":")) {
+                lexer.next();
+                id();
+            }
+        }
+
+        /** Parse a subgraph body and return the nodes it contains. */
+        private Set<Node> subgraph() throws IOException {
+            if (keyword("subgraph")) {
+                lexer.next();
+                if (lexer.type == TokenType.ID || lexer.type == TokenType.STRING) {
+                    lexer.next();
+                }
+            }
+            expect("{");
+            Map<String, String> savedNodes = nodeDefaults;
+            Map<String, String> savedEdges = edgeDefaults;
+            nodeDefaults = new HashMap<>(nodeDefaults);
+            edgeDefaults = new HashMap<>(edgeDefaults);
+            Set<Node> members = new LinkedHashSet<>();
+            scopes.add(members);
+            try {
+                statements();
+                expect("}");
+            } finally {
+                scopes.remove(scopes.size() - 1);
+                nodeDefaults = savedNodes;
+                edgeDefaults = savedEdges;
+            }
+            if (!scopes.isEmpty()) {
+                scopes.get(scopes.size() - 1).addAll(members);
+            }
+            return members;
+        }
+
+        /** Parse the remainder of an edge statement starting at the given operand. */
+        private void edgeChain(Collection<Node> first) throws IOException {
+            List<Collection<Node>> operands = new ArrayList<>();
+            operands.add(first);
+            while (lexer.type == TokenType.EDGE_OP) {
+                lexer.next();
+                if (keyword("subgraph") || punct("{")) {
+                    operands.add(subgraph());
+                } else {
+                    String name = id();
+                    port();
+                    operands.add(List.of(reference(name)));
+                }
+            }
+            if (operands.size() == 1) {
+                return;
+            }
+            Map<String, String> attrs = new HashMap<>(edgeDefaults);
+            Map<String, String> own = attributes();
+            attrs.putAll(own);
+            int count = 0;
+            for (int i = 1; i < operands.size(); i++) {
+                count += operands.get(i - 1).size() * operands.get(i).size();
+            }
+            // An explicit id only identifies the edge when the statement creates one
+            String id = count == 1 ? own.get("id") : null;
+            for (int i = 1; i < operands.size(); i++) {
+                for (Node from : operands.get(i - 1)) {
+                    for (Node to : operands.get(i)) {
+                        applyEdge(builder.edge(from, to, id), attrs);
+                    }
+                }
+            }
+        }
+
+        /** Look up a node by name, applying the current defaults when it is new. */
+        private Node reference(String name) {
+            Node n = builder.node(name);
+            if (declared.add(n) && !nodeDefaults.isEmpty()) {
+                applyNode(n, name, nodeDefaults);
+            }
+            if (!scopes.isEmpty()) {
+                scopes.get(scopes.size() - 1).add(n);
+            }
+            return n;
+        }
+
+        private Map<String, String> attributes() throws IOException {
+            Map<String, String> attrs = new HashMap<>();
+            while (punct("[")) {
+                lexer.next();
+                while (!punct("]")) {
+                    String key = id();
+                    String value = "true";
+                    if (punct("=")) {
+                        lexer.next();
+                        value = id();
+                    }
+                    attrs.put(key.toLowerCase(Locale.ROOT), value);
+                    if (punct(",") || punct(";")) {
+                        lexer.next();
+                    }
+                }
+                lexer.next();
+            }
+            return attrs;
+        }
+
+        private void graphAttributes(Map<String, String> attrs) {
+            String splines = attrs.get("splines");
+            if (splines != null) {
+                String s = splines.toLowerCase(Locale.ROOT);
+                defaultSpline = s.equals("curved") || s.equals("spline") || s.equals("true")
+                        ? Edge.SplineType.BEZIER : Edge.SplineType.STRAIGHT;
+            }
+        }
+
+        private void applyNode(Node n, String name, Map<String, String> attrs) {
+            String label = attrs.get("label");
+            if (label != null) {
+                n.setLabel(unescape(label, name));
+            }
+            Color color = GraphBuilder.parseColor(attrs.get("fillcolor"));
+            if (color == null) {
+                color = GraphBuilder.parseColor(attrs.get("color"));
+            }
+            if (color != null) {
+                n.setColor(color);
+            }
+            String pos = attrs.get("pos");
+            if (pos != null) {
+                String[] xy = pos.replace("!", "").split(",");
+                if (xy.length >= 2) {
+                    try {
+                        builder.setPosition(n, (int) Math.round(Double.parseDouble(xy[0].trim())),
+                                (int) -Math.round(Double.parseDouble(xy[1].trim())));
+                    } catch (NumberFormatException ignored) {
+                        // Leave the node to be laid out automatically
+                    }
+                }
+            }
+            String width = attrs.get("width");
+            if (width != null) {
+                try {
+                    int radius = (int) Math.round(Double.parseDouble(width) * POINTS_PER_INCH / 2);
+                    if (radius > 0) {
+                        n.setRadius(radius);
+                    }
+                } catch (NumberFormatException ignored) {
+                    // Keep the default size
+                }
+            }
+            String comment = attrs.get("comment");
+            if (comment != null) {
+                n.setMetadata(unescape(comment, name));
+            }
+            if (attrs.containsKey("pin")) {
+                n.setLocked(Boolean.parseBoolean(attrs.get("pin")));
+            }
+            if (Boolean.parseBoolean(attrs.get("initial"))) {
+                builder.setStart(n);
+            }
+        }
+
+        private void applyEdge(Edge e, Map<String, String> attrs) {
+            String label = attrs.get("label");
+            if (label != null) {
+                e.setText(unescape(label, null));
+            }
+            String spline = attrs.get("spline");
+            e.setSplineType(spline == null ? defaultSpline
+                    : "bezier".equalsIgnoreCase(spline) ? Edge.SplineType.BEZIER
+                    : Edge.SplineType.STRAIGHT);
+            String curvature = attrs.get("curvature");
+            if (curvature != null) {
+                try {
+                    e.setCurvature(Float.parseFloat(curvature));
+                } catch (NumberFormatException ignored) {
+                    // Keep the default curvature
+                }
+            }
+        }
+    }
+}
@@ -1,34 +1,71 @@
 package me.wphillips.fsmedit;
 
-import java.io.Serializable;
+import java.awt.Point;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+import java.io.Serializable;
 import java.util.UUID;
 
 public class Edge implements Serializable {
     private static final long serialVersionUID = 1L;
 
+    /**
+     * Serialized form, kept identical to earlier versions which stored the
+     * identifier as a UUID string.
+     */
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("from", Node.class),
+        new ObjectStreamField("to", Node.class),
+        new ObjectStreamField("splineType", SplineType.class),
+        new ObjectStreamField("id", String.class),
+        new ObjectStreamField("curvature", float.class),
+        new ObjectStreamField("text", String.class)
+    };
+
     /** Type of spline used for this edge. */
     public enum SplineType { STRAIGHT, BEZIER }
 
     private Node from;
     private Node to;
     private SplineType splineType;
-    /** Unique identifier for this edge. */
-    private String id;
+    /** Unique identifier for this edge, stored as the two halves of a UUID. */
+    private long idMostSigBits;
+    private long idLeastSigBits;
     /** Controls the curvature when using a bezier spline. */
     private float curvature;
     /** Optional text displayed near this edge. */
     private String text;
+    /** Graph this edge is part of and its index there, maintained by {@link GraphModel}. */
+    transient GraphModel graph;
+    transient int slot;
+    /** Cached drawing geometry, dropped whenever the shape of the edge changes. */
+    transient EdgeGeometry geometry;
+    /** Layout of {@link #text} last used to draw it, dropped when the text changes. */
+    transient LabelLayout labelLayout;
 
     public Edge(Node from, Node to) {
         this(from, to, SplineType.STRAIGHT);
     }
 
     public Edge(Node from, Node to, SplineType type) {
+        this(from, to, type, ElementIds.next());
+    }
+
+    private Edge(Node from, Node to, SplineType type, UUID id) {
+        this(from, to, type, id.getMostSignificantBits(), id.getLeastSignificantBits());
+    }
+
+    /**
+     * Create an edge with an existing identifier, used when decoding saved graphs.
+     */
+    Edge(Node from, Node to, SplineType type, long idMostSigBits, long idLeastSigBits) {
         this.from = from;
         this.to = to;
         this.splineType = type;
-        this.id = UUID.randomUUID().toString();
+        this.idMostSigBits = idMostSigBits;
+        this.idLeastSigBits = idLeastSigBits;
         this.curvature = 0.4f;
         this.text = "";
     }
@@ -41,9 +78,19 @@ public class Edge implements Serializable {
         return to;
     }
 
-    /** Get the unique identifier for this edge. */
+    /** Get the unique identifier for this edge formatted as a UUID string. */
     public String getId() {
-        return id;
+        return ElementIds.format(idMostSigBits, idLeastSigBits);
+    }
+
+    /** Get the most significant half of this edge's identifier. */
+    public long getIdMostSigBits() {
+        return idMostSigBits;
+    }
+
+    /** Get the least significant half of this edge's identifier. */
+    public long getIdLeastSigBits() {
+        return idLeastSigBits;
     }
 
     /** Get the spline type used to render this edge. */
@@ -53,7 +100,10 @@ public class Edge implements Serializable {
 
     /** Set the spline type used to render this edge. */
     public void setSplineType(SplineType type) {
+        SplineType old = splineType;
         this.splineType = type;
+        geometry = null;
+        changed(GraphChange.Type.EDGE_RESTYLED, GraphChange.Property.SPLINE_TYPE, old);
     }
 
     /** Get the curvature used for bezier splines. */
@@ -63,7 +113,35 @@ public class Edge implements Serializable {
 
     /** Set the curvature used for bezier splines. */
     public void setCurvature(float curvature) {
+        float old = this.curvature;
         this.curvature = curvature;
+        geometry = null;
+        changed(GraphChange.Type.EDGE_RESTYLED, GraphChange.Property.CURVATURE, old);
+    }
+
+    /**
+     * Get the control point of the curve drawn for a bezier spline: the
+     * midpoint between the node centers, offset sideways by the curvature
+     * times their distance.
+     */
+    public Point getControlPoint() {
+        int x1 = from.getX();
+        int y1 = from.getY();
+        int x2 = to.getX();
+        int y2 = to.getY();
+
+        float midX = (x1 + x2) / 2f;
+        float midY = (y1 + y2) / 2f;
+        float dx = x2 - x1;
+        float dy = y2 - y1;
+        float dist = (float) Math.sqrt(dx * dx + dy * dy);
+        if (dist == 0) dist = 1f;
+        float nx = -dy / dist;
+        float ny = dx / dist;
+        float offset = curvature * dist;
+        int cx = Math.round(midX + nx * offset);
+        int cy = Math.round(midY + ny * offset);
+        return new Point(cx, cy);
     }
 
     /** Get the optional text displayed near this edge. */
@@ -73,7 +151,10 @@ public class Edge implements Serializable {
 
     /** Set the text to display near this edge. */
     public void setText(String text) {
+        String old = getText();
         this.text = text == null ? "" : text;
+        labelLayout = null;
+        changed(GraphChange.Type.EDGE_RETEXTED, GraphChange.Property.TEXT, old);
     }
 
     /**
@@ -81,11 +162,37 @@ public class Edge implements Serializable {
      */
     public void setTo(Node to) {
         this.to = to;
+        geometry = null;
     }
 
-    private void readObject(java.io.ObjectInputStream in)
-            throws IOException, ClassNotFoundException {
-        in.defaultReadObject();
+    /** Report an edit to the graph this edge is part of. */
+    private void changed(GraphChange.Type type, GraphChange.Property property, Object oldValue) {
+        if (graph != null) {
+            graph.edgeChanged(this, type, property, oldValue);
+        }
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("from", from);
+        fields.put("to", to);
+        fields.put("splineType", splineType);
+        fields.put("id", getId());
+        fields.put("curvature", curvature);
+        fields.put("text", text);
+        out.writeFields();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        from = (Node) fields.get("from", null);
+        to = (Node) fields.get("to", null);
+        splineType = (SplineType) fields.get("splineType", null);
+        curvature = fields.get("curvature", 0f);
+        text = (String) fields.get("text", null);
+        UUID id = ElementIds.parse((String) fields.get("id", null));
+        idMostSigBits = id.getMostSignificantBits();
+        idLeastSigBits = id.getLeastSignificantBits();
         if (splineType == null) {
             splineType = SplineType.STRAIGHT;
         }
@@ -95,8 +202,5 @@ public class Edge implements Serializable {
         if (text == null) {
             text = "";
         }
-        if (id == null || id.isEmpty()) {
-            id = UUID.randomUUID().toString();
-        }
     }
 }
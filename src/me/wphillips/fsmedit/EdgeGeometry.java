@@ -0,0 +1,147 @@
+package me.wphillips.fsmedit;
+
+import java.awt.Point;
+import java.awt.Shape;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.QuadCurve2D;
+
+/**
+ * Geometry of a drawn edge: where it leaves and enters its nodes, the line
+ * or curve between them, its arrowhead and where its text goes. It is
+ * computed on first use and kept on the edge until the edge's curvature,
+ * spline type or target changes or one of its nodes moves or is resized, so
+ * repainting an unchanged edge does no geometry math.
+ */
+final class EdgeGeometry {
+    /** Length of the arrowhead barbs. */
+    static final int BARB = 10;
+    /** Angle of the arrowhead barbs to the edge. */
+    private static final double PHI = Math.toRadians(40);
+    /** Number of straight segments a curve is approximated by for hit-testing. */
+    private static final int SEGMENTS = 20;
+
+    /** Point where the edge leaves its source node. */
+    final Point start;
+    /** Point where the edge enters its target node. */
+    final Point end;
+    final Shape shape;
+    final Shape arrowHead;
+    /** Point the edge text is centered on. */
+    final Point labelAnchor;
+    /** Whether the edge is a curve through {@link #controlX}, {@link #controlY}. */
+    private final boolean curved;
+    private final float controlX;
+    private final float controlY;
+
+    /** Get the geometry of an edge, computing it if it is not cached. */
+    static EdgeGeometry of(Edge e) {
+        EdgeGeometry g = e.geometry;
+        if (g == null) {
+            g = new EdgeGeometry(e.getFrom(), e.getTo(), e.getSplineType(), e.getCurvature());
+            e.geometry = g;
+        }
+        return g;
+    }
+
+    private EdgeGeometry(Node from, Node to, Edge.SplineType type, float curvature) {
+        if (type != Edge.SplineType.BEZIER) {
+            start = boundaryPoint(from, to.getX(), to.getY());
+            end = boundaryPoint(to, from.getX(), from.getY());
+            shape = new Line2D.Float(start.x, start.y, end.x, end.y);
+            arrowHead = arrowHead(start, end);
+            labelAnchor = new Point((start.x + end.x) / 2, (start.y + end.y) / 2);
+            curved = false;
+            controlX = 0;
+            controlY = 0;
+            return;
+        }
+        // compute control point using node centres so connection points can
+        // depend on the curvature
+        int x1 = from.getX();
+        int y1 = from.getY();
+        int x2 = to.getX();
+        int y2 = to.getY();
+
+        float midX = (x1 + x2) / 2f;
+        float midY = (y1 + y2) / 2f;
+        float dx = x2 - x1;
+        float dy = y2 - y1;
+        float dist = (float) Math.sqrt(dx * dx + dy * dy);
+        if (dist == 0) dist = 1f;
+        float nx = -dy / dist;
+        float ny = dx / dist;
+        float offset = curvature * dist;
+        float cx = midX + nx * offset;
+        float cy = midY + ny * offset;
+
+        // determine boundary points relative to the control point so that the
+        // curve attaches to the node slightly above or below the middle
+        start = boundaryPoint(from, (int) cx, (int) cy);
+        end = boundaryPoint(to, (int) cx, (int) cy);
+        shape = new QuadCurve2D.Float(start.x, start.y, cx, cy, end.x, end.y);
+
+        // orientation for arrow head along tangent at the end
+        double tx = end.x - cx;
+        double ty = end.y - cy;
+        double len = Math.sqrt(tx * tx + ty * ty);
+        if (len == 0) len = 1;
+        Point base = new Point((int) Math.round(end.x - tx / len), (int) Math.round(end.y - ty / len));
+        arrowHead = arrowHead(base, end);
+
+        curved = true;
+        controlX = cx;
+        controlY = cy;
+        labelAnchor = new Point((int) Math.round(0.25 * start.x + 0.5 * cx + 0.25 * end.x),
+                (int) Math.round(0.25 * start.y + 0.5 * cy + 0.25 * end.y));
+    }
+
+    /** Get the distance from a point to the drawn line, or approximately to the drawn curve. */
+    double distance(int x, int y) {
+        if (!curved) {
+            return Line2D.ptSegDist(start.x, start.y, end.x, end.y, x, y);
+        }
+        double min = Double.MAX_VALUE;
+        double prevX = start.x;
+        double prevY = start.y;
+        for (int i = 1; i <= SEGMENTS; i++) {
+            double t = i / (double) SEGMENTS;
+            double it = 1 - t;
+            double bx = it * it * start.x + 2 * it * t * controlX + t * t * end.x;
+            double by = it * it * start.y + 2 * it * t * controlY + t * t * end.y;
+            double d = Line2D.ptSegDist(prevX, prevY, bx, by, x, y);
+            if (d < min) {
+                min = d;
+            }
+            prevX = bx;
+            prevY = by;
+        }
+        return min;
+    }
+
+    /** Find where a line from the center of a node towards a point leaves the node. */
+    static Point boundaryPoint(Node from, int toX, int toY) {
+        double dx = toX - from.getX();
+        double dy = toY - from.getY();
+        double dist = Math.sqrt(dx * dx + dy * dy);
+        if (dist == 0) {
+            return new Point(from.getX(), from.getY());
+        }
+        double ratio = from.getRadius() / dist;
+        int x = (int) Math.round(from.getX() + dx * ratio);
+        int y = (int) Math.round(from.getY() + dy * ratio);
+        return new Point(x, y);
+    }
+
+    /** Build the two barbs of an arrowhead pointing from one point to another. */
+    static Shape arrowHead(Point from, Point to) {
+        double theta = Math.atan2(to.y - from.y, to.x - from.x);
+        Path2D.Float head = new Path2D.Float(Path2D.WIND_NON_ZERO, 4);
+        for (int j = 0; j < 2; j++) {
+            double rho = theta + PHI - j * 2 * PHI;
+            head.moveTo(to.x, to.y);
+            head.lineTo(to.x - BARB * Math.cos(rho), to.y - BARB * Math.sin(rho));
+        }
+        return head;
+    }
+}
@@ -0,0 +1,190 @@
+package me.wphillips.fsmedit;
+
+import java.awt.Point;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Spatial index of the bounding boxes of the edges of a {@link GraphModel},
+ * keyed by edge index, so hit-testing and drawing only look at edges near
+ * the area of interest. The box of an edge holds both node circles and, for
+ * a bezier edge, its control point, so it encloses the whole curve.
+ * <p>
+ * Edges vary from a few units to the width of the graph, so the index is a
+ * hierarchy of uniform grids whose cells double in size from one level to
+ * the next. Each edge is filed once, under the cell holding the center of
+ * its box on the level whose cells are at least as large as the box; a query
+ * looks at the cells around it on each level that holds any edge.
+ * <p>
+ * The owner must report every edge added, removed or moved to another index,
+ * and every edge whose nodes, curvature or spline type changed.
+ */
+final class EdgeGrid {
+    /** Width of a cell on the finest level, as a power of two. */
+    static final int CELL_SHIFT = 7;
+
+    private static final int LEVELS = 64 - CELL_SHIFT;
+    /** Mask of the bits holding each cell coordinate in a key. */
+    private static final long COORDINATE_MASK = (1L << 28) - 1;
+
+    private final CellChains chains;
+    /** Bounding box of each edge. */
+    private int[] minX;
+    private int[] minY;
+    private int[] maxX;
+    private int[] maxY;
+    /** Number of edges filed on each level. */
+    private final int[] levelCounts = new int[LEVELS];
+
+    EdgeGrid(List<Edge> edges) {
+        int capacity = Math.max(16, edges.size());
+        chains = new CellChains(capacity);
+        minX = new int[capacity];
+        minY = new int[capacity];
+        maxX = new int[capacity];
+        maxY = new int[capacity];
+        for (int i = 0; i < edges.size(); i++) {
+            if (edges.get(i) != null) {
+                add(i, edges.get(i));
+            }
+        }
+    }
+
+    /** File the edge at the given index. */
+    void add(int index, Edge e) {
+        if (index >= minX.length) {
+            int c = Math.max(index + 1, minX.length * 2);
+            minX = Arrays.copyOf(minX, c);
+            minY = Arrays.copyOf(minY, c);
+            maxX = Arrays.copyOf(maxX, c);
+            maxY = Arrays.copyOf(maxY, c);
+        }
+        bound(index, e);
+        link(index);
+    }
+
+    /** Drop the edge at the given index. */
+    void remove(int index) {
+        levelCounts[level(chains.cellOf(index))]--;
+        chains.unlink(index);
+    }
+
+    /** Refile the edge at the given index after its shape changed. */
+    void update(int index, Edge e) {
+        bound(index, e);
+        if (keyOf(index) != chains.cellOf(index)) {
+            remove(index);
+            link(index);
+        }
+    }
+
+    /** Follow an edge that moved from index {@code from} to the vacant index {@code to}. */
+    void move(int from, int to) {
+        minX[to] = minX[from];
+        minY[to] = minY[from];
+        maxX[to] = maxX[from];
+        maxY[to] = maxY[from];
+        chains.move(from, to);
+    }
+
+    /**
+     * Find the edges whose bounding box intersects a region, given by its
+     * inclusive bounds.
+     *
+     * @return their indices in ascending order
+     */
+    int[] indicesIn(long qMinX, long qMinY, long qMaxX, long qMaxY) {
+        CellChains.Hits hits = new CellChains.Hits();
+        long scanLevels = 0;
+        for (int level = 0; level < LEVELS; level++) {
+            if (levelCounts[level] == 0) {
+                continue;
+            }
+            int shift = CELL_SHIFT + level;
+            long half = 1L << (shift - 1);
+            long cx0 = (qMinX - half) >> shift;
+            long cx1 = (qMaxX + half) >> shift;
+            long cy0 = (qMinY - half) >> shift;
+            long cy1 = (qMaxY + half) >> shift;
+            if ((cx1 - cx0 + 1) * (cy1 - cy0 + 1) > chains.cellCount()) {
+                // More cells than are occupied: cheaper to find them from the table
+                scanLevels |= 1L << level;
+                continue;
+            }
+            for (long cx = cx0; cx <= cx1; cx++) {
+                for (long cy = cy0; cy <= cy1; cy++) {
+                    scan(chains.head(key(level, cx, cy)), qMinX, qMinY, qMaxX, qMaxY, hits);
+                }
+            }
+        }
+        if (scanLevels != 0) {
+            for (int i = 0; i < chains.tableLength(); i++) {
+                int head = chains.headAt(i);
+                if (head >= 0 && (scanLevels & (1L << level(chains.keyAt(i)))) != 0) {
+                    scan(head, qMinX, qMinY, qMaxX, qMaxY, hits);
+                }
+            }
+        }
+        return hits.sorted();
+    }
+
+    private void scan(int index, long qMinX, long qMinY, long qMaxX, long qMaxY,
+            CellChains.Hits hits) {
+        for (int i = index; i >= 0; i = chains.next(i)) {
+            if (maxX[i] >= qMinX && minX[i] <= qMaxX && maxY[i] >= qMinY && minY[i] <= qMaxY) {
+                hits.add(i);
+            }
+        }
+    }
+
+    private void link(int index) {
+        long key = keyOf(index);
+        levelCounts[level(key)]++;
+        chains.link(index, key);
+    }
+
+    /** Compute the bounding box of an edge. */
+    private void bound(int index, Edge e) {
+        Node from = e.getFrom();
+        Node to = e.getTo();
+        long x0 = Math.min((long) from.getX() - from.getRadius(), (long) to.getX() - to.getRadius());
+        long y0 = Math.min((long) from.getY() - from.getRadius(), (long) to.getY() - to.getRadius());
+        long x1 = Math.max((long) from.getX() + from.getRadius(), (long) to.getX() + to.getRadius());
+        long y1 = Math.max((long) from.getY() + from.getRadius(), (long) to.getY() + to.getRadius());
+        if (e.getSplineType() == Edge.SplineType.BEZIER) {
+            // The curve stays within the hull of its ends and control point;
+            // the margin covers drawing from the unrounded control point
+            Point cp = e.getControlPoint();
+            x0 = Math.min(x0, cp.x - 1L);
+            y0 = Math.min(y0, cp.y - 1L);
+            x1 = Math.max(x1, cp.x + 1L);
+            y1 = Math.max(y1, cp.y + 1L);
+        }
+        minX[index] = clamp(x0);
+        minY[index] = clamp(y0);
+        maxX[index] = clamp(x1);
+        maxY[index] = clamp(y1);
+    }
+
+    private long keyOf(int index) {
+        long extent = Math.max((long) maxX[index] - minX[index], (long) maxY[index] - minY[index]);
+        int level = extent <= 1L << CELL_SHIFT ? 0
+                : 64 - Long.numberOfLeadingZeros(extent - 1) - CELL_SHIFT;
+        int shift = CELL_SHIFT + level;
+        long cx = ((long) minX[index] + maxX[index]) >> 1;
+        long cy = ((long) minY[index] + maxY[index]) >> 1;
+        return key(level, cx >> shift, cy >> shift);
+    }
+
+    private static long key(int level, long cx, long cy) {
+        return ((long) level << 56) | ((cx & COORDINATE_MASK) << 28) | (cy & COORDINATE_MASK);
+    }
+
+    private static int level(long key) {
+        return (int) (key >>> 56);
+    }
+
+    private static int clamp(long value) {
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, value));
+    }
+}
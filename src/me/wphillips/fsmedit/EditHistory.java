@@ -0,0 +1,382 @@
+package me.wphillips.fsmedit;
+
+import java.awt.Color;
+import java.awt.Point;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Undo and redo history of a {@link GraphModel}, recorded from the changes
+ * the model reports. Each batch of changes delivered together becomes one
+ * step holding the old and new value of every changed property, so undoing
+ * a step replays those values instead of restoring a copy of the graph.
+ * <p>
+ * A batch that edits the same properties of the same elements as the newest
+ * step, as each event of a drag or each keystroke in a field does, is merged
+ * into that step until {@link #seal()} is called. The history is capped by
+ * an estimate of the memory it holds rather than by a number of steps: the
+ * oldest steps are dropped once the budget is exceeded.
+ */
+public final class EditHistory implements GraphModel.ChangeListener {
+    /** Memory budget used unless another is given. */
+    public static final long DEFAULT_BUDGET = 32L << 20;
+
+    /** Estimated cost of a recorded change: the change itself and its slots in a step. */
+    private static final int CHANGE_BYTES = 80;
+    /** Estimated cost of a boxed value or point. */
+    private static final int VALUE_BYTES = 24;
+    /** Estimated cost of a node kept alive by the history, with its scratch slot. */
+    private static final int NODE_BYTES = 96;
+    /** Estimated cost of an edge kept alive by the history. */
+    private static final int EDGE_BYTES = 64;
+
+    private final GraphModel model;
+    private final long budget;
+    private final Deque<Step> undo = new ArrayDeque<>();
+    private final Deque<Step> redo = new ArrayDeque<>();
+    private long size;
+    /** Whether the newest step may absorb further edits. */
+    private boolean open;
+    /** Changes made while applying a step, collected instead of recorded. */
+    private List<GraphChange> applied;
+
+    /** One undoable step: the changes of a batch and the value of each property after it. */
+    private static final class Step {
+        final GraphChange[] changes;
+        final Object[] after;
+        final long size;
+
+        Step(GraphChange[] changes, Object[] after, long size) {
+            this.changes = changes;
+            this.after = after;
+            this.size = size;
+        }
+
+        /** Check whether a batch edits exactly the properties this step edits. */
+        boolean sameEdits(List<GraphChange> batch) {
+            if (batch.size() != changes.length) {
+                return false;
+            }
+            for (int i = 0; i < changes.length; i++) {
+                if (changes[i].getProperty() == null || !changes[i].sameAs(batch.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /** Record the edits made to a model from now on, within the default budget. */
+    public EditHistory(GraphModel model) {
+        this(model, DEFAULT_BUDGET);
+    }
+
+    /**
+     * Record the edits made to a model from now on.
+     *
+     * @param budget estimated number of bytes the history may hold
+     */
+    public EditHistory(GraphModel model, long budget) {
+        if (budget <= 0) {
+            throw new IllegalArgumentException("Budget must be positive");
+        }
+        this.model = model;
+        this.budget = budget;
+        model.addChangeListener(this);
+    }
+
+    /** Stop recording edits to the model. */
+    public void dispose() {
+        model.removeChangeListener(this);
+    }
+
+    @Override
+    public void graphChanged(List<GraphChange> changes) {
+        if (applied != null) {
+            applied.addAll(changes);
+            return;
+        }
+        for (GraphChange c : changes) {
+            if (c.getType() == GraphChange.Type.CLEARED) {
+                // Cleared elements are gone for good
+                clear();
+                return;
+            }
+        }
+        Object[] after = afterValues(changes);
+        dropRedo();
+        Step top = undo.peekLast();
+        if (open && top != null && top.sameEdits(changes)) {
+            undo.removeLast();
+            undo.addLast(new Step(top.changes, after, top.size));
+            return;
+        }
+        GraphChange[] recorded = changes.toArray(new GraphChange[0]);
+        Step step = new Step(recorded, after, estimate(recorded, after));
+        undo.addLast(step);
+        size += step.size;
+        open = true;
+        while (size > budget && undo.size() > 1) {
+            size -= undo.removeFirst().size;
+        }
+    }
+
+    /** End the newest step so later edits start a new one. */
+    public void seal() {
+        open = false;
+    }
+
+    public boolean canUndo() {
+        return !undo.isEmpty();
+    }
+
+    public boolean canRedo() {
+        return !redo.isEmpty();
+    }
+
+    /**
+     * Revert the newest step.
+     *
+     * @return the changes made to the model, empty if there was nothing to undo
+     */
+    public List<GraphChange> undo() {
+        Step step = undo.pollLast();
+        if (step == null) {
+            return Collections.emptyList();
+        }
+        redo.addLast(step);
+        return apply(step, false);
+    }
+
+    /**
+     * Make the most recently undone step again.
+     *
+     * @return the changes made to the model, empty if there was nothing to redo
+     */
+    public List<GraphChange> redo() {
+        Step step = redo.pollLast();
+        if (step == null) {
+            return Collections.emptyList();
+        }
+        undo.addLast(step);
+        return apply(step, true);
+    }
+
+    /** Forget every step. */
+    public void clear() {
+        undo.clear();
+        redo.clear();
+        size = 0;
+        open = false;
+    }
+
+    /** Get the estimated number of bytes held by the history. */
+    public long getSize() {
+        return size;
+    }
+
+    private void dropRedo() {
+        for (Step step : redo) {
+            size -= step.size;
+        }
+        redo.clear();
+    }
+
+    private List<GraphChange> apply(Step step, boolean forward) {
+        open = false;
+        applied = new ArrayList<>();
+        model.beginUpdate();
+        try {
+            if (forward) {
+                for (int i = 0; i < step.changes.length; i++) {
+                    redo(step.changes[i], step.after[i]);
+                }
+            } else {
+                for (int i = step.changes.length - 1; i >= 0; i--) {
+                    undo(step.changes[i]);
+                }
+            }
+        } finally {
+            model.endUpdate();
+        }
+        List<GraphChange> result = applied;
+        applied = null;
+        return result;
+    }
+
+    private void undo(GraphChange c) {
+        switch (c.getType()) {
+            case NODE_ADDED:
+                model.removeNode(c.getNode());
+                break;
+            case NODE_REMOVED:
+                model.addNode((Integer) c.getOldValue(), c.getNode());
+                break;
+            case EDGE_ADDED:
+                model.removeEdge(c.getEdge());
+                break;
+            case EDGE_REMOVED:
+                model.addEdge((Integer) c.getOldValue(), c.getEdge());
+                break;
+            default:
+                set(c, c.getOldValue());
+                break;
+        }
+    }
+
+    private void redo(GraphChange c, Object value) {
+        switch (c.getType()) {
+            case NODE_ADDED:
+                model.addNode(c.getNode());
+                break;
+            case NODE_REMOVED:
+                model.removeNode(c.getNode());
+                break;
+            case EDGE_ADDED:
+                model.addEdge(c.getEdge());
+                break;
+            case EDGE_REMOVED:
+                model.removeEdge(c.getEdge());
+                break;
+            default:
+                set(c, value);
+                break;
+        }
+    }
+
+    private void set(GraphChange c, Object value) {
+        Node n = c.getNode();
+        Edge e = c.getEdge();
+        switch (c.getProperty()) {
+            case POSITION:
+                Point p = (Point) value;
+                n.setPosition(p.x, p.y);
+                break;
+            case RADIUS:
+                n.setRadius((Integer) value);
+                break;
+            case LABEL:
+                n.setLabel((String) value);
+                break;
+            case COLOR:
+                n.setColor((Color) value);
+                break;
+            case METADATA:
+                n.setMetadata((String) value);
+                break;
+            case LOCKED:
+                n.setLocked((Boolean) value);
+                break;
+            case TARGET:
+                model.setEdgeTarget(e, (Node) value);
+                break;
+            case SPLINE_TYPE:
+                e.setSplineType((Edge.SplineType) value);
+                break;
+            case CURVATURE:
+                e.setCurvature((Float) value);
+                break;
+            case TEXT:
+                e.setText((String) value);
+                break;
+            case START_NODE:
+                model.setStartNode((Node) value);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown property " + c.getProperty());
+        }
+    }
+
+    /**
+     * Find the value each changed property had right after its change: the
+     * old value of the next change to it in the batch, or its current value.
+     */
+    private Object[] afterValues(List<GraphChange> changes) {
+        Object[] after = new Object[changes.size()];
+        Map<Object, Map<GraphChange.Property, Object>> next =
+                changes.size() > 1 ? new IdentityHashMap<>() : null;
+        for (int i = changes.size() - 1; i >= 0; i--) {
+            GraphChange c = changes.get(i);
+            GraphChange.Property p = c.getProperty();
+            if (p == null) {
+                continue;
+            }
+            Object owner = c.getEdge() != null ? c.getEdge()
+                    : p == GraphChange.Property.START_NODE ? model : c.getNode();
+            Map<GraphChange.Property, Object> later = next == null ? null : next.get(owner);
+            after[i] = later != null && later.containsKey(p) ? later.get(p) : current(c);
+            if (next != null) {
+                next.computeIfAbsent(owner, k -> new EnumMap<>(GraphChange.Property.class))
+                        .put(p, c.getOldValue());
+            }
+        }
+        return after;
+    }
+
+    private Object current(GraphChange c) {
+        Node n = c.getNode();
+        Edge e = c.getEdge();
+        switch (c.getProperty()) {
+            case POSITION:
+                return n.getPosition();
+            case RADIUS:
+                return n.getRadius();
+            case LABEL:
+                return n.getLabel();
+            case COLOR:
+                return n.getColor();
+            case METADATA:
+                return n.getMetadata();
+            case LOCKED:
+                return n.isLocked();
+            case TARGET:
+                return e.getTo();
+            case SPLINE_TYPE:
+                return e.getSplineType();
+            case CURVATURE:
+                return e.getCurvature();
+            case TEXT:
+                return e.getText();
+            case START_NODE:
+                return model.getStartNode();
+            default:
+                throw new IllegalArgumentException("Unknown property " + c.getProperty());
+        }
+    }
+
+    private static long estimate(GraphChange[] changes, Object[] after) {
+        long bytes = 64;
+        for (int i = 0; i < changes.length; i++) {
+            GraphChange c = changes[i];
+            bytes += CHANGE_BYTES + valueBytes(c.getOldValue()) + valueBytes(after[i]);
+            switch (c.getType()) {
+                case NODE_ADDED:
+                case NODE_REMOVED:
+                    Node n = c.getNode();
+                    bytes += NODE_BYTES + valueBytes(n.getLabel()) + valueBytes(n.getMetadata());
+                    break;
+                case EDGE_ADDED:
+                case EDGE_REMOVED:
+                    bytes += EDGE_BYTES + valueBytes(c.getEdge().getText());
+                    break;
+                default:
+                    break;
+            }
+        }
+        return bytes;
+    }
+
+    private static long valueBytes(Object value) {
+        if (value instanceof String) {
+            return 40 + 2L * ((String) value).length();
+        }
+        return value instanceof Point || value instanceof Color
+                || value instanceof Number || value instanceof Boolean ? VALUE_BYTES : 0;
+    }
+}
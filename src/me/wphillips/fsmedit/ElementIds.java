@@ -0,0 +1,52 @@
+package me.wphillips.fsmedit;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * Holds the active {@link IdGenerator} and converts identifiers between
+ * their two-long storage form and the string form shown to users.
+ */
+public final class ElementIds {
+    private ElementIds() {}
+
+    private static volatile IdGenerator generator = new SessionIdGenerator();
+
+    /** Get the generator used for new nodes and edges. */
+    public static IdGenerator getGenerator() {
+        return generator;
+    }
+
+    /** Replace the generator used for new nodes and edges. */
+    public static void setGenerator(IdGenerator generator) {
+        if (generator == null) {
+            throw new IllegalArgumentException("generator must not be null");
+        }
+        ElementIds.generator = generator;
+    }
+
+    /** Generate a new identifier with the active generator. */
+    public static UUID next() {
+        return generator.next();
+    }
+
+    /**
+     * Parse an identifier read from a saved file. Strings that are not UUIDs
+     * are mapped to a name-based UUID so they stay stable across loads.
+     */
+    public static UUID parse(String id) {
+        if (id == null || id.isEmpty()) {
+            return next();
+        }
+        try {
+            return UUID.fromString(id);
+        } catch (IllegalArgumentException ex) {
+            return UUID.nameUUIDFromBytes(id.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /** Format an identifier stored as two longs. */
+    public static String format(long mostSigBits, long leastSigBits) {
+        return new UUID(mostSigBits, leastSigBits).toString();
+    }
+}
@@ -0,0 +1,143 @@
+package me.wphillips.fsmedit;
+
+import java.util.AbstractSet;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Set of nodes or edges of one {@link GraphModel}, stored as a bit per
+ * element keyed by the slot the model keeps the element in. Membership tests
+ * and updates take constant time and a set of every element costs one bit
+ * each. The model keeps its sets in step as elements are removed and as it
+ * moves the others to new slots. Iteration follows the order of the slots,
+ * which is drawing order. Create sets with {@link GraphModel#newNodeSet()}
+ * and {@link GraphModel#newEdgeSet()}.
+ */
+public final class ElementSet<T> extends AbstractSet<T> {
+    /** Slots of the elements of one kind in a model. */
+    interface Indexer<T> {
+        /** Get the slot of an element, or -1 if it is not part of the model. */
+        int indexOf(Object o);
+
+        T get(int slot);
+    }
+
+    private final Indexer<T> indexer;
+    private final BitSet bits = new BitSet();
+    private int count;
+
+    ElementSet(Indexer<T> indexer) {
+        this.indexer = indexer;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        int i = indexer.indexOf(o);
+        return i >= 0 && bits.get(i);
+    }
+
+    /**
+     * Add an element of the model.
+     *
+     * @throws IllegalArgumentException if the element is not part of the model
+     */
+    @Override
+    public boolean add(T element) {
+        int i = indexer.indexOf(element);
+        if (i < 0) {
+            throw new IllegalArgumentException("Element is not part of the graph");
+        }
+        if (bits.get(i)) {
+            return false;
+        }
+        bits.set(i);
+        count++;
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        int i = indexer.indexOf(o);
+        if (i < 0 || !bits.get(i)) {
+            return false;
+        }
+        bits.clear(i);
+        count--;
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        bits.clear();
+        count = 0;
+    }
+
+    @Override
+    public int size() {
+        return count;
+    }
+
+    /** Get the first element in slot order, or {@code null} if the set is empty. */
+    public T first() {
+        int i = bits.nextSetBit(0);
+        return i < 0 ? null : indexer.get(i);
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<>() {
+            private int next = bits.nextSetBit(0);
+            private int last = -1;
+
+            @Override
+            public boolean hasNext() {
+                return next >= 0;
+            }
+
+            @Override
+            public T next() {
+                if (next < 0) {
+                    throw new NoSuchElementException();
+                }
+                last = next;
+                next = bits.nextSetBit(next + 1);
+                return indexer.get(last);
+            }
+
+            @Override
+            public void remove() {
+                if (last < 0) {
+                    throw new IllegalStateException();
+                }
+                bits.clear(last);
+                count--;
+                last = -1;
+            }
+        };
+    }
+
+    /** Update the set after the element in a slot was removed, leaving it vacant. */
+    void vacated(int slot) {
+        if (bits.get(slot)) {
+            bits.clear(slot);
+            count--;
+        }
+    }
+
+    /** Follow the elements from a slot on moving up by one to make room for another. */
+    void inserted(int slot) {
+        for (int i = bits.length() - 1; i >= slot; i = bits.previousSetBit(i - 1)) {
+            bits.clear(i);
+            bits.set(i + 1);
+        }
+    }
+
+    /** Follow an element that moved from slot {@code from} to the vacant slot {@code to}. */
+    void moved(int from, int to) {
+        if (bits.get(from)) {
+            bits.clear(from);
+            bits.set(to);
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package me.wphillips.fsmedit;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * Graph algorithms that operate on plain node and edge lists so they can be
+ * used both by the editor and by headless tools.
+ */
+public final class GraphAnalysis {
+    private GraphAnalysis() {}
+
+    /**
+     * Find all directed cycles reachable from the provided start node.
+     */
+    public static List<List<Edge>> findCyclesFrom(List<Node> nodes, List<Edge> edges, Node startNode) {
+        return findCyclesFrom(nodes, edges, startNode, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Find directed cycles reachable from the provided start node, stopping
+     * once {@code limit} cycles have been found.
+     */
+    public static List<List<Edge>> findCyclesFrom(List<Node> nodes, List<Edge> edges,
+            Node startNode, int limit) {
+        if (!nodes.contains(startNode)) {
+            return Collections.emptyList();
+        }
+        return findCycles(outgoingOf(edges), startNode, limit);
+    }
+
+    /**
+     * Find directed cycles reachable from the provided start node using the
+     * model's adjacency index, stopping once {@code limit} cycles have been found.
+     */
+    public static List<List<Edge>> findCyclesFrom(GraphModel model, Node startNode, int limit) {
+        return findCycles(model::getOutgoing, startNode, limit);
+    }
+
+    /**
+     * Find directed cycles reachable from a node of a snapshot, stopping once
+     * {@code limit} cycles have been found. The snapshot's edge chunks are
+     * searched as they are, without building a model from them.
+     *
+     * @param start index of the start node in the snapshot
+     * @return the identifiers of each cycle's edges, in order
+     */
+    public static List<List<UUID>> findCyclesFrom(GraphSnapshot snapshot, int start, int limit) {
+        SnapshotCycles search = new SnapshotCycles(snapshot, limit);
+        if (start >= 0 && start < snapshot.getNodeCount()) {
+            search.visit(start);
+        }
+        return search.loops;
+    }
+
+    /** Depth-first cycle search over the node and edge indices of a snapshot. */
+    private static final class SnapshotCycles {
+        private final GraphSnapshot snapshot;
+        private final int limit;
+        /** Outgoing edges of node {@code n} are {@code outgoing[first[n]]} up to {@code first[n + 1]}. */
+        private final int[] first;
+        private final int[] outgoing;
+        /** Position of each node on the stack, or -1 when it is not on it. */
+        private final int[] stackPosition;
+        private final int[] edgeStack;
+        private int depth;
+        private final Set<List<UUID>> seenCycles = new HashSet<>();
+        final List<List<UUID>> loops = new ArrayList<>();
+
+        SnapshotCycles(GraphSnapshot snapshot, int limit) {
+            this.snapshot = snapshot;
+            this.limit = limit;
+            int nodeCount = snapshot.getNodeCount();
+            // Index the edges by source node in list order, as GraphModel does
+            first = new int[nodeCount + 1];
+            for (int c = 0; c < snapshot.edgeChunkCount(); c++) {
+                GraphSnapshot.EdgeChunk chunk = snapshot.edgeChunk(c);
+                for (int i = 0; i < chunk.length(); i++) {
+                    if (chunk.from[i] >= 0 && chunk.to[i] >= 0) {
+                        first[chunk.from[i] + 1]++;
+                    }
+                }
+            }
+            for (int n = 0; n < nodeCount; n++) {
+                first[n + 1] += first[n];
+            }
+            outgoing = new int[first[nodeCount]];
+            int[] next = Arrays.copyOf(first, nodeCount);
+            for (int c = 0; c < snapshot.edgeChunkCount(); c++) {
+                GraphSnapshot.EdgeChunk chunk = snapshot.edgeChunk(c);
+                for (int i = 0; i < chunk.length(); i++) {
+                    if (chunk.from[i] >= 0 && chunk.to[i] >= 0) {
+                        outgoing[next[chunk.from[i]]++] = (c << GraphSnapshot.CHUNK_SHIFT) + i;
+                    }
+                }
+            }
+            stackPosition = new int[nodeCount];
+            Arrays.fill(stackPosition, -1);
+            edgeStack = new int[nodeCount];
+        }
+
+        void visit(int node) {
+            stackPosition[node] = depth;
+            for (int k = first[node]; k < first[node + 1] && loops.size() < limit; k++) {
+                int edge = outgoing[k];
+                int target = edgeChunk(edge).to[edge & (GraphSnapshot.CHUNK_SIZE - 1)];
+                edgeStack[depth] = edge;
+                if (stackPosition[target] < 0) {
+                    depth++;
+                    visit(target);
+                    depth--;
+                } else {
+                    addCycle(stackPosition[target]);
+                }
+            }
+            stackPosition[node] = -1;
+        }
+
+        /** Record the cycle formed by the edges on the stack from a position to the top. */
+        private void addCycle(int from) {
+            UUID[] ids = new UUID[depth + 1 - from];
+            for (int i = from; i <= depth; i++) {
+                int edge = edgeStack[i];
+                GraphSnapshot.EdgeChunk chunk = edgeChunk(edge);
+                int offset = edge & (GraphSnapshot.CHUNK_SIZE - 1);
+                ids[i - from] = new UUID(chunk.idMsb[offset], chunk.idLsb[offset]);
+            }
+            if (seenCycles.add(canonicalCycleKey(ids))) {
+                loops.add(Arrays.asList(ids));
+            }
+        }
+
+        private GraphSnapshot.EdgeChunk edgeChunk(int edge) {
+            return snapshot.edgeChunk(edge >> GraphSnapshot.CHUNK_SHIFT);
+        }
+    }
+
+    private static List<List<Edge>> findCycles(Function<Node, List<Edge>> outgoing,
+            Node startNode, int limit) {
+        if (startNode == null || outgoing.apply(startNode).isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<List<Edge>> loops = new ArrayList<>();
+        List<Node> nodeStack = new ArrayList<>();
+        List<Edge> edgeStack = new ArrayList<>();
+        Set<Node> onStack = new HashSet<>();
+        Set<List<UUID>> seenCycles = new HashSet<>();
+        findCyclesDepthFirst(startNode, outgoing, nodeStack, edgeStack,
+                onStack, seenCycles, loops, limit);
+        return loops;
+    }
+
+    private static void findCyclesDepthFirst(Node node, Function<Node, List<Edge>> outgoing,
+            List<Node> nodeStack, List<Edge> edgeStack, Set<Node> onStack,
+            Set<List<UUID>> seenCycles, List<List<Edge>> loops, int limit) {
+        nodeStack.add(node);
+        onStack.add(node);
+        for (Edge edge : outgoing.apply(node)) {
+            if (loops.size() >= limit) {
+                break;
+            }
+            Node next = edge.getTo();
+            edgeStack.add(edge);
+            if (!onStack.contains(next)) {
+                findCyclesDepthFirst(next, outgoing, nodeStack, edgeStack,
+                        onStack, seenCycles, loops, limit);
+            } else {
+                int idx = nodeStack.indexOf(next);
+                if (idx != -1) {
+                    List<Edge> cycle = new ArrayList<>();
+                    for (int i = idx; i < edgeStack.size(); i++) {
+                        cycle.add(edgeStack.get(i));
+                    }
+                    if (!cycle.isEmpty()) {
+                        List<UUID> key = canonicalCycleKey(cycle);
+                        if (seenCycles.add(key)) {
+                            loops.add(new ArrayList<>(cycle));
+                        }
+                    }
+                }
+            }
+            edgeStack.remove(edgeStack.size() - 1);
+        }
+        nodeStack.remove(nodeStack.size() - 1);
+        onStack.remove(node);
+    }
+
+    /**
+     * Build a key identifying a cycle regardless of which edge it starts at,
+     * by rotating the edge ids so the smallest comes first.
+     */
+    private static List<UUID> canonicalCycleKey(List<Edge> cycle) {
+        UUID[] ids = new UUID[cycle.size()];
+        for (int i = 0; i < ids.length; i++) {
+            Edge edge = cycle.get(i);
+            ids[i] = new UUID(edge.getIdMostSigBits(), edge.getIdLeastSigBits());
+        }
+        return canonicalCycleKey(ids);
+    }
+
+    /** Build the key of a cycle given by the ids of its edges in order. */
+    private static List<UUID> canonicalCycleKey(UUID[] ids) {
+        int n = ids.length;
+        int first = 0;
+        for (int i = 1; i < n; i++) {
+            if (ids[i].compareTo(ids[first]) < 0) {
+                first = i;
+            }
+        }
+        List<UUID> key = new ArrayList<>(n);
+        for (int j = 0; j < n; j++) {
+            key.add(ids[(first + j) % n]);
+        }
+        return key;
+    }
+
+    /**
+     * Collect every node reachable from the start node, including the start node itself.
+     */
+    public static Set<Node> findReachable(List<Edge> edges, Node startNode) {
+        return findReachable(outgoingOf(edges), startNode);
+    }
+
+    /**
+     * Collect every node reachable from the start node using the model's
+     * adjacency index, including the start node itself.
+     */
+    public static Set<Node> findReachable(GraphModel model, Node startNode) {
+        return findReachable(model::getOutgoing, startNode);
+    }
+
+    private static Set<Node> findReachable(Function<Node, List<Edge>> outgoing, Node startNode) {
+        Set<Node> reached = new HashSet<>();
+        if (startNode == null) {
+            return reached;
+        }
+        Deque<Node> pending = new ArrayDeque<>();
+        reached.add(startNode);
+        pending.add(startNode);
+        while (!pending.isEmpty()) {
+            for (Edge edge : outgoing.apply(pending.poll())) {
+                if (reached.add(edge.getTo())) {
+                    pending.add(edge.getTo());
+                }
+            }
+        }
+        return reached;
+    }
+
+    /**
+     * Index a plain edge list by source node. Edges are not put in a
+     * {@link GraphModel} since they may already belong to one.
+     */
+    private static Function<Node, List<Edge>> outgoingOf(List<Edge> edges) {
+        Map<Node, List<Edge>> outgoing = new IdentityHashMap<>();
+        for (Edge e : edges) {
+            outgoing.computeIfAbsent(e.getFrom(), k -> new ArrayList<>(2)).add(e);
+        }
+        return n -> outgoing.getOrDefault(n, Collections.emptyList());
+    }
+}
@@ -0,0 +1,164 @@
+package me.wphillips.fsmedit;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary encoding for {@link GraphModel}.
+ * <p>
+ * Layout (all values big-endian):
+ * <pre>
+ * header   magic, version, stringCount, stringBytes, nodeCount, edgeCount, startIndex
+ * strings  (stringCount + 1) end offsets followed by the UTF-8 string data
+ * nodes    nodeCount fixed-width records of {@link #NODE_RECORD_SIZE} bytes
+ * edges    edgeCount fixed-width records of {@link #EDGE_RECORD_SIZE} bytes
+ * </pre>
+ * Strings are deduplicated and referenced by index ({@code -1} for
+ * {@code null}), edges reference nodes by their index in the node section and
+ * colors are stored as packed ARGB ints. Identifiers are stored as the two
+ * longs of their UUID; version 1 files stored them as strings instead and
+ * are still readable. Because every section size is known
+ * from the header, individual records can be located without decoding the
+ * rest of the file; see {@link MappedGraph} for the reader.
+ */
+final class GraphBinaryFormat {
+    private GraphBinaryFormat() {}
+
+    /** Magic number identifying binary graph files ("FSMB"). */
+    static final int MAGIC = 0x46534D42;
+    /** Current format version. */
+    static final int VERSION = 2;
+    /** Oldest format version that can still be read. */
+    static final int MIN_VERSION = 1;
+    /** Size of the fixed header in bytes. */
+    static final int HEADER_SIZE = 28;
+    /** Size of a single node record in bytes. */
+    static final int NODE_RECORD_SIZE = 44;
+    /** Size of a single edge record in bytes. */
+    static final int EDGE_RECORD_SIZE = 36;
+    /** Size of a node record in version 1 files. */
+    static final int V1_NODE_RECORD_SIZE = 32;
+    /** Size of an edge record in version 1 files. */
+    static final int V1_EDGE_RECORD_SIZE = 24;
+
+    /** Node flag set when the node position is locked. */
+    static final int NODE_LOCKED = 1;
+    /** Edge flag set when the edge uses a bezier spline. */
+    static final int EDGE_BEZIER = 1;
+
+    /** Number of records written between progress reports. */
+    private static final int PROGRESS_INTERVAL = 4096;
+
+    /**
+     * Write the model to the stream, including the magic header.
+     *
+     * @param listener optional listener notified as records are written
+     */
+    static void write(DataOutputStream out, GraphModel model,
+            GraphIO.ProgressListener listener) throws IOException {
+        List<Node> nodes = model.getNodes();
+        List<Edge> edges = model.getEdges();
+
+        StringTable strings = new StringTable();
+        Map<Node, Integer> nodeIndex = new IdentityHashMap<>();
+        for (int i = 0; i < nodes.size(); i++) {
+            Node n = nodes.get(i);
+            nodeIndex.put(n, i);
+            strings.add(n.getLabel());
+            strings.add(n.getMetadata());
+        }
+        for (Edge e : edges) {
+            strings.add(e.getText());
+        }
+
+        Node start = model.getStartNode();
+        Integer startIndex = start == null ? null : nodeIndex.get(start);
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(strings.size());
+        out.writeInt(strings.byteLength);
+        out.writeInt(nodes.size());
+        out.writeInt(edges.size());
+        out.writeInt(startIndex == null ? -1 : startIndex);
+
+        int offset = 0;
+        out.writeInt(0);
+        for (byte[] data : strings.encoded) {
+            offset += data.length;
+            out.writeInt(offset);
+        }
+        for (byte[] data : strings.encoded) {
+            out.write(data);
+        }
+
+        long total = (long) nodes.size() + edges.size();
+        long done = 0;
+        for (Node n : nodes) {
+            if (listener != null && done++ % PROGRESS_INTERVAL == 0) {
+                listener.progress(done - 1, total);
+            }
+            out.writeInt(n.getX());
+            out.writeInt(n.getY());
+            out.writeInt(n.getRadius());
+            out.writeInt(n.getArgb());
+            out.writeInt(n.isLocked() ? NODE_LOCKED : 0);
+            out.writeInt(strings.indexOf(n.getLabel()));
+            out.writeInt(strings.indexOf(n.getMetadata()));
+            out.writeLong(n.getIdMostSigBits());
+            out.writeLong(n.getIdLeastSigBits());
+        }
+
+        for (Edge e : edges) {
+            if (listener != null && done++ % PROGRESS_INTERVAL == 0) {
+                listener.progress(done - 1, total);
+            }
+            Integer from = nodeIndex.get(e.getFrom());
+            Integer to = nodeIndex.get(e.getTo());
+            if (from == null || to == null) {
+                throw new IOException("Edge " + e.getId() + " references a node outside the graph");
+            }
+            out.writeInt(from);
+            out.writeInt(to);
+            out.writeInt(e.getSplineType() == Edge.SplineType.BEZIER ? EDGE_BEZIER : 0);
+            out.writeFloat(e.getCurvature());
+            out.writeInt(strings.indexOf(e.getText()));
+            out.writeLong(e.getIdMostSigBits());
+            out.writeLong(e.getIdLeastSigBits());
+        }
+        if (listener != null) {
+            listener.progress(total, total);
+        }
+    }
+
+    /** Deduplicated table of strings in first-use order. */
+    private static final class StringTable {
+        private final Map<String, Integer> indices = new HashMap<>();
+        private final List<byte[]> encoded = new ArrayList<>();
+        private int byteLength;
+
+        void add(String s) {
+            if (s == null || indices.containsKey(s)) {
+                return;
+            }
+            byte[] data = s.getBytes(StandardCharsets.UTF_8);
+            indices.put(s, encoded.size());
+            encoded.add(data);
+            byteLength += data.length;
+        }
+
+        int indexOf(String s) {
+            return s == null ? -1 : indices.get(s);
+        }
+
+        int size() {
+            return encoded.size();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package me.wphillips.fsmedit;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Accumulates nodes and edges while a graph is imported from a text format.
+ * Nodes are created the first time they are referenced, so edges may name
+ * nodes that are only declared later in the file. Nodes without a position
+ * are laid out on a grid below the positioned ones when the graph is built.
+ */
+final class GraphBuilder {
+    /** Radius of imported nodes that do not specify a size. */
+    static final int DEFAULT_RADIUS = 30;
+    /** Distance between nodes laid out automatically. */
+    private static final int GRID_SPACING = 100;
+
+    private static final Map<String, Color> NAMED_COLORS = new HashMap<>();
+
+    static {
+        NAMED_COLORS.put("black", Color.BLACK);
+        NAMED_COLORS.put("blue", Color.BLUE);
+        NAMED_COLORS.put("cyan", Color.CYAN);
+        NAMED_COLORS.put("darkgray", Color.DARK_GRAY);
+        NAMED_COLORS.put("darkgrey", Color.DARK_GRAY);
+        NAMED_COLORS.put("gray", Color.GRAY);
+        NAMED_COLORS.put("grey", Color.GRAY);
+        NAMED_COLORS.put("green", Color.GREEN);
+        NAMED_COLORS.put("lightgray", Color.LIGHT_GRAY);
+        NAMED_COLORS.put("lightgrey", Color.LIGHT_GRAY);
+        NAMED_COLORS.put("magenta", Color.MAGENTA);
+        NAMED_COLORS.put("orange", Color.ORANGE);
+        NAMED_COLORS.put("pink", Color.PINK);
+        NAMED_COLORS.put("red", Color.RED);
+        NAMED_COLORS.put("white", Color.WHITE);
+        NAMED_COLORS.put("yellow", Color.YELLOW);
+    }
+
+    /** Store the nodes are created in, taken over by the built graph. */
+    private final NodeStore nodes = new NodeStore(16);
+    private final List<Edge> edges = new ArrayList<>();
+    private final Map<String, Node> nodesByName = new HashMap<>();
+    private final Set<Node> placed = new HashSet<>();
+    private Node start;
+
+    /**
+     * Get the node with the given name, creating it if it has not been seen.
+     * The name becomes the node's identifier, see {@link ElementIds#parse(String)}.
+     */
+    Node node(String name) {
+        Node n = nodesByName.get(name);
+        if (n == null) {
+            UUID id = ElementIds.parse(name);
+            n = new Node(nodes, 0, 0, DEFAULT_RADIUS, name, Color.WHITE.getRGB(),
+                    id.getMostSignificantBits(), id.getLeastSignificantBits());
+            nodesByName.put(name, n);
+        }
+        return n;
+    }
+
+    /** Set the position of a node and exclude it from automatic layout. */
+    void setPosition(Node n, int x, int y) {
+        n.setPosition(x, y);
+        placed.add(n);
+    }
+
+    void setStart(Node n) {
+        start = n;
+    }
+
+    /**
+     * Add an edge between two nodes.
+     *
+     * @param id identifier from the file, or {@code null} to generate one
+     */
+    Edge edge(Node from, Node to, String id) {
+        UUID uuid = ElementIds.parse(id);
+        Edge e = new Edge(from, to, Edge.SplineType.STRAIGHT,
+                uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+        edges.add(e);
+        return e;
+    }
+
+    /** Lay out unpositioned nodes and return the finished graph. */
+    GraphModel build() {
+        if (placed.size() < nodes.size()) {
+            int top = 0;
+            for (Node n : placed) {
+                top = Math.max(top, n.getY() + n.getRadius());
+            }
+            int columns = (int) Math.ceil(Math.sqrt(nodes.size() - placed.size()));
+            int i = 0;
+            for (int slot = 0; slot < nodes.size(); slot++) {
+                Node n = nodes.get(slot);
+                if (!placed.contains(n)) {
+                    n.setPosition(GRID_SPACING + (i % columns) * GRID_SPACING,
+                            top + GRID_SPACING + (i / columns) * GRID_SPACING);
+                    i++;
+                }
+            }
+        }
+        return new GraphModel(nodes, edges, start);
+    }
+
+    /**
+     * Parse a color given as {@code #rrggbb}, {@code #rrggbbaa} or one of a
+     * few common names.
+     *
+     * @return the color, or {@code null} if it is not recognized
+     */
+    static Color parseColor(String value) {
+        if (value == null) {
+            return null;
+        }
+        String v = value.trim().toLowerCase(Locale.ROOT);
+        try {
+            if (v.startsWith("#") && v.length() == 7) {
+                return new Color(Integer.parseInt(v.substring(1), 16));
+            }
+            if (v.startsWith("#") && v.length() == 9) {
+                long rgba = Long.parseLong(v.substring(1), 16);
+                return new Color((int) (rgba >>> 24), (int) (rgba >>> 16) & 0xFF,
+                        (int) (rgba >>> 8) & 0xFF, (int) rgba & 0xFF);
+            }
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+        return NAMED_COLORS.get(v);
+    }
+
+    /** Format a color as {@code #rrggbb}, adding the alpha only when it is not opaque. */
+    static String formatColor(Color c) {
+        Color color = c == null ? Color.WHITE : c;
+        String rgb = String.format("#%06x", color.getRGB() & 0xFFFFFF);
+        return color.getAlpha() == 255 ? rgb : rgb + String.format("%02x", color.getAlpha());
+    }
+}
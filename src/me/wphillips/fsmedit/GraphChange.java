@@ -0,0 +1,109 @@
+package me.wphillips.fsmedit;
+
+/**
+ * Describes one change to a {@link GraphModel}, delivered to its
+ * {@link GraphModel.ChangeListener}s so caches and views can update only the
+ * affected elements. Changes to a property also carry the value it had
+ * before, and removals the position the element had, so the change can be
+ * reverted.
+ */
+public final class GraphChange {
+    /** Kind of change. */
+    public enum Type {
+        NODE_ADDED,
+        NODE_REMOVED,
+        /** Position of a node changed. */
+        NODE_MOVED,
+        /** Label, color or radius of a node changed. */
+        NODE_RESTYLED,
+        /** Metadata or locked state of a node changed. */
+        NODE_EDITED,
+        EDGE_ADDED,
+        EDGE_REMOVED,
+        /** Destination of an edge changed. */
+        EDGE_RETARGETED,
+        /** Spline type or curvature of an edge changed. */
+        EDGE_RESTYLED,
+        /** Text of an edge changed. */
+        EDGE_RETEXTED,
+        START_CHANGED,
+        /** Every node and edge was removed. */
+        CLEARED
+    }
+
+    /** Property changed by an edit, with the type of its old value. */
+    public enum Property {
+        /** {@link java.awt.Point} center of a node. */
+        POSITION,
+        /** {@link Integer} radius of a node. */
+        RADIUS,
+        /** {@link String} label of a node. */
+        LABEL,
+        /** {@link java.awt.Color} of a node. */
+        COLOR,
+        /** {@link String} metadata of a node. */
+        METADATA,
+        /** {@link Boolean} locked state of a node. */
+        LOCKED,
+        /** Destination {@link Node} of an edge. */
+        TARGET,
+        /** {@link Edge.SplineType} of an edge, possibly {@code null}. */
+        SPLINE_TYPE,
+        /** {@link Float} curvature of an edge. */
+        CURVATURE,
+        /** {@link String} text of an edge. */
+        TEXT,
+        /** Start {@link Node} of the graph, possibly {@code null}. */
+        START_NODE
+    }
+
+    private final Type type;
+    private final Node node;
+    private final Edge edge;
+    private final Property property;
+    private final Object oldValue;
+
+    GraphChange(Type type, Node node, Edge edge, Property property, Object oldValue) {
+        this.type = type;
+        this.node = node;
+        this.edge = edge;
+        this.property = property;
+        this.oldValue = oldValue;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /** Get the node that changed, or the new start node; {@code null} for edge changes. */
+    public Node getNode() {
+        return node;
+    }
+
+    /** Get the edge that changed, or {@code null} for node changes. */
+    public Edge getEdge() {
+        return edge;
+    }
+
+    /**
+     * Get the property that changed, or {@code null} for additions,
+     * removals and clearing.
+     */
+    public Property getProperty() {
+        return property;
+    }
+
+    /**
+     * Get the value the property had before the change, or for a removal
+     * the {@link Integer} position the element had in the graph's list.
+     */
+    public Object getOldValue() {
+        return oldValue;
+    }
+
+    /** Check whether this change touches the same property of the same element as another. */
+    boolean sameAs(GraphChange other) {
+        return other != null && type == other.type && node == other.node && edge == other.edge
+                && property == other.property;
+    }
+}
@@ -0,0 +1,201 @@
+package me.wphillips.fsmedit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compressed container for the binary graph format. The encoded graph is
+ * split into fixed-size blocks that are deflated independently, so both
+ * compression and decompression can run on all available cores.
+ * <p>
+ * Layout (all values big-endian):
+ * <pre>
+ * header  magic, version, blockSize, rawLength, blockCount
+ * blocks  blockCount entries of rawLength, compressedLength, deflated bytes
+ * </pre>
+ */
+final class GraphCompression {
+    private GraphCompression() {}
+
+    /** Magic number identifying compressed graph files ("FSMZ"). */
+    static final int MAGIC = 0x46534D5A;
+    /** Current container version. */
+    static final int VERSION = 1;
+    /**
+     * Default uncompressed block size. Large enough that per-block overhead
+     * and lost cross-block matches are negligible, small enough that even
+     * modest graphs are split across every core.
+     */
+    static final int DEFAULT_BLOCK_SIZE = 256 * 1024;
+    /**
+     * Deflate level. Graph records are highly repetitive, so the fastest
+     * level already achieves most of the size reduction.
+     */
+    static final int LEVEL = Deflater.BEST_SPEED;
+
+    /** Shared pool used to compress and decompress blocks. */
+    private static final ExecutorService POOL = Executors.newFixedThreadPool(
+            Math.max(1, Runtime.getRuntime().availableProcessors()), r -> {
+                Thread t = new Thread(r, "fsm-compression");
+                t.setDaemon(true);
+                return t;
+            });
+
+    /**
+     * Encode a model in the binary format and write it compressed.
+     */
+    static void write(DataOutputStream out, GraphModel model,
+            GraphIO.ProgressListener listener) throws IOException {
+        Buffer raw = new Buffer();
+        try (DataOutputStream data = new DataOutputStream(raw)) {
+            GraphBinaryFormat.write(data, model, listener);
+        }
+        write(out, raw.bytes(), raw.size(), DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Compress {@code length} bytes of {@code data} in blocks of {@code blockSize}.
+     */
+    static void write(DataOutputStream out, byte[] data, int length, int blockSize)
+            throws IOException {
+        int blockCount = (int) (((long) length + blockSize - 1) / blockSize);
+        List<Future<byte[]>> blocks = new ArrayList<>(blockCount);
+        for (int i = 0; i < blockCount; i++) {
+            int offset = i * blockSize;
+            int len = Math.min(blockSize, length - offset);
+            blocks.add(POOL.submit(() -> deflate(data, offset, len)));
+        }
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(blockSize);
+        out.writeInt(length);
+        out.writeInt(blockCount);
+        for (int i = 0; i < blockCount; i++) {
+            byte[] compressed = await(blocks.get(i));
+            out.writeInt(Math.min(blockSize, length - i * blockSize));
+            out.writeInt(compressed.length);
+            out.write(compressed);
+        }
+    }
+
+    /**
+     * Read a compressed container, including its magic number, and return
+     * the decompressed binary graph.
+     */
+    static byte[] read(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a compressed graph file");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported compressed graph version " + version);
+        }
+        int blockSize = in.readInt();
+        int length = in.readInt();
+        int blockCount = in.readInt();
+        if (blockSize <= 0 || length < 0 || blockCount < 0
+                || (long) blockCount * blockSize < length) {
+            throw new IOException("Corrupt compressed graph header");
+        }
+        byte[] raw = new byte[length];
+        List<Future<?>> blocks = new ArrayList<>(blockCount);
+        int offset = 0;
+        for (int i = 0; i < blockCount; i++) {
+            int rawLength = in.readInt();
+            int compressedLength = in.readInt();
+            if (rawLength < 0 || rawLength > length - offset || compressedLength < 0) {
+                throw new IOException("Corrupt compressed block " + i);
+            }
+            byte[] compressed = new byte[compressedLength];
+            in.readFully(compressed);
+            int target = offset;
+            blocks.add(POOL.submit(() -> {
+                inflate(compressed, raw, target, rawLength);
+                return null;
+            }));
+            offset += rawLength;
+        }
+        if (offset != length) {
+            throw new IOException("Compressed graph is truncated");
+        }
+        for (Future<?> block : blocks) {
+            await(block);
+        }
+        return raw;
+    }
+
+    private static byte[] deflate(byte[] data, int offset, int length) {
+        Deflater deflater = new Deflater(LEVEL);
+        try {
+            deflater.setInput(data, offset, length);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(length / 4 + 64);
+            byte[] chunk = new byte[64 * 1024];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(chunk);
+                out.write(chunk, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void inflate(byte[] compressed, byte[] raw, int offset, int length)
+            throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            int done = 0;
+            while (done < length) {
+                int n = inflater.inflate(raw, offset + done, length - done);
+                if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IOException("Compressed block is truncated");
+                }
+                done += n;
+            }
+        } catch (DataFormatException ex) {
+            throw new IOException("Corrupt compressed block", ex);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while processing compressed blocks");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /** Byte array stream that exposes its buffer to avoid a copy. */
+    private static final class Buffer extends ByteArrayOutputStream {
+        Buffer() {
+            super(1 << 16);
+        }
+
+        byte[] bytes() {
+            return buf;
+        }
+    }
+}
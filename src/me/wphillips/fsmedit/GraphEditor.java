@@ -3,6 +3,8 @@ package me.wphillips.fsmedit;
 import javax.swing.*;
 import java.awt.BorderLayout;
 import java.awt.datatransfer.DataFlavor;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.io.File;
 import java.util.List;
 
@@ -10,21 +12,31 @@ public class GraphEditor {
     public static void main(String[] args) {
         SwingUtilities.invokeLater(() -> {
             JFrame frame = new JFrame("FSM Graph Editor");
-            frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+            frame.setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
 
             GraphPanel panel = new GraphPanel();
-            frame.setJMenuBar(new GraphMenuBar(panel));
+            GraphMenuBar menuBar = new GraphMenuBar(panel);
+            frame.setJMenuBar(menuBar);
+            frame.addWindowListener(new WindowAdapter() {
+                @Override
+                public void windowClosing(WindowEvent e) {
+                    menuBar.exit();
+                }
+            });
             PropertiesPanel propertiesPanel = new PropertiesPanel(panel);
             panel.setPropertiesPanel(propertiesPanel);
             frame.setLayout(new BorderLayout());
-            if (args.length > 0) {
-                try {
-                    File file = GraphIO.withExtension(new File(args[0]));
-                    panel.loadGraph(file);
-                } catch (Exception ex) {
-                    JOptionPane.showMessageDialog(frame,
-                            "Failed to open file: " + ex.getMessage(),
-                            "Error", JOptionPane.ERROR_MESSAGE);
+            File file = args.length > 0 ? GraphIO.withExtension(new File(args[0])) : null;
+            GraphJournal journal = panel.getJournal();
+            journal.setEnabled(true);
+            // Keeps the journal for recovery if the editor is killed; exiting
+            // from the window has already saved or discarded the changes
+            Runtime.getRuntime().addShutdownHook(new Thread(journal::close));
+            if (!recover(frame, panel, file)) {
+                if (file != null) {
+                    panel.openGraph(file);
+                } else {
+                    journal.start(null);
                 }
             }
 
@@ -48,7 +60,10 @@ public class GraphEditor {
                         List<File> files = (List<File>) support.getTransferable()
                                 .getTransferData(DataFlavor.javaFileListFlavor);
                         if (!files.isEmpty()) {
-                            panel.loadGraph(GraphIO.withExtension(files.get(0)));
+                            File dropped = files.get(0);
+                            menuBar.saveChangesThen(
+                                    "Save current graph before opening another one?",
+                                    () -> panel.openGraph(dropped));
                             return true;
                         }
                     } catch (Exception ex) {
@@ -63,4 +78,35 @@ public class GraphEditor {
             frame.setVisible(true);
         });
     }
+
+    /**
+     * Offer to restore unsaved changes left in the journal by a previous
+     * session that did not shut down cleanly.
+     *
+     * @return true if the graph was recovered from the journal
+     */
+    private static boolean recover(JFrame frame, GraphPanel panel, File file) {
+        File journalFile = GraphJournal.fileFor(file);
+        if (!GraphJournal.hasChanges(journalFile)) {
+            return false;
+        }
+        int choice = JOptionPane.showConfirmDialog(frame,
+                "Unsaved changes from a previous session were found. Recover them?",
+                "Recover Graph", JOptionPane.YES_NO_OPTION);
+        if (choice != JOptionPane.YES_OPTION) {
+            return false;
+        }
+        try {
+            GraphModel recovered = GraphJournal.recover(journalFile);
+            recovered.markModified();
+            panel.setGraph(recovered);
+            panel.getJournal().resume(file);
+            return true;
+        } catch (Exception ex) {
+            JOptionPane.showMessageDialog(frame,
+                    "Failed to recover changes: " + ex.getMessage(),
+                    "Error", JOptionPane.ERROR_MESSAGE);
+            return false;
+        }
+    }
 }
@@ -1,6 +1,14 @@
 package me.wphillips.fsmedit;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Locale;
 
 /**
  * Utility class for saving and loading {@link GraphModel} objects.
@@ -11,6 +19,57 @@ public final class GraphIO {
     /** Default file extension for graph files. */
     public static final String EXTENSION = "fsm";
 
+    /** Buffer size used for file streams. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** On-disk representations of a graph. */
+    public enum Format {
+        /** Compact binary records, see {@link MappedGraph}. */
+        BINARY,
+        /** Binary records split into independently deflated blocks. */
+        COMPRESSED,
+        /** Java object serialization used by older versions. */
+        SERIALIZED
+    }
+
+    /** Text formats used to exchange graphs with other tools. */
+    public enum ExchangeFormat {
+        /** Graphviz DOT, see {@link DotFormat}. */
+        DOT("Graphviz DOT", "dot", "gv"),
+        /** GraphML, see {@link GraphMLFormat}. */
+        GRAPHML("GraphML", "graphml");
+
+        private final String description;
+        private final String[] extensions;
+
+        ExchangeFormat(String description, String... extensions) {
+            this.description = description;
+            this.extensions = extensions;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        /** Get the file extensions of this format, preferred first. */
+        public String[] getExtensions() {
+            return extensions.clone();
+        }
+
+        /** Find the format matching a file's extension, or {@code null}. */
+        public static ExchangeFormat forFile(File file) {
+            String name = file.getName().toLowerCase(Locale.ROOT);
+            for (ExchangeFormat format : values()) {
+                for (String ext : format.extensions) {
+                    if (name.endsWith("." + ext)) {
+                        return format;
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
     /**
      * Ensure the provided file has the {@link #EXTENSION} suffix.
      *
@@ -25,15 +84,201 @@ public final class GraphIO {
         return file;
     }
 
+    /** Receives progress updates while a graph is being written or read. */
+    public interface ProgressListener {
+        /**
+         * Called periodically during a save or load.
+         *
+         * @param done number of records written or read so far
+         * @param total total number of records
+         * @throws InterruptedIOException to abort the save or load
+         */
+        void progress(long done, long total) throws InterruptedIOException;
+
+        /**
+         * Called once everything has been written, just before the target is
+         * replaced. This is the last chance to abort the save.
+         *
+         * @throws InterruptedIOException to abort the save and keep the target
+         */
+        default void replacing() throws InterruptedIOException {
+        }
+    }
+
+    /**
+     * Save the model using the compact binary format.
+     */
     public static void save(File file, GraphModel model) throws IOException {
-        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(file))) {
-            out.writeObject(model);
+        save(file, model, null);
+    }
+
+    /**
+     * Save the model using the compact binary format. The data is written to
+     * a temporary file in the same directory, flushed to disk and then
+     * renamed over the target so an interrupted save never leaves a
+     * truncated file behind.
+     *
+     * @param listener optional listener notified as records are written
+     */
+    public static void save(File file, GraphModel model, ProgressListener listener)
+            throws IOException {
+        save(file, model, Format.BINARY, listener);
+    }
+
+    /**
+     * Save the model in the given format, replacing the target atomically.
+     *
+     * @param listener optional listener notified as records are written
+     */
+    public static void save(File file, GraphModel model, Format format,
+            ProgressListener listener) throws IOException {
+        replace(file, listener, out -> {
+            switch (format) {
+                case BINARY -> GraphBinaryFormat.write(out, model, listener);
+                case COMPRESSED -> GraphCompression.write(out, model, listener);
+                case SERIALIZED -> {
+                    ObjectOutputStream objects = new ObjectOutputStream(out);
+                    objects.writeObject(model);
+                    objects.flush();
+                }
+            }
+        });
+    }
+
+    /**
+     * Import a graph from a DOT or GraphML file, chosen by its extension.
+     * The file is parsed as a stream, so it is never held in memory as text.
+     */
+    public static GraphModel importGraph(File file) throws IOException {
+        ExchangeFormat format = ExchangeFormat.forFile(file);
+        if (format == null) {
+            throw new IOException("Unrecognized file type: " + file.getName());
+        }
+        try (Reader in = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            return format == ExchangeFormat.DOT ? DotFormat.read(in) : GraphMLFormat.read(in);
+        }
+    }
+
+    /**
+     * Export a graph to a DOT or GraphML file, chosen by its extension. The
+     * lists are written as they are without being copied, so they must not be
+     * modified until this method returns.
+     */
+    public static void exportGraph(File file, List<Node> nodes, List<Edge> edges, Node start)
+            throws IOException {
+        ExchangeFormat format = ExchangeFormat.forFile(file);
+        if (format == null) {
+            throw new IOException("Unrecognized file type: " + file.getName());
         }
+        replace(file, null, out -> {
+            Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            if (format == ExchangeFormat.DOT) {
+                DotFormat.write(writer, nodes, edges, start);
+            } else {
+                GraphMLFormat.write(writer, nodes, edges, start);
+            }
+            writer.flush();
+        });
     }
 
+    /**
+     * Export a snapshot of a graph to a DOT or GraphML file, chosen by its
+     * extension. This may be called on any thread.
+     */
+    public static void exportGraph(File file, GraphSnapshot snapshot) throws IOException {
+        GraphModel model = snapshot.toModel();
+        exportGraph(file, model.getNodes(), model.getEdges(), model.getStartNode());
+    }
+
+    /** Writes the content of a file. */
+    private interface Content {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Write a file to a temporary file in the same directory, flush it to
+     * disk and rename it over the target unless the listener aborts first.
+     */
+    private static void replace(File file, ProgressListener listener, Content content)
+            throws IOException {
+        Path target = file.toPath().toAbsolutePath();
+        // java.io temp files honour the umask, unlike Files.createTempFile
+        Path temp = File.createTempFile("." + file.getName() + "-", ".tmp",
+                target.getParent().toFile()).toPath();
+        try {
+            try (FileOutputStream fos = new FileOutputStream(temp.toFile());
+                 DataOutputStream out = new DataOutputStream(
+                         new BufferedOutputStream(fos, BUFFER_SIZE))) {
+                content.write(out);
+                out.flush();
+                fos.getChannel().force(true);
+            }
+            if (listener != null) {
+                listener.replacing();
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Load a graph, detecting the format by its header and falling back to
+     * Java object serialization for files written by older versions.
+     */
     public static GraphModel load(File file) throws IOException, ClassNotFoundException {
-        try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(file))) {
+        if (detectFormat(file) != Format.SERIALIZED) {
+            try (MappedGraph mapped = map(file)) {
+                return mapped.toModel();
+            }
+        }
+        try (ObjectInputStream in = new ObjectInputStream(
+                new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE))) {
             return (GraphModel) in.readObject();
         }
     }
+
+    /**
+     * Open a graph file so nodes and edges can be materialized on demand
+     * instead of loading the whole graph. Binary files are memory-mapped;
+     * compressed files are decompressed into memory first. Close the result
+     * before saving over the file.
+     *
+     * @throws IOException if the file uses the legacy serialized format
+     */
+    public static MappedGraph map(File file) throws IOException {
+        switch (detectFormat(file)) {
+            case BINARY:
+                return MappedGraph.open(file);
+            case COMPRESSED:
+                try (DataInputStream in = new DataInputStream(
+                        new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE))) {
+                    return new MappedGraph(ByteBuffer.wrap(GraphCompression.read(in)));
+                }
+            default:
+                throw new IOException(file.getName() + " uses the legacy serialized format");
+        }
+    }
+
+    /** Determine the format of a graph file from its header. */
+    public static Format detectFormat(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            int magic = in.readInt();
+            if (magic == GraphBinaryFormat.MAGIC) {
+                return Format.BINARY;
+            }
+            if (magic == GraphCompression.MAGIC) {
+                return Format.COMPRESSED;
+            }
+        } catch (EOFException ex) {
+            // Too short to carry a header
+        }
+        return Format.SERIALIZED;
+    }
 }
@@ -0,0 +1,105 @@
+package me.wphillips.fsmedit;
+
+import java.awt.Color;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Command-line benchmark comparing save and load times and file sizes of the
+ * supported graph formats on a generated machine.
+ * <p>
+ * Usage: {@code GraphIOBenchmark [nodeCount] [edgesPerNode]}
+ */
+public final class GraphIOBenchmark {
+    private GraphIOBenchmark() {}
+
+    private static final int RUNS = 3;
+    private static final int[] BLOCK_SIZES = {64 * 1024, 256 * 1024, 1024 * 1024, 4 * 1024 * 1024};
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        int nodeCount = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int edgesPerNode = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        GraphModel model = generate(nodeCount, edgesPerNode, new Random(42));
+        System.out.printf("%d nodes, %d edges%n%n", model.getNodes().size(), model.getEdges().size());
+
+        File file = File.createTempFile("fsm-benchmark-", "." + GraphIO.EXTENSION);
+        try {
+            System.out.printf("%-12s %12s %12s %12s%n", "format", "size (KB)", "save (ms)", "load (ms)");
+            for (GraphIO.Format format : GraphIO.Format.values()) {
+                long save = Long.MAX_VALUE;
+                long load = Long.MAX_VALUE;
+                for (int i = 0; i < RUNS; i++) {
+                    long start = System.nanoTime();
+                    GraphIO.save(file, model, format, null);
+                    save = Math.min(save, System.nanoTime() - start);
+                    start = System.nanoTime();
+                    GraphIO.load(file);
+                    load = Math.min(load, System.nanoTime() - start);
+                }
+                System.out.printf("%-12s %12d %12.1f %12.1f%n", format.name().toLowerCase(),
+                        file.length() / 1024, save / 1e6, load / 1e6);
+            }
+        } finally {
+            file.delete();
+        }
+
+        ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(raw)) {
+            GraphBinaryFormat.write(out, model, null);
+        }
+        byte[] data = raw.toByteArray();
+        System.out.printf("%n%-12s %12s %12s %12s%n", "block (KB)", "ratio", "deflate (ms)", "inflate (ms)");
+        for (int blockSize : BLOCK_SIZES) {
+            long deflate = Long.MAX_VALUE;
+            long inflate = Long.MAX_VALUE;
+            int size = 0;
+            for (int i = 0; i < RUNS; i++) {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                long start = System.nanoTime();
+                try (DataOutputStream out = new DataOutputStream(compressed)) {
+                    GraphCompression.write(out, data, data.length, blockSize);
+                }
+                deflate = Math.min(deflate, System.nanoTime() - start);
+                size = compressed.size();
+                start = System.nanoTime();
+                GraphCompression.read(new DataInputStream(
+                        new ByteArrayInputStream(compressed.toByteArray())));
+                inflate = Math.min(inflate, System.nanoTime() - start);
+            }
+            System.out.printf("%-12d %12.2f %12.1f %12.1f%n", blockSize / 1024,
+                    data.length / (double) size, deflate / 1e6, inflate / 1e6);
+        }
+    }
+
+    /**
+     * Generate a machine resembling tool output: repetitive labels and
+     * transition text, and long structured metadata on some states.
+     */
+    static GraphModel generate(int nodeCount, int edgesPerNode, Random random) throws IOException {
+        List<Node> nodes = new ArrayList<>(nodeCount);
+        for (int i = 0; i < nodeCount; i++) {
+            Node n = new Node(random.nextInt(100_000), random.nextInt(100_000), 30,
+                    "STATE_" + (i % 1000), new Color(random.nextInt(8) * 32, 128, 200));
+            if (i % 4 == 0) {
+                n.setMetadata("{\"generator\":\"fsmgen\",\"region\":" + (i % 17)
+                        + ",\"guard\":\"input == EVENT_" + (i % 50) + " && !timeout\"}");
+            }
+            nodes.add(n);
+        }
+        List<Edge> edges = new ArrayList<>(nodeCount * edgesPerNode);
+        for (int i = 0; i < nodeCount * edgesPerNode; i++) {
+            Edge e = new Edge(nodes.get(i % nodeCount), nodes.get(random.nextInt(nodeCount)));
+            e.setText("EVENT_" + (i % 50));
+            edges.add(e);
+        }
+        return new GraphModel(nodes, edges, nodes.isEmpty() ? null : nodes.get(0));
+    }
+}
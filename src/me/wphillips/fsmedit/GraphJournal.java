@@ -0,0 +1,906 @@
+package me.wphillips.fsmedit;
+
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
+import java.awt.Color;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of edits made to a graph, kept next to the graph file so
+ * unsaved work can be recovered after a crash.
+ * <p>
+ * The journal starts with a record describing its base: either the graph
+ * file it was opened from or a full snapshot written during compaction.
+ * Every structural or property change the graph reports to the journal as
+ * its listener is then appended as a small record framed by its length and
+ * a CRC32 checksum, so a torn write at the end of the file is detected and
+ * ignored on recovery. Moves are recorded once per node when records are
+ * next written or flushed, so a drag does not log every step. Records are
+ * flushed about once a second and synced to disk on a background thread,
+ * and the journal is periodically compacted into a single snapshot once
+ * enough records have accumulated.
+ * <p>
+ * Journaling is inactive until {@link #setEnabled(boolean)} is called, and
+ * I/O errors disable it rather than interrupting editing.
+ */
+public class GraphJournal implements GraphModel.ChangeListener {
+    /** Magic number identifying journal files ("FSMJ"). */
+    static final int MAGIC = 0x46534D4A;
+    /** Current journal format version. */
+    static final int VERSION = 2;
+    /** Suffix appended to the graph file name to locate its journal. */
+    public static final String SUFFIX = ".journal";
+
+    private static final byte BASE = 1;
+    private static final byte SNAPSHOT = 2;
+    private static final byte ADD_NODE = 3;
+    private static final byte REMOVE_NODE = 4;
+    private static final byte ADD_EDGE = 5;
+    private static final byte REMOVE_EDGE = 6;
+    private static final byte SET_POSITION = 7;
+    private static final byte SET_LABEL = 8;
+    private static final byte SET_COLOR = 9;
+    private static final byte SET_METADATA = 10;
+    private static final byte SET_LOCKED = 11;
+    private static final byte SET_TO = 12;
+    private static final byte SET_SPLINE = 13;
+    private static final byte SET_CURVATURE = 14;
+    private static final byte SET_TEXT = 15;
+    private static final byte SET_START = 16;
+
+    /** Delay between flushes of buffered records to disk. */
+    private static final int FLUSH_DELAY = 1000;
+    /** Delay between checks for whether the journal should be compacted. */
+    private static final int COMPACT_DELAY = 60_000;
+    /** Number of records after which the journal is compacted. */
+    private static final int COMPACT_THRESHOLD = 10_000;
+
+    /** Thread syncing flushed records to disk, off the event dispatch thread. */
+    private static final ExecutorService SYNC = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "fsm-journal-sync");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** Writes the body of a record. */
+    private interface Payload {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private final Supplier<GraphSnapshot> snapshots;
+    /** Flushes records while a journal is open. */
+    private final Timer flushTimer;
+    /** Checks for compaction while a journal is open. */
+    private final Timer compactTimer;
+    private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+    private final DataOutputStream record = new DataOutputStream(recordBytes);
+    /** Nodes moved since their position was last recorded. */
+    private final Set<Node> moved = new LinkedHashSet<>();
+    private boolean enabled;
+    private File file;
+    private File graphFile;
+    private FileOutputStream fileOut;
+    private DataOutputStream out;
+    private long position;
+    private boolean dirty;
+    /** Whether the journal holds changes not yet saved to the graph file. */
+    private boolean unsaved;
+    private int recordsSinceCompaction;
+    /** Incremented whenever the journal file is replaced. */
+    private int generation;
+    /** Generation at the time of the last {@link #mark()}. */
+    private int markGeneration;
+    private boolean compacting;
+    private IOException failure;
+
+    /**
+     * @param snapshots supplies snapshots of the graph for compaction
+     */
+    public GraphJournal(Supplier<GraphSnapshot> snapshots) {
+        this.snapshots = snapshots;
+        flushTimer = new Timer(FLUSH_DELAY, e -> flush());
+        compactTimer = new Timer(COMPACT_DELAY, e -> compactIfNeeded());
+    }
+
+    /** Locate the journal for a graph file, or for an untitled graph if {@code null}. */
+    public static File fileFor(File graphFile) {
+        if (graphFile == null) {
+            return new File(new File(System.getProperty("user.home"), ".fsm-edit"),
+                    "untitled" + SUFFIX);
+        }
+        return new File(graphFile.getAbsolutePath() + SUFFIX);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Enable or disable journaling. Disabling closes the current journal. */
+    public synchronized void setEnabled(boolean enabled) {
+        if (!enabled) {
+            close();
+        }
+        this.enabled = enabled;
+    }
+
+    /** Get the error that disabled journaling, or {@code null}. */
+    public IOException getFailure() {
+        return failure;
+    }
+
+    /**
+     * Start a fresh journal for the given graph file, discarding the previous one.
+     *
+     * @param graphFile file the current graph was loaded from, or {@code null}
+     */
+    public synchronized void start(File graphFile) {
+        if (!enabled) {
+            return;
+        }
+        discard();
+        try {
+            File target = fileFor(graphFile);
+            File temp = new File(target.getPath() + ".tmp");
+            writePrefix(temp, BASE, o -> writeBase(o, graphFile));
+            replace(temp, target, 0, graphFile);
+        } catch (IOException ex) {
+            fail(ex);
+        }
+    }
+
+    /**
+     * Continue appending to an existing journal, for example after recovering from it.
+     */
+    public synchronized void resume(File graphFile) {
+        if (!enabled) {
+            return;
+        }
+        File target = fileFor(graphFile);
+        if (out != null) {
+            closeStream();
+            if (!file.equals(target)) {
+                file.delete();
+            }
+        }
+        try {
+            long valid = scan(target, null);
+            try (FileChannel channel = FileChannel.open(target.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(valid);
+            }
+            open(target, graphFile);
+            unsaved = true;
+        } catch (IOException ex) {
+            fail(ex);
+        }
+    }
+
+    /**
+     * Flush buffered records and return the current end of the journal. Pass
+     * the result to {@link #rebase(File, long)} once a save taken at this
+     * point has completed.
+     */
+    public synchronized long mark() {
+        flush();
+        markGeneration = generation;
+        return position;
+    }
+
+    /**
+     * Record that the graph as of {@code mark} has been saved to
+     * {@code graphFile}. Records appended after the mark are kept.
+     */
+    public synchronized void rebase(File graphFile, long mark) {
+        if (out == null || generation != markGeneration) {
+            // The journal was replaced since the mark; keep every record
+            return;
+        }
+        try {
+            flush();
+            File target = fileFor(graphFile);
+            File temp = new File(target.getPath() + ".tmp");
+            writePrefix(temp, BASE, o -> writeBase(o, graphFile));
+            replace(temp, target, mark, graphFile);
+        } catch (IOException ex) {
+            fail(ex);
+        }
+    }
+
+    /**
+     * Close the journal and stop its timers. It is synced and kept for
+     * recovery if it holds unsaved changes, and deleted otherwise.
+     */
+    public synchronized void close() {
+        if (out == null) {
+            return;
+        }
+        flush();
+        if (unsaved) {
+            try {
+                fileOut.getChannel().force(false);
+            } catch (IOException ex) {
+                fail(ex);
+                return;
+            }
+        }
+        closeStream();
+        if (!unsaved) {
+            file.delete();
+        }
+        file = null;
+    }
+
+    /** Flush buffered records to the file and queue a sync to disk. */
+    public synchronized void flush() {
+        if (out == null) {
+            return;
+        }
+        recordMoves();
+        if (!dirty) {
+            return;
+        }
+        try {
+            out.flush();
+            dirty = false;
+            FileChannel channel = fileOut.getChannel();
+            SYNC.execute(() -> sync(channel));
+        } catch (IOException ex) {
+            fail(ex);
+        }
+    }
+
+    /** Force a journal file to disk on the sync thread. */
+    private void sync(FileChannel channel) {
+        try {
+            channel.force(false);
+        } catch (ClosedChannelException ex) {
+            // The journal was closed, which syncs it, or replaced since
+        } catch (IOException ex) {
+            synchronized (this) {
+                if (fileOut != null && fileOut.getChannel() == channel) {
+                    fail(ex);
+                }
+            }
+        }
+    }
+
+    /** Record the changes made to the graph being journaled. */
+    @Override
+    public synchronized void graphChanged(List<GraphChange> changes) {
+        if (out == null) {
+            return;
+        }
+        for (GraphChange c : changes) {
+            switch (c.getType()) {
+                case NODE_ADDED -> nodeAdded(c.getNode());
+                case NODE_REMOVED -> nodeRemoved(c.getNode());
+                case EDGE_ADDED -> edgeAdded(c.getEdge());
+                case EDGE_REMOVED -> edgeRemoved(c.getEdge());
+                case NODE_MOVED -> moved.add(c.getNode());
+                case NODE_RESTYLED -> {
+                    // The journal does not record radius, which cannot be edited
+                    if (c.getProperty() == GraphChange.Property.LABEL) {
+                        labelChanged(c.getNode());
+                    } else if (c.getProperty() == GraphChange.Property.COLOR) {
+                        colorChanged(c.getNode());
+                    }
+                }
+                case NODE_EDITED -> {
+                    if (c.getProperty() == GraphChange.Property.METADATA) {
+                        metadataChanged(c.getNode());
+                    } else {
+                        lockedChanged(c.getNode());
+                    }
+                }
+                case EDGE_RETARGETED -> targetChanged(c.getEdge());
+                case EDGE_RESTYLED -> {
+                    if (c.getProperty() == GraphChange.Property.SPLINE_TYPE) {
+                        splineChanged(c.getEdge());
+                    } else {
+                        curvatureChanged(c.getEdge());
+                    }
+                }
+                case EDGE_RETEXTED -> textChanged(c.getEdge());
+                case START_CHANGED -> startNodeChanged(c.getNode());
+                default -> {
+                    // The panel replaces a cleared graph and starts a new journal
+                }
+            }
+        }
+    }
+
+    private void nodeAdded(Node n) {
+        append(ADD_NODE, o -> {
+            writeId(o, n);
+            o.writeInt(n.getX());
+            o.writeInt(n.getY());
+            o.writeInt(n.getRadius());
+            o.writeInt(n.getArgb());
+            o.writeBoolean(n.isLocked());
+            writeString(o, n.getLabel());
+            writeString(o, n.getMetadata());
+        });
+    }
+
+    /** Record removal of a node; edges attached to it are removed implicitly. */
+    private void nodeRemoved(Node n) {
+        append(REMOVE_NODE, o -> writeId(o, n));
+    }
+
+    private void edgeAdded(Edge e) {
+        append(ADD_EDGE, o -> {
+            writeId(o, e);
+            writeId(o, e.getFrom());
+            writeId(o, e.getTo());
+            o.writeByte(e.getSplineType().ordinal());
+            o.writeFloat(e.getCurvature());
+            writeString(o, e.getText());
+        });
+    }
+
+    private void edgeRemoved(Edge e) {
+        append(REMOVE_EDGE, o -> writeId(o, e));
+    }
+
+    private void positionChanged(Node n) {
+        append(SET_POSITION, o -> {
+            writeId(o, n);
+            o.writeInt(n.getX());
+            o.writeInt(n.getY());
+        });
+    }
+
+    private void labelChanged(Node n) {
+        append(SET_LABEL, o -> {
+            writeId(o, n);
+            writeString(o, n.getLabel());
+        });
+    }
+
+    private void colorChanged(Node n) {
+        append(SET_COLOR, o -> {
+            writeId(o, n);
+            o.writeInt(n.getArgb());
+        });
+    }
+
+    private void metadataChanged(Node n) {
+        append(SET_METADATA, o -> {
+            writeId(o, n);
+            writeString(o, n.getMetadata());
+        });
+    }
+
+    private void lockedChanged(Node n) {
+        append(SET_LOCKED, o -> {
+            writeId(o, n);
+            o.writeBoolean(n.isLocked());
+        });
+    }
+
+    private void targetChanged(Edge e) {
+        append(SET_TO, o -> {
+            writeId(o, e);
+            writeId(o, e.getTo());
+        });
+    }
+
+    private void splineChanged(Edge e) {
+        append(SET_SPLINE, o -> {
+            writeId(o, e);
+            o.writeByte(e.getSplineType().ordinal());
+        });
+    }
+
+    private void curvatureChanged(Edge e) {
+        append(SET_CURVATURE, o -> {
+            writeId(o, e);
+            o.writeFloat(e.getCurvature());
+        });
+    }
+
+    private void textChanged(Edge e) {
+        append(SET_TEXT, o -> {
+            writeId(o, e);
+            writeString(o, e.getText());
+        });
+    }
+
+    private void startNodeChanged(Node n) {
+        append(SET_START, o -> {
+            o.writeBoolean(n != null);
+            if (n != null) {
+                writeId(o, n);
+            }
+        });
+    }
+
+    /**
+     * Check whether a journal file holds changes that can be recovered.
+     */
+    public static boolean hasChanges(File journalFile) {
+        if (!journalFile.isFile()) {
+            return false;
+        }
+        try {
+            // The only record of a journal without changes is its base
+            boolean[] changes = new boolean[1];
+            scan(journalFile, (type, payload) -> changes[0] |= type != BASE);
+            return changes[0];
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Rebuild the graph described by a journal by loading its base and
+     * replaying every intact record.
+     */
+    public static GraphModel recover(File journalFile) throws IOException {
+        Replay replay = new Replay();
+        scan(journalFile, replay);
+        return replay.model;
+    }
+
+    /** Record the position of every node moved since it was last recorded. */
+    private void recordMoves() {
+        if (moved.isEmpty()) {
+            return;
+        }
+        List<Node> nodes = new ArrayList<>(moved);
+        moved.clear();
+        for (Node n : nodes) {
+            positionChanged(n);
+        }
+    }
+
+    private void append(byte type, Payload payload) {
+        synchronized (this) {
+            if (out == null) {
+                return;
+            }
+            // Keep moves ahead of later records, which may remove the node
+            recordMoves();
+            try {
+                writeRecord(out, type, payload);
+                dirty = true;
+                unsaved = true;
+                recordsSinceCompaction++;
+            } catch (IOException ex) {
+                fail(ex);
+            }
+        }
+    }
+
+    private void writeRecord(DataOutputStream target, byte type, Payload payload) throws IOException {
+        recordBytes.reset();
+        record.writeByte(type);
+        payload.write(record);
+        record.flush();
+        byte[] data = recordBytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        target.writeInt(data.length);
+        target.writeInt((int) crc.getValue());
+        target.write(data);
+        position += 8 + data.length;
+    }
+
+    /** Write a journal header and its first record to a new file. */
+    private void writePrefix(File temp, byte type, Payload payload) throws IOException {
+        temp.getParentFile().mkdirs();
+        try (DataOutputStream o = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp)))) {
+            o.writeInt(MAGIC);
+            o.writeInt(VERSION);
+            long saved = position;
+            writeRecord(o, type, payload);
+            position = saved;
+        }
+    }
+
+    /**
+     * Append the records after {@code mark} to {@code temp}, move it over
+     * {@code target} and continue journaling there.
+     */
+    private void replace(File temp, File target, long mark, File newGraphFile) throws IOException {
+        if (out != null) {
+            recordMoves();
+        }
+        boolean tail = out != null && position > mark;
+        if (out != null) {
+            out.flush();
+            try (FileOutputStream dest = new FileOutputStream(temp, true);
+                 FileInputStream src = new FileInputStream(file)) {
+                src.getChannel().transferTo(mark, position - mark, dest.getChannel());
+                dest.getFD().sync();
+            }
+            closeStream();
+            if (!file.equals(target)) {
+                file.delete();
+            }
+        }
+        try {
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        open(target, newGraphFile);
+        unsaved = tail;
+    }
+
+    private void open(File target, File newGraphFile) throws IOException {
+        fileOut = new FileOutputStream(target, true);
+        out = new DataOutputStream(new BufferedOutputStream(fileOut));
+        file = target;
+        graphFile = newGraphFile;
+        position = target.length();
+        dirty = false;
+        recordsSinceCompaction = 0;
+        generation++;
+        flushTimer.start();
+        compactTimer.start();
+    }
+
+    /**
+     * Close and delete the current journal without keeping its changes, for
+     * when the user chose to throw them away.
+     */
+    public synchronized void discard() {
+        if (out != null) {
+            closeStream();
+            file.delete();
+            file = null;
+        }
+        unsaved = false;
+    }
+
+    private void closeStream() {
+        try {
+            out.close();
+        } catch (IOException ignored) {
+            // Nothing more can be done with a failing journal
+        }
+        out = null;
+        fileOut = null;
+        moved.clear();
+        generation++;
+        flushTimer.stop();
+        compactTimer.stop();
+    }
+
+    private void fail(IOException ex) {
+        failure = ex;
+        if (out != null) {
+            closeStream();
+        }
+        enabled = false;
+    }
+
+    /**
+     * Replace the journal with a snapshot of the current graph once enough
+     * records have accumulated. The snapshot is encoded on a background
+     * thread; records appended meanwhile are carried over when it finishes.
+     */
+    private synchronized void compactIfNeeded() {
+        if (out == null || compacting || recordsSinceCompaction < COMPACT_THRESHOLD) {
+            return;
+        }
+        long mark = mark();
+        GraphSnapshot snapshot = snapshots.get();
+        File target = file;
+        File temp = new File(target.getPath() + ".tmp");
+        int startGeneration = generation;
+        compacting = true;
+        new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() throws IOException {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try (DataOutputStream data = new DataOutputStream(bytes)) {
+                    GraphBinaryFormat.write(data, snapshot.toModel(), null);
+                }
+                try (DataOutputStream o = new DataOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(temp)))) {
+                    o.writeInt(MAGIC);
+                    o.writeInt(VERSION);
+                    byte[] data = new byte[bytes.size() + 1];
+                    data[0] = SNAPSHOT;
+                    System.arraycopy(bytes.toByteArray(), 0, data, 1, bytes.size());
+                    CRC32 crc = new CRC32();
+                    crc.update(data);
+                    o.writeInt(data.length);
+                    o.writeInt((int) crc.getValue());
+                    o.write(data);
+                }
+                return null;
+            }
+
+            @Override
+            protected void done() {
+                synchronized (GraphJournal.this) {
+                    compacting = false;
+                    try {
+                        get();
+                        if (generation == startGeneration && out != null) {
+                            boolean changes = unsaved;
+                            replace(temp, target, mark, graphFile);
+                            unsaved = changes;
+                        } else {
+                            temp.delete();
+                        }
+                    } catch (IOException ex) {
+                        fail(ex);
+                    } catch (Exception ex) {
+                        temp.delete();
+                    }
+                }
+            }
+        }.execute();
+    }
+
+    private static void writeBase(DataOutputStream o, File graphFile) throws IOException {
+        if (graphFile == null) {
+            writeString(o, null);
+            o.writeLong(0);
+            o.writeLong(0);
+        } else {
+            writeString(o, graphFile.getAbsolutePath());
+            o.writeLong(graphFile.length());
+            o.writeLong(graphFile.lastModified());
+        }
+    }
+
+    private static void writeId(DataOutputStream o, Node n) throws IOException {
+        o.writeLong(n.getIdMostSigBits());
+        o.writeLong(n.getIdLeastSigBits());
+    }
+
+    private static void writeId(DataOutputStream o, Edge e) throws IOException {
+        o.writeLong(e.getIdMostSigBits());
+        o.writeLong(e.getIdLeastSigBits());
+    }
+
+    private static UUID readId(DataInputStream in) throws IOException {
+        return new UUID(in.readLong(), in.readLong());
+    }
+
+    private static void writeString(DataOutputStream o, String s) throws IOException {
+        if (s == null) {
+            o.writeInt(-1);
+            return;
+        }
+        byte[] data = s.getBytes(StandardCharsets.UTF_8);
+        o.writeInt(data.length);
+        o.write(data);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int len = in.readInt();
+        if (len < 0) {
+            return null;
+        }
+        byte[] data = new byte[len];
+        in.readFully(data);
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    /** Receives each intact record while scanning a journal. */
+    private interface RecordHandler {
+        void record(byte type, DataInputStream payload) throws IOException;
+    }
+
+    /**
+     * Read every intact record of a journal, stopping at the first truncated
+     * or corrupt one.
+     *
+     * @return length of the valid prefix of the file
+     */
+    private static long scan(File journalFile, RecordHandler handler) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(journalFile)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a journal file");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported journal version " + version);
+            }
+            long valid = 8;
+            long remaining = journalFile.length() - valid;
+            while (remaining >= 8) {
+                int len;
+                int checksum;
+                byte[] data;
+                try {
+                    len = in.readInt();
+                    checksum = in.readInt();
+                    if (len <= 0 || len > remaining - 8) {
+                        break;
+                    }
+                    data = new byte[len];
+                    in.readFully(data);
+                } catch (EOFException ex) {
+                    break;
+                }
+                CRC32 crc = new CRC32();
+                crc.update(data);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                if (handler != null) {
+                    DataInputStream payload = new DataInputStream(
+                            new ByteArrayInputStream(data, 1, len - 1));
+                    handler.record(data[0], payload);
+                }
+                valid += 8 + len;
+                remaining -= 8 + len;
+            }
+            return valid;
+        }
+    }
+
+    /** Applies journal records to an in-memory graph. */
+    private static final class Replay implements RecordHandler {
+        private GraphModel model = new GraphModel();
+
+        @Override
+        public void record(byte type, DataInputStream in) throws IOException {
+            switch (type) {
+                case BASE -> {
+                    String path = readString(in);
+                    long length = in.readLong();
+                    long modified = in.readLong();
+                    if (path == null) {
+                        reset(new GraphModel());
+                    } else {
+                        File base = new File(path);
+                        if (!base.isFile() || base.length() != length
+                                || base.lastModified() != modified) {
+                            throw new IOException(base.getName()
+                                    + " has changed since the journal was written");
+                        }
+                        try {
+                            reset(GraphIO.load(base));
+                        } catch (ClassNotFoundException ex) {
+                            throw new IOException(ex);
+                        }
+                    }
+                }
+                case SNAPSHOT -> {
+                    byte[] data = in.readAllBytes();
+                    reset(new MappedGraph(ByteBuffer.wrap(data)).toModel());
+                }
+                case ADD_NODE -> {
+                    UUID id = readId(in);
+                    int x = in.readInt();
+                    int y = in.readInt();
+                    int radius = in.readInt();
+                    Color color = new Color(in.readInt(), true);
+                    boolean locked = in.readBoolean();
+                    Node n = new Node(x, y, radius, readString(in), color,
+                            id.getMostSignificantBits(), id.getLeastSignificantBits());
+                    n.setLocked(locked);
+                    String metadata = readString(in);
+                    n.setMetadata(metadata == null ? "" : metadata);
+                    model.addNode(n);
+                }
+                case REMOVE_NODE -> {
+                    Node n = model.getNode(readId(in));
+                    if (n != null) {
+                        model.removeNode(n);
+                    }
+                }
+                case ADD_EDGE -> {
+                    UUID id = readId(in);
+                    Node from = model.getNode(readId(in));
+                    Node to = model.getNode(readId(in));
+                    Edge.SplineType spline = Edge.SplineType.values()[in.readByte()];
+                    float curvature = in.readFloat();
+                    String text = readString(in);
+                    if (from != null && to != null) {
+                        Edge e = new Edge(from, to, spline,
+                                id.getMostSignificantBits(), id.getLeastSignificantBits());
+                        e.setCurvature(curvature);
+                        e.setText(text);
+                        model.addEdge(e);
+                    }
+                }
+                case REMOVE_EDGE -> {
+                    Edge e = model.getEdge(readId(in));
+                    if (e != null) {
+                        model.removeEdge(e);
+                    }
+                }
+                case SET_POSITION -> {
+                    Node n = model.getNode(readId(in));
+                    int x = in.readInt();
+                    int y = in.readInt();
+                    if (n != null) {
+                        n.setPosition(x, y);
+                    }
+                }
+                case SET_LABEL -> {
+                    Node n = model.getNode(readId(in));
+                    String label = readString(in);
+                    if (n != null) {
+                        n.setLabel(label);
+                    }
+                }
+                case SET_COLOR -> {
+                    Node n = model.getNode(readId(in));
+                    Color color = new Color(in.readInt(), true);
+                    if (n != null) {
+                        n.setColor(color);
+                    }
+                }
+                case SET_METADATA -> {
+                    Node n = model.getNode(readId(in));
+                    String metadata = readString(in);
+                    if (n != null) {
+                        n.setMetadata(metadata == null ? "" : metadata);
+                    }
+                }
+                case SET_LOCKED -> {
+                    Node n = model.getNode(readId(in));
+                    boolean locked = in.readBoolean();
+                    if (n != null) {
+                        n.setLocked(locked);
+                    }
+                }
+                case SET_TO -> {
+                    Edge e = model.getEdge(readId(in));
+                    Node to = model.getNode(readId(in));
+                    if (e != null && to != null) {
+                        model.setEdgeTarget(e, to);
+                    }
+                }
+                case SET_SPLINE -> {
+                    Edge e = model.getEdge(readId(in));
+                    Edge.SplineType spline = Edge.SplineType.values()[in.readByte()];
+                    if (e != null) {
+                        e.setSplineType(spline);
+                    }
+                }
+                case SET_CURVATURE -> {
+                    Edge e = model.getEdge(readId(in));
+                    float curvature = in.readFloat();
+                    if (e != null) {
+                        e.setCurvature(curvature);
+                    }
+                }
+                case SET_TEXT -> {
+                    Edge e = model.getEdge(readId(in));
+                    String text = readString(in);
+                    if (e != null) {
+                        e.setText(text);
+                    }
+                }
+                case SET_START -> {
+                    model.setStartNode(in.readBoolean() ? model.getNode(readId(in)) : null);
+                }
+                default -> throw new IOException("Unknown journal record type " + type);
+            }
+        }
+
+        private void reset(GraphModel base) {
+            model = base;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package me.wphillips.fsmedit;
+
+import javax.swing.*;
+import java.io.File;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Reads a graph file on a background thread, decoding it straight into the
+ * model the {@link GraphPanel} will edit, and hands the finished model over
+ * once loading completes. Meanwhile the outlines of nodes and edges read so
+ * far are published to the panel in chunks, so the machine fills in on
+ * screen while the rest of the file is still being decoded. A
+ * {@link ProgressMonitor} reports progress and allows the load to be
+ * cancelled. Use {@link GraphPanel#openGraph(File)} to start a load.
+ */
+public class GraphLoadWorker extends SwingWorker<GraphModel, GraphLoadWorker.Preview> {
+    /** Outlines of the nodes and edges decoded since the previous update. */
+    static final class Preview {
+        /** Center and radius of each node. */
+        final int[] nodes;
+        /** Start and end point of each edge. */
+        final int[] edges;
+
+        Preview(int[] nodes, int[] edges) {
+            this.nodes = nodes;
+            this.edges = edges;
+        }
+    }
+
+    private final GraphPanel panel;
+    private final File file;
+    private final ProgressMonitor monitor;
+    /** Number of records whose outlines have been published. */
+    private int previewed;
+
+    GraphLoadWorker(GraphPanel panel, File file) {
+        this.panel = panel;
+        this.file = file;
+        monitor = new ProgressMonitor(panel, "Opening " + file.getName(), null, 0, 100);
+        monitor.setMillisToDecideToPopup(250);
+        addPropertyChangeListener(evt -> {
+            if ("progress".equals(evt.getPropertyName())) {
+                monitor.setProgress((Integer) evt.getNewValue());
+                if (monitor.isCanceled()) {
+                    cancel(false);
+                }
+            }
+        });
+    }
+
+    /** Get the file being loaded. */
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    protected GraphModel doInBackground() throws Exception {
+        if (GraphIO.detectFormat(file) == GraphIO.Format.SERIALIZED) {
+            // Object streams can only be decoded as a whole
+            return GraphIO.load(file);
+        }
+        try (MappedGraph graph = GraphIO.map(file)) {
+            return graph.toModel((done, total) -> {
+                if (isCancelled()) {
+                    throw new InterruptedIOException("Load cancelled");
+                }
+                publish(preview(graph, previewed, (int) done));
+                previewed = (int) done;
+                setProgress((int) (done * 100 / total));
+            });
+        }
+    }
+
+    /** Read the outlines of the records in a range, nodes first and then edges. */
+    private static Preview preview(MappedGraph graph, int from, int to) {
+        int nodeCount = graph.getNodeCount();
+        int nodeEnd = Math.min(to, nodeCount);
+        int[] nodes = new int[Math.max(0, nodeEnd - from) * 3];
+        int k = 0;
+        for (int i = from; i < nodeEnd; i++) {
+            nodes[k++] = graph.getNodeX(i);
+            nodes[k++] = graph.getNodeY(i);
+            nodes[k++] = graph.getNodeRadius(i);
+        }
+        int edgeStart = Math.max(from, nodeCount) - nodeCount;
+        int edgeEnd = to - nodeCount;
+        int[] edges = new int[Math.max(0, edgeEnd - edgeStart) * 4];
+        k = 0;
+        for (int i = edgeStart; i < edgeEnd; i++) {
+            int source = graph.getEdgeFrom(i);
+            int target = graph.getEdgeTo(i);
+            edges[k++] = graph.getNodeX(source);
+            edges[k++] = graph.getNodeY(source);
+            edges[k++] = graph.getNodeX(target);
+            edges[k++] = graph.getNodeY(target);
+        }
+        return new Preview(nodes, edges);
+    }
+
+    @Override
+    protected void process(List<Preview> previews) {
+        if (isCancelled()) {
+            return;
+        }
+        for (Preview preview : previews) {
+            panel.previewLoaded(this, preview.nodes, preview.edges);
+        }
+    }
+
+    @Override
+    protected void done() {
+        monitor.close();
+        try {
+            panel.finishLoading(this, get());
+        } catch (CancellationException | InterruptedException ex) {
+            panel.abortLoading(this);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+            if (panel.abortLoading(this)) {
+                JOptionPane.showMessageDialog(panel,
+                        "Failed to open file: " + cause.getMessage(),
+                        "Error", JOptionPane.ERROR_MESSAGE);
+            }
+        }
+    }
+}
@@ -0,0 +1,405 @@
+package me.wphillips.fsmedit;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import java.awt.Color;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Streaming reader and writer for GraphML. Both directions use StAX, so no
+ * document tree is built and memory use depends only on the size of the graph.
+ * <p>
+ * Data keys are matched by their {@code attr.name}:
+ * <pre>
+ * node  label, x, y, radius, color, metadata, locked, initial
+ * edge  label, spline, curvature
+ * </pre>
+ * Node labels, geometry and fill colors written by yEd are also recognized.
+ * Node and edge ids become element identifiers.
+ */
+final class GraphMLFormat {
+    private GraphMLFormat() {}
+
+    private static final String NAMESPACE = "http://graphml.graphdrawing.org/xmlns";
+
+    /** Read the nodes and edges of every graph in a GraphML document. */
+    static GraphModel read(Reader in) throws IOException {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        try {
+            XMLStreamReader xml = factory.createXMLStreamReader(in);
+            try {
+                return new Parser(xml).parse();
+            } finally {
+                xml.close();
+            }
+        } catch (XMLStreamException ex) {
+            throw new IOException(ex.getMessage(), ex);
+        }
+    }
+
+    /** Write a graph as GraphML directly from the given lists. */
+    static void write(Writer out, List<Node> nodes, List<Edge> edges, Node start)
+            throws IOException {
+        try {
+            XMLStreamWriter xml = XMLOutputFactory.newInstance().createXMLStreamWriter(out);
+            xml.writeStartDocument("UTF-8", "1.0");
+            xml.writeCharacters("\n");
+            xml.writeStartElement("graphml");
+            xml.writeDefaultNamespace(NAMESPACE);
+            key(xml, "label", "node", "label", "string");
+            key(xml, "x", "node", "x", "int");
+            key(xml, "y", "node", "y", "int");
+            key(xml, "radius", "node", "radius", "int");
+            key(xml, "color", "node", "color", "string");
+            key(xml, "metadata", "node", "metadata", "string");
+            key(xml, "locked", "node", "locked", "boolean");
+            key(xml, "initial", "node", "initial", "boolean");
+            key(xml, "text", "edge", "label", "string");
+            key(xml, "spline", "edge", "spline", "string");
+            key(xml, "curvature", "edge", "curvature", "float");
+            xml.writeCharacters("\n  ");
+            xml.writeStartElement("graph");
+            xml.writeAttribute("id", "fsm");
+            xml.writeAttribute("edgedefault", "directed");
+            for (Node n : nodes) {
+                xml.writeCharacters("\n    ");
+                xml.writeStartElement("node");
+                xml.writeAttribute("id", n.getId());
+                data(xml, "label", n.getLabel());
+                data(xml, "x", Integer.toString(n.getX()));
+                data(xml, "y", Integer.toString(n.getY()));
+                data(xml, "radius", Integer.toString(n.getRadius()));
+                data(xml, "color", GraphBuilder.formatColor(n.getColor()));
+                if (n.getMetadata() != null && !n.getMetadata().isEmpty()) {
+                    data(xml, "metadata", n.getMetadata());
+                }
+                if (n.isLocked()) {
+                    data(xml, "locked", "true");
+                }
+                if (n == start) {
+                    data(xml, "initial", "true");
+                }
+                xml.writeEndElement();
+            }
+            for (Edge e : edges) {
+                xml.writeCharacters("\n    ");
+                xml.writeStartElement("edge");
+                xml.writeAttribute("id", e.getId());
+                xml.writeAttribute("source", e.getFrom().getId());
+                xml.writeAttribute("target", e.getTo().getId());
+                if (e.getText() != null && !e.getText().isEmpty()) {
+                    data(xml, "text", e.getText());
+                }
+                data(xml, "spline", e.getSplineType().name().toLowerCase(Locale.ROOT));
+                data(xml, "curvature", Float.toString(e.getCurvature()));
+                xml.writeEndElement();
+            }
+            xml.writeCharacters("\n  ");
+            xml.writeEndElement();
+            xml.writeCharacters("\n");
+            xml.writeEndElement();
+            xml.writeCharacters("\n");
+            xml.writeEndDocument();
+            xml.flush();
+        } catch (XMLStreamException ex) {
+            throw new IOException(ex.getMessage(), ex);
+        }
+    }
+
+    private static void key(XMLStreamWriter xml, String id, String domain, String name,
+            String type) throws XMLStreamException {
+        xml.writeCharacters("\n  ");
+        xml.writeEmptyElement("key");
+        xml.writeAttribute("id", id);
+        xml.writeAttribute("for", domain);
+        xml.writeAttribute("attr.name", name);
+        xml.writeAttribute("attr.type", type);
+    }
+
+    private static void data(XMLStreamWriter xml, String key, String value)
+            throws XMLStreamException {
+        if (value == null) {
+            return;
+        }
+        xml.writeStartElement("data");
+        xml.writeAttribute("key", key);
+        xml.writeCharacters(value);
+        xml.writeEndElement();
+    }
+
+    /** Pulls elements from the reader and feeds a {@link GraphBuilder}. */
+    private static final class Parser {
+        private final XMLStreamReader xml;
+        private final GraphBuilder builder = new GraphBuilder();
+        /** Attribute name of each declared key, by key id. */
+        private final Map<String, String> keyNames = new HashMap<>();
+        /** Default values declared for node keys, by attribute name. */
+        private final Map<String, String> nodeDefaults = new HashMap<>();
+        /** Default values declared for edge keys, by attribute name. */
+        private final Map<String, String> edgeDefaults = new HashMap<>();
+
+        Parser(XMLStreamReader xml) {
+            this.xml = xml;
+        }
+
+        GraphModel parse() throws XMLStreamException {
+            while (xml.hasNext()) {
+                if (xml.next() != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                switch (xml.getLocalName()) {
+                    case "key" -> key();
+                    case "node" -> node();
+                    case "edge" -> edge();
+                    default -> { }
+                }
+            }
+            return builder.build();
+        }
+
+        private void key() throws XMLStreamException {
+            String id = xml.getAttributeValue(null, "id");
+            String name = xml.getAttributeValue(null, "attr.name");
+            String domain = xml.getAttributeValue(null, "for");
+            if (id == null) {
+                skip();
+                return;
+            }
+            String key = (name != null ? name : id).toLowerCase(Locale.ROOT);
+            keyNames.put(id, key);
+            String fallback = null;
+            int depth = 1;
+            while (depth > 0) {
+                int event = xml.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    if ("default".equals(xml.getLocalName())) {
+                        fallback = xml.getElementText();
+                    } else {
+                        depth++;
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    depth--;
+                }
+            }
+            if (fallback != null) {
+                if (!"edge".equals(domain)) {
+                    nodeDefaults.put(key, fallback);
+                }
+                if (!"node".equals(domain)) {
+                    edgeDefaults.put(key, fallback);
+                }
+            }
+        }
+
+        private void node() throws XMLStreamException {
+            String id = xml.getAttributeValue(null, "id");
+            if (id == null) {
+                throw new XMLStreamException("Node without id", xml.getLocation());
+            }
+            Node n = builder.node(id);
+            Map<String, String> data = new HashMap<>(nodeDefaults);
+            readData(data, false);
+            String label = data.get("label");
+            if (label == null) {
+                label = data.get("name");
+            }
+            if (label != null) {
+                n.setLabel(label);
+            }
+            Color color = GraphBuilder.parseColor(data.get("color"));
+            if (color == null) {
+                color = GraphBuilder.parseColor(data.get("fill"));
+            }
+            if (color != null) {
+                n.setColor(color);
+            }
+            Integer radius = parseInt(data.get("radius"));
+            if (radius != null && radius > 0) {
+                n.setRadius(radius);
+            }
+            Integer x = parseInt(data.get("x"));
+            Integer y = parseInt(data.get("y"));
+            if (x != null && y != null) {
+                builder.setPosition(n, x, y);
+            }
+            String metadata = data.get("metadata");
+            if (metadata == null) {
+                metadata = data.get("description");
+            }
+            if (metadata != null) {
+                n.setMetadata(metadata);
+            }
+            if (data.containsKey("locked")) {
+                n.setLocked(Boolean.parseBoolean(data.get("locked")));
+            }
+            if (Boolean.parseBoolean(data.get("initial"))) {
+                builder.setStart(n);
+            }
+        }
+
+        private void edge() throws XMLStreamException {
+            String source = xml.getAttributeValue(null, "source");
+            String target = xml.getAttributeValue(null, "target");
+            if (source == null || target == null) {
+                throw new XMLStreamException("Edge without source or target", xml.getLocation());
+            }
+            Edge e = builder.edge(builder.node(source), builder.node(target),
+                    xml.getAttributeValue(null, "id"));
+            Map<String, String> data = new HashMap<>(edgeDefaults);
+            readData(data, true);
+            String label = data.get("label");
+            if (label != null) {
+                e.setText(label);
+            }
+            if ("bezier".equalsIgnoreCase(data.get("spline"))) {
+                e.setSplineType(Edge.SplineType.BEZIER);
+            }
+            String curvature = data.get("curvature");
+            if (curvature != null) {
+                try {
+                    e.setCurvature(Float.parseFloat(curvature));
+                } catch (NumberFormatException ignored) {
+                    // Keep the default curvature
+                }
+            }
+        }
+
+        /**
+         * Collect the data values of the current node or edge element by
+         * attribute name, stopping at its end tag. Nested graphs are left for
+         * the main loop so their nodes are imported as well.
+         */
+        private void readData(Map<String, String> data, boolean edge) throws XMLStreamException {
+            while (xml.hasNext()) {
+                int event = xml.next();
+                if (event == XMLStreamConstants.END_ELEMENT) {
+                    return;
+                }
+                if (event != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                switch (xml.getLocalName()) {
+                    case "data" -> {
+                        String name = keyNames.get(xml.getAttributeValue(null, "key"));
+                        String value = dataValue(data, edge);
+                        if (name != null && value != null) {
+                            data.put(name, value);
+                        }
+                    }
+                    case "graph" -> {
+                        // A nested graph; its elements are handled by the main loop
+                        return;
+                    }
+                    default -> skip();
+                }
+            }
+        }
+
+        /**
+         * Read the content of a data element. Plain text is returned as is;
+         * yEd graphics are unpacked into label, position and color values.
+         *
+         * @return the text content, or {@code null} for structured content
+         */
+        private String dataValue(Map<String, String> data, boolean edge) throws XMLStreamException {
+            StringBuilder text = new StringBuilder();
+            boolean structured = false;
+            int depth = 1;
+            while (depth > 0) {
+                int event = xml.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    structured = true;
+                    switch (xml.getLocalName()) {
+                        case "Geometry" -> {
+                            Double x = parseDouble(xml.getAttributeValue(null, "x"));
+                            Double y = parseDouble(xml.getAttributeValue(null, "y"));
+                            Double w = parseDouble(xml.getAttributeValue(null, "width"));
+                            Double h = parseDouble(xml.getAttributeValue(null, "height"));
+                            if (!edge && x != null && y != null && w != null && h != null) {
+                                data.put("x", Long.toString(Math.round(x + w / 2)));
+                                data.put("y", Long.toString(Math.round(y + h / 2)));
+                                data.put("radius", Long.toString(Math.round(Math.min(w, h) / 2)));
+                            }
+                        }
+                        case "Fill" -> {
+                            String color = xml.getAttributeValue(null, "color");
+                            if (!edge && color != null) {
+                                data.put("color", color);
+                            }
+                        }
+                        case "NodeLabel", "EdgeLabel" -> {
+                            data.put("label", ownText());
+                            continue;
+                        }
+                        default -> { }
+                    }
+                    depth++;
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    depth--;
+                } else if (!structured && (event == XMLStreamConstants.CHARACTERS
+                        || event == XMLStreamConstants.CDATA)) {
+                    text.append(xml.getText());
+                }
+            }
+            return structured ? null : text.toString();
+        }
+
+        /** Read the text directly inside the current element, skipping child elements. */
+        private String ownText() throws XMLStreamException {
+            StringBuilder text = new StringBuilder();
+            int depth = 1;
+            while (depth > 0) {
+                int event = xml.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    depth--;
+                } else if (depth == 1 && (event == XMLStreamConstants.CHARACTERS
+                        || event == XMLStreamConstants.CDATA)) {
+                    text.append(xml.getText());
+                }
+            }
+            return text.toString().trim();
+        }
+
+        private void skip() throws XMLStreamException {
+            int depth = 1;
+            while (depth > 0) {
+                int event = xml.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    depth--;
+                }
+            }
+        }
+
+        private static Integer parseInt(String s) {
+            Double d = parseDouble(s);
+            return d == null ? null : (int) Math.round(d);
+        }
+
+        private static Double parseDouble(String s) {
+            if (s == null) {
+                return null;
+            }
+            try {
+                return Double.parseDouble(s.trim());
+            } catch (NumberFormatException ex) {
+                return null;
+            }
+        }
+    }
+}
@@ -2,10 +2,13 @@ package me.wphillips.fsmedit;
 
 import javax.swing.*;
 import javax.swing.filechooser.FileNameExtensionFilter;
+import java.awt.GridLayout;
 import java.awt.Toolkit;
 import java.awt.Window;
 import java.awt.event.KeyEvent;
 import java.awt.event.InputEvent;
+import java.io.File;
+import java.util.concurrent.ExecutionException;
 
 import me.wphillips.fsmedit.GraphIO;
 
@@ -14,6 +17,7 @@ import me.wphillips.fsmedit.GraphIO;
  */
 public class GraphMenuBar extends JMenuBar {
     private final GraphPanel panel;
+    private final JCheckBoxMenuItem compressItem;
 
     private JFileChooser createChooser() {
         JFileChooser chooser = new JFileChooser();
@@ -25,79 +29,187 @@ public class GraphMenuBar extends JMenuBar {
         return chooser;
     }
 
+    private JFileChooser createExchangeChooser() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setAcceptAllFileFilterUsed(false);
+        for (GraphIO.ExchangeFormat format : GraphIO.ExchangeFormat.values()) {
+            String[] extensions = format.getExtensions();
+            chooser.addChoosableFileFilter(new FileNameExtensionFilter(
+                    format.getDescription() + " (*." + String.join(", *.", extensions) + ")",
+                    extensions));
+        }
+        chooser.setFileFilter(chooser.getChoosableFileFilters()[0]);
+        return chooser;
+    }
+
+    /**
+     * Let the user change the on-screen sizes below which the graph view
+     * simplifies nodes, drops arrowheads and hides labels.
+     */
+    private void showDetailDialog() {
+        JSpinner nodeSpinner = new JSpinner(new SpinnerNumberModel(panel.getNodeDetailSize(), 0, 100, 1));
+        JSpinner arrowSpinner = new JSpinner(new SpinnerNumberModel(panel.getArrowDetailSize(), 0, 100, 1));
+        JSpinner labelSpinner = new JSpinner(new SpinnerNumberModel(panel.getLabelDetailSize(), 0, 100, 1));
+        JPanel fields = new JPanel(new GridLayout(0, 2, 8, 4));
+        fields.add(new JLabel("Simplify nodes smaller than (px):"));
+        fields.add(nodeSpinner);
+        fields.add(new JLabel("Hide arrowheads smaller than (px):"));
+        fields.add(arrowSpinner);
+        fields.add(new JLabel("Hide labels smaller than (px):"));
+        fields.add(labelSpinner);
+        int choice = JOptionPane.showConfirmDialog(panel, fields, "Level of Detail",
+                JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+        if (choice == JOptionPane.OK_OPTION) {
+            panel.setNodeDetailSize((Integer) nodeSpinner.getValue());
+            panel.setArrowDetailSize((Integer) arrowSpinner.getValue());
+            panel.setLabelDetailSize((Integer) labelSpinner.getValue());
+        }
+    }
+
+    /**
+     * Exit the application, first offering to save the graph if it has
+     * unsaved changes. Changes the user chose not to save are not offered
+     * for recovery next time.
+     */
+    public void exit() {
+        saveChangesThen("Save current graph before exiting?", () -> {
+            panel.getJournal().discard();
+            System.exit(0);
+        });
+    }
+
+    /**
+     * Run an action that discards the current graph, first offering to save
+     * it if it has changed since it was opened or last saved. When the user
+     * chooses to save, the action runs only once the save has succeeded.
+     */
+    void saveChangesThen(String question, Runnable action) {
+        if (panel.isModified()) {
+            int choice = JOptionPane.showConfirmDialog(panel, question,
+                    "Unsaved Graph", JOptionPane.YES_NO_CANCEL_OPTION);
+            if (choice == JOptionPane.CANCEL_OPTION || choice == JOptionPane.CLOSED_OPTION) {
+                return;
+            }
+            if (choice == JOptionPane.YES_OPTION) {
+                JFileChooser chooser = createChooser();
+                if (chooser.showSaveDialog(panel) == JFileChooser.APPROVE_OPTION) {
+                    GraphSaveWorker.save(panel, chooser.getSelectedFile(), saveFormat(), action);
+                }
+                return;
+            }
+        }
+        action.run();
+    }
+
+    /** Export a snapshot of the graph on a background thread so editing can continue. */
+    private void export(File file) {
+        GraphSnapshot snapshot = panel.createSnapshot();
+        new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() throws Exception {
+                GraphIO.exportGraph(file, snapshot);
+                return null;
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    get();
+                } catch (InterruptedException | ExecutionException ex) {
+                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                    JOptionPane.showMessageDialog(panel,
+                            "Failed to export file: " + cause.getMessage(),
+                            "Error", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        }.execute();
+    }
+
+    /** Format used when saving from the File menu. */
+    private GraphIO.Format saveFormat() {
+        return compressItem.isSelected() ? GraphIO.Format.COMPRESSED : GraphIO.Format.BINARY;
+    }
+
     public GraphMenuBar(GraphPanel panel) {
         this.panel = panel;
         JMenu fileMenu = new JMenu("File");
 
         JMenuItem newItem = new JMenuItem("New");
-        newItem.addActionListener(e -> {
-            if (panel.getNodeCount() > 0 || panel.getEdgeCount() > 0) {
-                int choice = JOptionPane.showConfirmDialog(panel,
-                        "Save current graph before creating a new one?",
-                        "Unsaved Graph", JOptionPane.YES_NO_CANCEL_OPTION);
-                if (choice == JOptionPane.CANCEL_OPTION || choice == JOptionPane.CLOSED_OPTION) {
-                    return;
-                }
-                if (choice == JOptionPane.YES_OPTION) {
-                    JFileChooser chooser = createChooser();
-                    if (chooser.showSaveDialog(panel) == JFileChooser.APPROVE_OPTION) {
-                        try {
-                            panel.saveGraph(GraphIO.withExtension(
-                                    chooser.getSelectedFile()));
-                        } catch (Exception ex) {
-                            JOptionPane.showMessageDialog(panel,
-                                    "Failed to save file: " + ex.getMessage(),
-                                    "Error", JOptionPane.ERROR_MESSAGE);
-                            return;
-                        }
-                    } else {
-                        return;
-                    }
-                }
-            }
-            panel.clearGraph();
-        });
+        newItem.addActionListener(e -> saveChangesThen(
+                "Save current graph before creating a new one?", panel::clearGraph));
         fileMenu.add(newItem);
 
         JMenuItem openItem = new JMenuItem("Open...");
-        openItem.addActionListener(e -> {
+        openItem.addActionListener(e -> saveChangesThen(
+                "Save current graph before opening another one?", () -> {
             JFileChooser chooser = createChooser();
             if (chooser.showOpenDialog(panel) == JFileChooser.APPROVE_OPTION) {
-                try {
-                    panel.loadGraph(GraphIO.withExtension(
-                            chooser.getSelectedFile()));
-                } catch (Exception ex) {
-                    JOptionPane.showMessageDialog(panel,
-                            "Failed to open file: " + ex.getMessage(),
-                            "Error", JOptionPane.ERROR_MESSAGE);
-                }
+                panel.openGraph(chooser.getSelectedFile());
             }
-        });
+        }));
         fileMenu.add(openItem);
 
         JMenuItem saveItem = new JMenuItem("Save...");
         saveItem.addActionListener(e -> {
             JFileChooser chooser = createChooser();
             if (chooser.showSaveDialog(panel) == JFileChooser.APPROVE_OPTION) {
+                GraphSaveWorker.save(panel, chooser.getSelectedFile(), saveFormat(), null);
+            }
+        });
+        fileMenu.add(saveItem);
+
+        JMenuItem importItem = new JMenuItem("Import...");
+        importItem.addActionListener(e -> saveChangesThen(
+                "Save current graph before importing another one?", () -> {
+            JFileChooser chooser = createExchangeChooser();
+            if (chooser.showOpenDialog(panel) == JFileChooser.APPROVE_OPTION) {
                 try {
-                    panel.saveGraph(GraphIO.withExtension(
-                            chooser.getSelectedFile()));
+                    panel.importGraph(chooser.getSelectedFile());
                 } catch (Exception ex) {
                     JOptionPane.showMessageDialog(panel,
-                            "Failed to save file: " + ex.getMessage(),
+                            "Failed to import file: " + ex.getMessage(),
                             "Error", JOptionPane.ERROR_MESSAGE);
                 }
             }
+        }));
+        fileMenu.add(importItem);
+
+        JMenuItem exportItem = new JMenuItem("Export...");
+        exportItem.addActionListener(e -> {
+            JFileChooser chooser = createExchangeChooser();
+            if (chooser.showSaveDialog(panel) == JFileChooser.APPROVE_OPTION) {
+                File file = chooser.getSelectedFile();
+                if (GraphIO.ExchangeFormat.forFile(file) == null) {
+                    String ext = chooser.getFileFilter() instanceof FileNameExtensionFilter filter
+                            ? filter.getExtensions()[0] : "dot";
+                    file = new File(file.getParentFile(), file.getName() + "." + ext);
+                }
+                export(file);
+            }
         });
-        fileMenu.add(saveItem);
+        fileMenu.add(exportItem);
+
+        compressItem = new JCheckBoxMenuItem("Compress Saved Files");
+        fileMenu.add(compressItem);
 
         fileMenu.addSeparator();
 
         JMenuItem exitItem = new JMenuItem("Exit");
-        exitItem.addActionListener(e -> System.exit(0));
+        exitItem.addActionListener(e -> exit());
         fileMenu.add(exitItem);
 
         JMenu editMenu = new JMenu("Edit");
+        int mask = Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx();
+        JMenuItem undoItem = new JMenuItem("Undo");
+        undoItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Z, mask));
+        undoItem.addActionListener(e -> panel.undo());
+        editMenu.add(undoItem);
+
+        JMenuItem redoItem = new JMenuItem("Redo");
+        redoItem.setAccelerator(KeyStroke.getKeyStroke(
+                KeyEvent.VK_Z, mask | InputEvent.SHIFT_DOWN_MASK));
+        redoItem.addActionListener(e -> panel.redo());
+        editMenu.add(redoItem);
 
         JMenu viewMenu = new JMenu("View");
         JMenuItem resetItem = new JMenuItem("Reset");
@@ -106,7 +218,6 @@ public class GraphMenuBar extends JMenuBar {
 
         JCheckBoxMenuItem gridItem = new JCheckBoxMenuItem("Show Grid");
         gridItem.setSelected(panel.isShowGrid());
-        int mask = Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx();
         gridItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_G, mask));
         gridItem.addActionListener(e -> panel.setShowGrid(gridItem.isSelected()));
         viewMenu.add(gridItem);
@@ -118,6 +229,10 @@ public class GraphMenuBar extends JMenuBar {
         snapItem.addActionListener(e -> panel.setSnapToGrid(snapItem.isSelected()));
         viewMenu.add(snapItem);
 
+        JMenuItem detailItem = new JMenuItem("Level of Detail...");
+        detailItem.addActionListener(e -> showDetailDialog());
+        viewMenu.add(detailItem);
+
         JMenu toolsMenu = new JMenu("Tools");
         JMenuItem cycleAnalysisItem = new JMenuItem("Cycle Analysis...");
         cycleAnalysisItem.addActionListener(e -> {
@@ -1,36 +1,1182 @@
 package me.wphillips.fsmedit;
 
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.lang.ref.SoftReference;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.UUID;
 
 /**
  * Serializable representation of a graph consisting of nodes and edges.
+ * <p>
+ * Node state lives in a {@link NodeStore} owned by the model, and indexes of
+ * each node's edges, of positions and of identifiers are kept current as the
+ * graph changes. Removal leaves a slot vacant until the model is compacted,
+ * so the remaining elements keep their drawing order. Every change is
+ * reported to {@link ChangeListener}s as a {@link GraphChange}, and
+ * {@link #snapshot()} captures an immutable copy for other threads.
  */
 public class GraphModel implements Serializable {
     private static final long serialVersionUID = 1L;
 
-    private List<Node> nodes = new ArrayList<>();
-    private List<Edge> edges = new ArrayList<>();
-    private Node startNode;
+    /** Serialized form, kept identical to earlier versions which stored a list of nodes. */
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("nodes", List.class),
+        new ObjectStreamField("edges", List.class),
+        new ObjectStreamField("startNode", Node.class)
+    };
+
+    private transient NodeStore nodes = newStore(16);
+    private transient ArrayList<Edge> edges = new ArrayList<>();
+    private transient Node startNode;
+    /** Adjacency of every node referenced by an edge of the graph; built on demand. */
+    private transient Map<Node, Adjacency> adjacency;
+    /** Spatial index of the node slots; built on first query. */
+    private transient NodeGrid grid;
+    /** Spatial index of the edge bounds; built on first query. */
+    private transient EdgeGrid edgeGrid;
+    /** Index from identifier to node slot; built on first lookup. */
+    private transient IdIndex nodeIds;
+    /** Index from identifier to edge index; built on first lookup. */
+    private transient IdIndex edgeIds;
+    /** Node slots left vacant by removals since the store was last compacted. */
+    private transient Vacancies vacantNodes = new Vacancies();
+    /** Edge slots left vacant by removals since the list was last compacted. */
+    private transient Vacancies vacantEdges = new Vacancies();
+    /** Read-only views of the nodes and edges; created on first use. */
+    private transient List<Node> nodeList;
+    private transient List<Edge> edgeList;
+    /** Sets that must follow nodes moving to a new slot. */
+    private transient List<ElementSet<Node>> nodeSets = new ArrayList<>();
+    /** Sets that must follow edges moving to a new slot. */
+    private transient List<ElementSet<Edge>> edgeSets = new ArrayList<>();
+
+    /** Listeners notified of changes. */
+    private transient List<ChangeListener> listeners = new ArrayList<>();
+    /** Changes held back until the outermost update ends. */
+    private transient List<GraphChange> pending = new ArrayList<>();
+    private transient int updateDepth;
+    private transient long changeCount;
+    private transient long savedChangeCount;
+    /** Chunks of node slots changed since the last snapshot. */
+    private transient BitSet dirtyNodeChunks = new BitSet();
+    /** Chunks of edge indices changed since the last snapshot. */
+    private transient BitSet dirtyEdgeChunks = new BitSet();
+    /** Most recent snapshot, kept for sharing with the next one while memory allows. */
+    private transient SoftReference<GraphSnapshot> lastSnapshot;
+
+    /** Receives the changes made to a model. */
+    public interface ChangeListener {
+        /**
+         * Called after the model changed.
+         *
+         * @param changes the changes in the order they were made
+         */
+        void graphChanged(List<GraphChange> changes);
+    }
+
+    /**
+     * Additions, moves and removals collected to be applied to the model in
+     * one pass by {@link #commit()}, sizing storage and indices once and
+     * telling listeners about every change together. Additions are applied
+     * first, then moves, then removals, each in the order they were made.
+     */
+    public final class Batch {
+        private final List<Node> addedNodes = new ArrayList<>();
+        private final List<Edge> addedEdges = new ArrayList<>();
+        private final List<Node> movedNodes = new ArrayList<>();
+        /** Destination of each moved node as x, y pairs. */
+        private int[] moves = new int[16];
+        private final List<Edge> removedEdges = new ArrayList<>();
+        private final List<Node> removedNodes = new ArrayList<>();
+        private boolean committed;
+
+        private Batch() {}
+
+        public void addNode(Node n) {
+            checkOpen();
+            addedNodes.add(n);
+        }
+
+        /** Add an edge; its endpoints must be part of the graph or added by this batch. */
+        public void addEdge(Edge e) {
+            checkOpen();
+            addedEdges.add(e);
+        }
+
+        /** Move the center of a node. */
+        public void moveNode(Node n, int x, int y) {
+            checkOpen();
+            int i = movedNodes.size() * 2;
+            if (i == moves.length) {
+                moves = Arrays.copyOf(moves, i * 2);
+            }
+            moves[i] = x;
+            moves[i + 1] = y;
+            movedNodes.add(n);
+        }
+
+        public void removeEdge(Edge e) {
+            checkOpen();
+            removedEdges.add(e);
+        }
+
+        /** Remove a node along with every edge attached to it. */
+        public void removeNode(Node n) {
+            checkOpen();
+            removedNodes.add(n);
+        }
+
+        /**
+         * Apply the collected changes to the model.
+         *
+         * @throws IllegalStateException if the batch was already committed
+         * @throws IllegalArgumentException if an added edge has an endpoint outside the graph
+         */
+        public void commit() {
+            checkOpen();
+            committed = true;
+            beginUpdate();
+            try {
+                nodes.ensureCapacity(nodes.size() + addedNodes.size());
+                if (nodeIds != null) {
+                    nodeIds.ensureCapacity(nodes.size() + addedNodes.size());
+                }
+                for (Node n : addedNodes) {
+                    GraphModel.this.addNode(n);
+                }
+                index();
+                edges.ensureCapacity(edges.size() + addedEdges.size());
+                if (edgeIds != null) {
+                    edgeIds.ensureCapacity(edges.size() + addedEdges.size());
+                }
+                for (Edge e : addedEdges) {
+                    GraphModel.this.addEdge(e);
+                }
+                for (int i = 0; i < movedNodes.size(); i++) {
+                    movedNodes.get(i).setPosition(moves[i * 2], moves[i * 2 + 1]);
+                }
+                List<Edge> removed = new ArrayList<>(removedEdges);
+                for (Node n : removedNodes) {
+                    if (contains(n)) {
+                        removed.addAll(edgesOf(n));
+                    }
+                }
+                removeEdges(removed);
+                for (Node n : removedNodes) {
+                    if (contains(n)) {
+                        detach(n);
+                    }
+                }
+            } finally {
+                endUpdate();
+            }
+        }
+
+        private void checkOpen() {
+            if (committed) {
+                throw new IllegalStateException("Batch already committed");
+            }
+        }
+    }
+
+    /** Edges attached to a node. */
+    private static final class Adjacency {
+        List<Edge> outgoing;
+        List<Edge> incoming;
+    }
 
     public GraphModel() {}
 
     public GraphModel(List<Node> nodes, List<Edge> edges, Node startNode) {
-        this.nodes = new ArrayList<>(nodes);
+        this.nodes = newStore(nodes.size());
+        for (Node n : nodes) {
+            this.nodes.add(n);
+        }
+        this.edges = new ArrayList<>(edges);
+        this.startNode = startNode;
+    }
+
+    /**
+     * Create a graph taking over a store its nodes were allocated in
+     * directly, sparing loaders a copy of every node.
+     */
+    GraphModel(NodeStore nodes, List<Edge> edges, Node startNode) {
+        this.nodes = nodes;
+        nodes.owner = this;
         this.edges = new ArrayList<>(edges);
         this.startNode = startNode;
     }
 
+    /** Get a read-only view of the nodes in drawing order. */
     public List<Node> getNodes() {
+        if (nodeList == null) {
+            nodeList = new NodeList();
+        }
+        return nodeList;
+    }
+
+    /** Start collecting changes to apply together with {@link Batch#commit()}. */
+    public Batch beginBatch() {
+        return new Batch();
+    }
+
+    /** Get the store holding the state of this graph's nodes. */
+    public NodeStore getNodeStore() {
         return nodes;
     }
 
+    /** Find the topmost node containing a point, or {@code null} if there is none. */
+    public Node findNodeAt(int x, int y) {
+        int slot = grid().indexAt(x, y);
+        return slot < 0 ? null : nodes.get(slot);
+    }
+
+    /** Find the nodes whose circle intersects a region, in drawing order. */
+    public List<Node> getNodesIn(Rectangle region) {
+        int[] slots = grid().indicesIn(region.x, region.y,
+                (long) region.x + region.width, (long) region.y + region.height);
+        List<Node> result = new ArrayList<>(slots.length);
+        for (int slot : slots) {
+            result.add(nodes.get(slot));
+        }
+        return result;
+    }
+
+    /**
+     * Find the edges whose bounds intersect a region, in drawing order. The
+     * bounds of an edge hold both of its nodes and the control point of a
+     * bezier curve, so every edge passing through the region is found,
+     * along with some that only pass near it.
+     */
+    public List<Edge> getEdgesIn(Rectangle region) {
+        int[] indices = edgeGrid().indicesIn(region.x, region.y,
+                (long) region.x + region.width, (long) region.y + region.height);
+        List<Edge> result = new ArrayList<>(indices.length);
+        for (int index : indices) {
+            result.add(edges.get(index));
+        }
+        return result;
+    }
+
+    /** Get a read-only view of the edges in drawing order. */
     public List<Edge> getEdges() {
-        return edges;
+        if (edgeList == null) {
+            edgeList = new EdgeList();
+        }
+        return edgeList;
     }
 
     public Node getStartNode() {
         return startNode;
     }
+
+    public void setStartNode(Node startNode) {
+        if (this.startNode != startNode) {
+            Node old = this.startNode;
+            this.startNode = startNode;
+            fire(GraphChange.Type.START_CHANGED, startNode, null,
+                    GraphChange.Property.START_NODE, old);
+        }
+    }
+
+    /**
+     * Capture the current state of the graph. Chunks of nodes and edges that
+     * have not changed since the previous snapshot are shared with it.
+     */
+    public GraphSnapshot snapshot() {
+        index();
+        compactNodes();
+        compactEdges();
+        GraphSnapshot last = lastSnapshot == null ? null : lastSnapshot.get();
+        if (last != null && last.getVersion() == changeCount) {
+            return last;
+        }
+        int nodeCount = nodes.size();
+        GraphSnapshot.NodeChunk[] nodeChunks = new GraphSnapshot.NodeChunk[chunks(nodeCount)];
+        for (int c = 0; c < nodeChunks.length; c++) {
+            int from = c << GraphSnapshot.CHUNK_SHIFT;
+            int length = Math.min(GraphSnapshot.CHUNK_SIZE, nodeCount - from);
+            if (last != null && c < last.nodeChunkCount() && !dirtyNodeChunks.get(c)
+                    && last.nodeChunk(c).length() == length) {
+                nodeChunks[c] = last.nodeChunk(c);
+            } else {
+                nodeChunks[c] = new GraphSnapshot.NodeChunk(nodes, from, length);
+            }
+        }
+        int edgeCount = edges.size();
+        GraphSnapshot.EdgeChunk[] edgeChunks = new GraphSnapshot.EdgeChunk[chunks(edgeCount)];
+        for (int c = 0; c < edgeChunks.length; c++) {
+            int from = c << GraphSnapshot.CHUNK_SHIFT;
+            int length = Math.min(GraphSnapshot.CHUNK_SIZE, edgeCount - from);
+            if (last != null && c < last.edgeChunkCount() && !dirtyEdgeChunks.get(c)
+                    && last.edgeChunk(c).length() == length) {
+                edgeChunks[c] = last.edgeChunk(c);
+            } else {
+                edgeChunks[c] = new GraphSnapshot.EdgeChunk(this, edges, from, length);
+            }
+        }
+        dirtyNodeChunks.clear();
+        dirtyEdgeChunks.clear();
+        GraphSnapshot snapshot = new GraphSnapshot(changeCount, nodeCount, nodeChunks,
+                edgeCount, edgeChunks, startNode == null ? -1 : indexOf(startNode));
+        lastSnapshot = new SoftReference<>(snapshot);
+        return snapshot;
+    }
+
+    private static int chunks(int count) {
+        return (count + GraphSnapshot.CHUNK_SIZE - 1) >> GraphSnapshot.CHUNK_SHIFT;
+    }
+
+    /** Note that the node in a slot changed, so the next snapshot copies its chunk. */
+    private void touchNode(int slot) {
+        dirtyNodeChunks.set(slot >> GraphSnapshot.CHUNK_SHIFT);
+    }
+
+    /** Note that the edge at an index changed, so the next snapshot copies its chunk. */
+    private void touchEdge(int index) {
+        dirtyEdgeChunks.set(index >> GraphSnapshot.CHUNK_SHIFT);
+    }
+
+    /** Register a listener to be told about every later change. */
+    public void addChangeListener(ChangeListener listener) {
+        // Edges only report their own edits once they are indexed
+        index();
+        listeners.add(listener);
+    }
+
+    public void removeChangeListener(ChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Hold back change notifications until the matching {@link #endUpdate()}.
+     * Updates may be nested; the changes are delivered when the outermost
+     * one ends.
+     */
+    public void beginUpdate() {
+        updateDepth++;
+    }
+
+    /** End an update started with {@link #beginUpdate()}, delivering its changes. */
+    public void endUpdate() {
+        if (updateDepth == 0) {
+            throw new IllegalStateException("No update in progress");
+        }
+        if (--updateDepth > 0) {
+            return;
+        }
+        if (vacantNodes.count() > nodes.size() >> 2) {
+            compactNodes();
+        }
+        if (vacantEdges.count() > edges.size() >> 2) {
+            compactEdges();
+        }
+        if (!pending.isEmpty()) {
+            List<GraphChange> changes = Collections.unmodifiableList(pending);
+            pending = new ArrayList<>();
+            deliver(changes);
+        }
+    }
+
+    /** Get the number of changes made to this model since it was created or loaded. */
+    public long getChangeCount() {
+        return changeCount;
+    }
+
+    /** Check whether the model changed since it was last marked as saved. */
+    public boolean isModified() {
+        return changeCount != savedChangeCount;
+    }
+
+    /**
+     * Record that the model was saved as it was after the given number of
+     * changes, see {@link #getChangeCount()}.
+     */
+    public void markSaved(long changeCount) {
+        savedChangeCount = changeCount;
+    }
+
+    /** Record that the model holds changes that have not been saved. */
+    public void markModified() {
+        savedChangeCount = -1;
+    }
+
+    /** Check whether the node is part of this graph. */
+    public boolean contains(Node n) {
+        return nodes.contains(n);
+    }
+
+    /** Check whether the edge is part of this graph. */
+    public boolean contains(Edge e) {
+        index();
+        return e.graph == this;
+    }
+
+    /** Get the position of a node in {@link #getNodes()}, or -1 if it is not part of this graph. */
+    public int indexOf(Node n) {
+        if (!nodes.contains(n)) {
+            return -1;
+        }
+        compactNodes();
+        return n.slot;
+    }
+
+    /** Get the position of an edge in {@link #getEdges()}, or -1 if it is not part of this graph. */
+    public int indexOf(Edge e) {
+        if (!contains(e)) {
+            return -1;
+        }
+        compactEdges();
+        return e.slot;
+    }
+
+    /** Find the node with the given identifier, or {@code null} if there is none. */
+    public Node getNode(UUID id) {
+        if (nodeIds == null) {
+            NodeStore store = nodes;
+            nodeIds = new IdIndex(new IdIndex.Ids() {
+                @Override
+                public long msb(int index) {
+                    return store.idMsb[index];
+                }
+
+                @Override
+                public long lsb(int index) {
+                    return store.idLsb[index];
+                }
+            }, store.size());
+            for (int i = 0; i < store.size(); i++) {
+                if (store.get(i) != null) {
+                    nodeIds.add(i);
+                }
+            }
+        }
+        int i = nodeIds.get(id.getMostSignificantBits(), id.getLeastSignificantBits());
+        return i < 0 ? null : nodes.get(i);
+    }
+
+    /** Find the edge with the given identifier, or {@code null} if there is none. */
+    public Edge getEdge(UUID id) {
+        if (edgeIds == null) {
+            index();
+            edgeIds = new IdIndex(new IdIndex.Ids() {
+                @Override
+                public long msb(int index) {
+                    return edges.get(index).getIdMostSigBits();
+                }
+
+                @Override
+                public long lsb(int index) {
+                    return edges.get(index).getIdLeastSigBits();
+                }
+            }, edges.size());
+            for (int i = 0; i < edges.size(); i++) {
+                if (edges.get(i) != null) {
+                    edgeIds.add(i);
+                }
+            }
+        }
+        int i = edgeIds.get(id.getMostSignificantBits(), id.getLeastSignificantBits());
+        return i < 0 ? null : edges.get(i);
+    }
+
+    /** Create an empty set of this graph's nodes that follows later removals. */
+    public ElementSet<Node> newNodeSet() {
+        ElementSet<Node> set = new ElementSet<>(new ElementSet.Indexer<>() {
+            @Override
+            public int indexOf(Object o) {
+                return o instanceof Node && nodes.contains((Node) o) ? ((Node) o).slot : -1;
+            }
+
+            @Override
+            public Node get(int slot) {
+                return nodes.get(slot);
+            }
+        });
+        nodeSets.add(set);
+        return set;
+    }
+
+    /** Create an empty set of this graph's edges that follows later removals. */
+    public ElementSet<Edge> newEdgeSet() {
+        ElementSet<Edge> set = new ElementSet<>(new ElementSet.Indexer<>() {
+            @Override
+            public int indexOf(Object o) {
+                return o instanceof Edge && contains((Edge) o) ? ((Edge) o).slot : -1;
+            }
+
+            @Override
+            public Edge get(int slot) {
+                return edges.get(slot);
+            }
+        });
+        edgeSets.add(set);
+        return set;
+    }
+
+    /** Get a read-only view of the edges leaving a node. */
+    public List<Edge> getOutgoing(Node n) {
+        Adjacency a = index().get(n);
+        return a == null || a.outgoing == null
+                ? Collections.emptyList() : Collections.unmodifiableList(a.outgoing);
+    }
+
+    /** Get a read-only view of the edges entering a node. */
+    public List<Edge> getIncoming(Node n) {
+        Adjacency a = index().get(n);
+        return a == null || a.incoming == null
+                ? Collections.emptyList() : Collections.unmodifiableList(a.incoming);
+    }
+
+    /** Find an edge from one node to another, or {@code null} if there is none. */
+    public Edge findEdge(Node from, Node to) {
+        for (Edge e : getOutgoing(from)) {
+            if (e.getTo() == to) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Add a node to the end of the node list.
+     *
+     * @return false if the node was already part of the graph
+     */
+    public boolean addNode(Node n) {
+        if (!nodes.add(n)) {
+            return false;
+        }
+        touchNode(n.slot);
+        if (grid != null) {
+            grid.add(n.slot);
+        }
+        if (nodeIds != null) {
+            nodeIds.add(n.slot);
+        }
+        fire(GraphChange.Type.NODE_ADDED, n, null, null, null);
+        return true;
+    }
+
+    /**
+     * Put a removed node back at the position it had, given as the old value
+     * of its {@link GraphChange.Type#NODE_REMOVED} change. The node takes a
+     * vacant slot there if one is left; otherwise the nodes from that
+     * position on move up by one.
+     *
+     * @return false if the node was already part of the graph
+     */
+    boolean addNode(int index, Node n) {
+        if (nodes.contains(n)) {
+            return false;
+        }
+        int slot = vacantNodes.slotFor(index, nodes.size());
+        if (slot >= 0) {
+            vacantNodes.fill(slot);
+            nodes.put(n, slot);
+            if (grid != null) {
+                grid.add(slot);
+            }
+            if (nodeIds != null) {
+                nodeIds.add(slot);
+            }
+            touchNode(slot);
+        } else {
+            compactNodes();
+            if (index >= nodes.size()) {
+                return addNode(n);
+            }
+            nodes.insert(n, index);
+            // Every later node moved up a slot; index them again when next needed
+            grid = null;
+            nodeIds = null;
+            for (ElementSet<Node> set : nodeSets) {
+                set.inserted(index);
+            }
+            dirtyNodeChunks.set(index >> GraphSnapshot.CHUNK_SHIFT, chunks(nodes.size()));
+            dirtyEdgeChunks.set(0, chunks(edges.size()));
+        }
+        fire(GraphChange.Type.NODE_ADDED, n, null, null, null);
+        return true;
+    }
+
+    /**
+     * Add an edge between two nodes of this graph.
+     *
+     * @return false if the edge was already part of the graph
+     * @throws IllegalArgumentException if an endpoint is not part of the graph
+     */
+    public boolean addEdge(Edge e) {
+        if (!contains(e.getFrom()) || !contains(e.getTo())) {
+            throw new IllegalArgumentException("Edge endpoints must be part of the graph");
+        }
+        index();
+        if (e.graph == this) {
+            return false;
+        }
+        link(e, edges.size());
+        touchEdge(e.slot);
+        if (edgeGrid != null) {
+            edgeGrid.add(e.slot, e);
+        }
+        if (edgeIds != null) {
+            edgeIds.add(e.slot);
+        }
+        fire(GraphChange.Type.EDGE_ADDED, null, e, null, null);
+        return true;
+    }
+
+    /**
+     * Put a removed edge back at the position it had, given as the old value
+     * of its {@link GraphChange.Type#EDGE_REMOVED} change. The edge takes a
+     * vacant slot there if one is left; otherwise the edges from that
+     * position on move up by one.
+     *
+     * @return false if the edge was already part of the graph
+     * @throws IllegalArgumentException if an endpoint is not part of the graph
+     */
+    boolean addEdge(int index, Edge e) {
+        if (!contains(e.getFrom()) || !contains(e.getTo())) {
+            throw new IllegalArgumentException("Edge endpoints must be part of the graph");
+        }
+        index();
+        if (e.graph == this) {
+            return false;
+        }
+        int slot = vacantEdges.slotFor(index, edges.size());
+        if (slot >= 0) {
+            vacantEdges.fill(slot);
+            link(e, slot);
+            touchEdge(slot);
+            if (edgeGrid != null) {
+                edgeGrid.add(slot, e);
+            }
+            if (edgeIds != null) {
+                edgeIds.add(slot);
+            }
+        } else {
+            compactEdges();
+            if (index >= edges.size()) {
+                return addEdge(e);
+            }
+            link(e, edges.size());
+            edges.remove(edges.size() - 1);
+            edges.add(index, e);
+            for (int i = index; i < edges.size(); i++) {
+                edges.get(i).slot = i;
+            }
+            // Every later edge moved up a slot; index them again when next needed
+            edgeGrid = null;
+            edgeIds = null;
+            for (ElementSet<Edge> set : edgeSets) {
+                set.inserted(index);
+            }
+            dirtyEdgeChunks.set(index >> GraphSnapshot.CHUNK_SHIFT, chunks(edges.size()));
+        }
+        fire(GraphChange.Type.EDGE_ADDED, null, e, null, null);
+        return true;
+    }
+
+    /**
+     * Remove a node along with every edge attached to it.
+     *
+     * @return the removed edges, or {@code null} if the node was not part of the graph
+     */
+    public List<Edge> removeNode(Node n) {
+        if (!contains(n)) {
+            return null;
+        }
+        List<Edge> removed = edgesOf(n);
+        beginUpdate();
+        removeEdges(removed);
+        detach(n);
+        endUpdate();
+        return removed;
+    }
+
+    /**
+     * Remove an edge.
+     *
+     * @return false if the edge was not part of the graph
+     */
+    public boolean removeEdge(Edge e) {
+        if (!contains(e)) {
+            return false;
+        }
+        beginUpdate();
+        int index = unlink(e);
+        adjacency.get(e.getFrom()).outgoing.remove(e);
+        adjacency.get(e.getTo()).incoming.remove(e);
+        fire(GraphChange.Type.EDGE_REMOVED, null, e, null, index);
+        endUpdate();
+        return true;
+    }
+
+    /** Collect the edges attached to a node, each once. */
+    private List<Edge> edgesOf(Node n) {
+        Adjacency a = index().get(n);
+        List<Edge> edgesOf = new ArrayList<>();
+        if (a != null && a.outgoing != null) {
+            edgesOf.addAll(a.outgoing);
+        }
+        if (a != null && a.incoming != null) {
+            for (Edge e : a.incoming) {
+                if (e.getFrom() != n) {
+                    edgesOf.add(e);
+                }
+            }
+        }
+        return edgesOf;
+    }
+
+    /**
+     * Remove many edges, clearing them out of each adjacency list they were
+     * in with one pass over that list rather than one search per edge.
+     * Edges not part of the graph are skipped.
+     */
+    private void removeEdges(List<Edge> list) {
+        if (list.isEmpty()) {
+            return;
+        }
+        beginUpdate();
+        Set<Adjacency> touched = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<Edge> removed = new ArrayList<>(list.size());
+        int[] indices = new int[list.size()];
+        for (Edge e : list) {
+            if (contains(e)) {
+                indices[removed.size()] = unlink(e);
+                touched.add(adjacency.get(e.getFrom()));
+                touched.add(adjacency.get(e.getTo()));
+                removed.add(e);
+            }
+        }
+        for (Adjacency a : touched) {
+            if (a.outgoing != null) {
+                a.outgoing.removeIf(e -> e.graph != this);
+            }
+            if (a.incoming != null) {
+                a.incoming.removeIf(e -> e.graph != this);
+            }
+        }
+        for (int i = 0; i < removed.size(); i++) {
+            fire(GraphChange.Type.EDGE_REMOVED, null, removed.get(i), null, indices[i]);
+        }
+        endUpdate();
+    }
+
+    /**
+     * Take an edge out of the edge list and indices, leaving its slot vacant
+     * and the adjacency lists to the caller.
+     *
+     * @return the position the edge had
+     */
+    private int unlink(Edge e) {
+        int slot = e.slot;
+        if (edgeIds != null) {
+            edgeIds.remove(slot);
+        }
+        if (edgeGrid != null) {
+            edgeGrid.remove(slot);
+        }
+        edges.set(slot, null);
+        for (ElementSet<Edge> set : edgeSets) {
+            set.vacated(slot);
+        }
+        touchEdge(slot);
+        e.graph = null;
+        return slot - vacantEdges.add(slot);
+    }
+
+    /** Remove a node whose edges have already been removed. */
+    private void detach(Node n) {
+        int slot = n.slot;
+        if (nodeIds != null) {
+            nodeIds.remove(slot);
+        }
+        if (grid != null) {
+            grid.remove(slot);
+        }
+        nodes.remove(n);
+        int index = slot - vacantNodes.add(slot);
+        touchNode(slot);
+        for (ElementSet<Node> set : nodeSets) {
+            set.vacated(slot);
+        }
+        adjacency.remove(n);
+        fire(GraphChange.Type.NODE_REMOVED, n, null, null, index);
+        if (startNode == n) {
+            setStartNode(null);
+        }
+    }
+
+    /** Move the nodes after each vacant slot down in order, closing the gaps. */
+    private void compactNodes() {
+        int first = vacantNodes.first();
+        if (first < 0) {
+            return;
+        }
+        int size = nodes.size();
+        int to = first;
+        for (int from = first + 1; from < size; from++) {
+            if (nodes.get(from) == null) {
+                continue;
+            }
+            nodes.move(from, to);
+            if (grid != null) {
+                grid.move(from, to);
+            }
+            if (nodeIds != null) {
+                nodeIds.move(from, to);
+            }
+            for (ElementSet<Node> set : nodeSets) {
+                set.moved(from, to);
+            }
+            to++;
+        }
+        nodes.truncate(to);
+        vacantNodes.clear();
+        dirtyNodeChunks.set(first >> GraphSnapshot.CHUNK_SHIFT, chunks(size));
+        // Edges refer to their nodes by position in snapshots
+        dirtyEdgeChunks.set(0, chunks(edges.size()));
+    }
+
+    /** Move the edges after each vacant slot down in order, closing the gaps. */
+    private void compactEdges() {
+        int first = vacantEdges.first();
+        if (first < 0) {
+            return;
+        }
+        int size = edges.size();
+        int to = first;
+        for (int from = first + 1; from < size; from++) {
+            Edge e = edges.get(from);
+            if (e == null) {
+                continue;
+            }
+            edges.set(to, e);
+            e.slot = to;
+            if (edgeGrid != null) {
+                edgeGrid.move(from, to);
+            }
+            if (edgeIds != null) {
+                edgeIds.move(from, to);
+            }
+            for (ElementSet<Edge> set : edgeSets) {
+                set.moved(from, to);
+            }
+            to++;
+        }
+        edges.subList(to, size).clear();
+        vacantEdges.clear();
+        dirtyEdgeChunks.set(first >> GraphSnapshot.CHUNK_SHIFT, chunks(size));
+    }
+
+    /** Change the destination of an edge, updating the index. */
+    public void setEdgeTarget(Edge e, Node to) {
+        if (!contains(e)) {
+            e.setTo(to);
+            return;
+        }
+        if (!contains(to)) {
+            throw new IllegalArgumentException("Edge target must be part of the graph");
+        }
+        Node old = e.getTo();
+        adjacency.get(old).incoming.remove(e);
+        e.setTo(to);
+        incoming(to).add(e);
+        touchEdge(e.slot);
+        if (edgeGrid != null) {
+            edgeGrid.update(e.slot, e);
+        }
+        fire(GraphChange.Type.EDGE_RETARGETED, null, e, GraphChange.Property.TARGET, old);
+    }
+
+    /** Remove every node and edge. */
+    public void clear() {
+        for (Edge e : edges) {
+            if (e != null && e.graph == this) {
+                e.graph = null;
+            }
+        }
+        // Nodes left outside the graph keep their state in the old store
+        nodes.owner = null;
+        nodes = newStore(16);
+        edges = new ArrayList<>();
+        startNode = null;
+        adjacency = null;
+        grid = null;
+        edgeGrid = null;
+        nodeIds = null;
+        edgeIds = null;
+        vacantNodes.clear();
+        vacantEdges.clear();
+        dirtyNodeChunks.clear();
+        dirtyEdgeChunks.clear();
+        lastSnapshot = null;
+        for (ElementSet<Node> set : nodeSets) {
+            set.clear();
+        }
+        for (ElementSet<Edge> set : edgeSets) {
+            set.clear();
+        }
+        fire(GraphChange.Type.CLEARED, null, null, null, null);
+    }
+
+    /** Report an edit made through the setters of one of this model's nodes. */
+    void nodeChanged(Node n, GraphChange.Type type, GraphChange.Property property, Object oldValue) {
+        touchNode(n.slot);
+        if (property == GraphChange.Property.POSITION || property == GraphChange.Property.RADIUS) {
+            if (grid != null) {
+                grid.update(n.slot);
+            }
+            Adjacency a = index().get(n);
+            if (a != null) {
+                reshaped(a.outgoing);
+                reshaped(a.incoming);
+            }
+        }
+        fire(type, n, null, property, oldValue);
+    }
+
+    /** Report an edit made through the setters of one of this model's edges. */
+    void edgeChanged(Edge e, GraphChange.Type type, GraphChange.Property property, Object oldValue) {
+        touchEdge(e.slot);
+        if (edgeGrid != null && type == GraphChange.Type.EDGE_RESTYLED) {
+            edgeGrid.update(e.slot, e);
+        }
+        fire(type, null, e, property, oldValue);
+    }
+
+    private void fire(GraphChange.Type type, Node n, Edge e,
+            GraphChange.Property property, Object oldValue) {
+        changeCount++;
+        if (listeners.isEmpty()) {
+            return;
+        }
+        GraphChange change = new GraphChange(type, n, e, property, oldValue);
+        if (updateDepth == 0) {
+            deliver(Collections.singletonList(change));
+        } else if (pending.isEmpty() || !change.sameAs(pending.get(pending.size() - 1))) {
+            pending.add(change);
+        }
+    }
+
+    private void deliver(List<GraphChange> changes) {
+        for (ChangeListener listener : new ArrayList<>(listeners)) {
+            listener.graphChanged(changes);
+        }
+    }
+
+    private NodeStore newStore(int capacity) {
+        NodeStore store = new NodeStore(capacity);
+        store.owner = this;
+        return store;
+    }
+
+    private NodeGrid grid() {
+        if (grid == null) {
+            grid = new NodeGrid(nodes);
+        }
+        return grid;
+    }
+
+    private EdgeGrid edgeGrid() {
+        if (edgeGrid == null) {
+            index();
+            edgeGrid = new EdgeGrid(edges);
+        }
+        return edgeGrid;
+    }
+
+    private Map<Node, Adjacency> index() {
+        if (adjacency == null) {
+            // Linking assigns the edge indices, so no earlier snapshot can be shared
+            lastSnapshot = null;
+            adjacency = new IdentityHashMap<>(nodes.size() * 2);
+            List<Edge> all = edges;
+            edges = new ArrayList<>(all.size());
+            for (Edge e : all) {
+                if (e.graph != this) {
+                    link(e, edges.size());
+                }
+            }
+        }
+        return adjacency;
+    }
+
+    /** Put an edge into the given slot, either the end of the list or a vacant slot. */
+    private void link(Edge e, int slot) {
+        e.graph = this;
+        e.slot = slot;
+        // Its nodes may have moved while it was out of the graph
+        e.geometry = null;
+        if (slot == edges.size()) {
+            edges.add(e);
+        } else {
+            edges.set(slot, e);
+        }
+        Adjacency from = adjacency.computeIfAbsent(e.getFrom(), k -> new Adjacency());
+        if (from.outgoing == null) {
+            from.outgoing = new ArrayList<>(2);
+        }
+        from.outgoing.add(e);
+        incoming(e.getTo()).add(e);
+    }
+
+    /** Drop the cached geometry and refile the bounds of edges whose node moved or resized. */
+    private void reshaped(List<Edge> list) {
+        if (list != null) {
+            for (Edge e : list) {
+                e.geometry = null;
+                if (edgeGrid != null) {
+                    edgeGrid.update(e.slot, e);
+                }
+            }
+        }
+    }
+
+    private List<Edge> incoming(Node n) {
+        Adjacency a = adjacency.computeIfAbsent(n, k -> new Adjacency());
+        if (a.incoming == null) {
+            a.incoming = new ArrayList<>(2);
+        }
+        return a.incoming;
+    }
+
+    /** Read-only view of the nodes, compacting the store before positions are read. */
+    private final class NodeList extends AbstractList<Node> implements RandomAccess {
+        @Override
+        public Node get(int index) {
+            compactNodes();
+            return nodes.get(index);
+        }
+
+        @Override
+        public int size() {
+            return nodes.size() - vacantNodes.count();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return o instanceof Node && GraphModel.this.contains((Node) o);
+        }
+
+        @Override
+        public int indexOf(Object o) {
+            return o instanceof Node ? GraphModel.this.indexOf((Node) o) : -1;
+        }
+
+        @Override
+        public int lastIndexOf(Object o) {
+            return indexOf(o);
+        }
+    }
+
+    /** Read-only view of the edges, compacting the list before positions are read. */
+    private final class EdgeList extends AbstractList<Edge> implements RandomAccess {
+        @Override
+        public Edge get(int index) {
+            compactEdges();
+            return edges.get(index);
+        }
+
+        @Override
+        public int size() {
+            return edges.size() - vacantEdges.count();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return o instanceof Edge && GraphModel.this.contains((Edge) o);
+        }
+
+        @Override
+        public int indexOf(Object o) {
+            return o instanceof Edge ? GraphModel.this.indexOf((Edge) o) : -1;
+        }
+
+        @Override
+        public int lastIndexOf(Object o) {
+            return indexOf(o);
+        }
+    }
+
+    /**
+     * Create a detached copy of the given graph. Nodes and edges are copied
+     * along with their identifiers so the copy can be written out while the
+     * originals continue to be edited.
+     */
+    public static GraphModel copyOf(List<Node> nodes, List<Edge> edges, Node startNode) {
+        Map<Node, Node> copies = new IdentityHashMap<>(nodes.size() * 2);
+        NodeStore store = new NodeStore(nodes.size());
+        for (Node n : nodes) {
+            Node c = new Node(store, n.getX(), n.getY(), n.getRadius(), n.getLabel(),
+                    n.getArgb(), n.getIdMostSigBits(), n.getIdLeastSigBits());
+            c.setMetadata(n.getMetadata());
+            c.setLocked(n.isLocked());
+            copies.put(n, c);
+        }
+        List<Edge> edgeCopies = new ArrayList<>(edges.size());
+        for (Edge e : edges) {
+            Edge c = new Edge(copies.get(e.getFrom()), copies.get(e.getTo()),
+                    e.getSplineType(), e.getIdMostSigBits(), e.getIdLeastSigBits());
+            c.setCurvature(e.getCurvature());
+            c.setText(e.getText());
+            edgeCopies.add(c);
+        }
+        return new GraphModel(store, edgeCopies,
+                startNode == null ? null : copies.get(startNode));
+    }
+
+    /**
+     * Create a detached copy of another model.
+     */
+    public static GraphModel copyOf(GraphModel source) {
+        return copyOf(source.getNodes(), source.getEdges(), source.startNode);
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("nodes", new ArrayList<>(getNodes()));
+        fields.put("edges", new ArrayList<>(getEdges()));
+        fields.put("startNode", startNode);
+        out.writeFields();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        List<Node> saved = (List<Node>) fields.get("nodes", null);
+        nodes = newStore(saved == null ? 16 : saved.size());
+        if (saved != null) {
+            for (Node n : saved) {
+                nodes.add(n);
+            }
+        }
+        List<Edge> savedEdges = (List<Edge>) fields.get("edges", null);
+        edges = savedEdges == null ? new ArrayList<>() : new ArrayList<>(savedEdges);
+        vacantNodes = new Vacancies();
+        vacantEdges = new Vacancies();
+        nodeSets = new ArrayList<>();
+        edgeSets = new ArrayList<>();
+        listeners = new ArrayList<>();
+        pending = new ArrayList<>();
+        dirtyNodeChunks = new BitSet();
+        dirtyEdgeChunks = new BitSet();
+        startNode = (Node) fields.get("startNode", null);
+    }
 }
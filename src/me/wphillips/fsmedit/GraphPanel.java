@@ -2,8 +2,6 @@ package me.wphillips.fsmedit;
 
 import javax.swing.*;
 import java.awt.*;
-import java.awt.geom.Line2D;
-import java.awt.geom.QuadCurve2D;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.KeyEvent;
@@ -12,25 +10,45 @@ import java.awt.Toolkit;
 import java.awt.BasicStroke;
 import java.awt.Cursor;
 import java.awt.Stroke;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
 import java.io.*;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import java.util.UUID;
 
 public class GraphPanel extends JPanel {
     /** Maximum pixel width for edge text before wrapping occurs. */
     private static final int EDGE_TEXT_WRAP_WIDTH = 120;
-    private final List<Node> nodes = new ArrayList<>();
-    private final List<Edge> edges = new ArrayList<>();
-    private Node startNode;
+    /**
+     * World units by which the visible area is widened when choosing what to
+     * paint, so labels and arrowheads overhanging from just off screen are
+     * still drawn.
+     */
+    private static final int PAINT_MARGIN = EDGE_TEXT_WRAP_WIDTH;
+    /** Number of distinct edge labels whose layout is kept between repaints. */
+    private static final int LABEL_LAYOUT_CACHE_SIZE = 4096;
+    /** World units around a drawn shape its widest stroke may reach. */
+    private static final int STROKE_MARGIN = 2;
+    /** Screen pixels around a repainted area left for antialiasing and rounding. */
+    private static final int PIXEL_MARGIN = 2;
+    /** The graph being edited; maintains the per-node edge index. */
+    private GraphModel graph = new GraphModel();
+    /** Wrapped and measured edge labels, so repaints do not measure text again. */
+    private final LabelLayout.Cache labelLayouts = new LabelLayout.Cache(LABEL_LAYOUT_CACHE_SIZE);
+    /** Repaints whenever the graph changes, however the change was made. */
+    private final GraphModel.ChangeListener graphListener = this::graphChanged;
+    /** Undo and redo history of edits to {@link #graph}. */
+    private EditHistory history;
     private Node draggedNode;
     private Node hoveredNode;
     private Node selectedNode;
-    private final List<Node> selectedNodes = new ArrayList<>();
+    /** Selected nodes, kept as one bit per node of {@link #graph}. */
+    private ElementSet<Node> selectedNodes = graph.newNodeSet();
     private Point selectionStart;
     private Rectangle selectionRect;
     private PropertiesPanel propertiesPanel;
@@ -45,16 +63,24 @@ public class GraphPanel extends JPanel {
     private final java.util.List<Edge> clipboardEdges = new java.util.ArrayList<>();
     private int clipboardCenterX;
     private int clipboardCenterY;
+    /** Journal recording edits for crash recovery. */
+    private final GraphJournal journal = new GraphJournal(this::createSnapshot);
+    /** Background load filling in the graph, or {@code null} when idle. */
+    private GraphLoadWorker loader;
+    /** Outlines of what the current load has decoded so far. */
+    private Path2D.Float loadPreview;
 
     /** Listeners notified when the user selects a node. */
     private final List<NodeSelectionListener> nodeSelectionListeners = new ArrayList<>();
 
     /** Detected cycles from the most recent analysis. */
     private final List<List<Edge>> cycleAnalysisLoops = new ArrayList<>();
+    /** Version of the graph the cycles were found in, or -1 if there are none. */
+    private long cycleAnalysisVersion = -1;
     /** Index of the currently highlighted cycle. */
     private int currentCycleIndex = -1;
-    /** Edge IDs that belong to the currently highlighted cycle. */
-    private final Set<String> highlightedCycleEdgeIds = new HashSet<>();
+    /** Edges that belong to the currently highlighted cycle. */
+    private ElementSet<Edge> highlightedCycleEdges = graph.newEdgeSet();
 
     /** Current zoom level. */
     private double scale = 1.0;
@@ -70,19 +96,57 @@ public class GraphPanel extends JPanel {
     private boolean showGrid;
     /** Grid spacing per square in pixels. */
     private final int gridSpacing = 10;
+    /** Draws the background grid from a tile kept between repaints. */
+    private final GridPainter grid = new GridPainter();
     /** Whether to snap nodes to the grid while dragging. */
     private boolean snapToGrid;
+    /** On-screen node diameter in pixels below which nodes are drawn as plain squares. */
+    private int nodeDetailSize = 6;
+    /**
+     * On-screen arrowhead length in pixels below which edges are drawn as
+     * plain lines and antialiasing is turned off.
+     */
+    private int arrowDetailSize = 3;
+    /** On-screen font size in pixels below which labels are not drawn. */
+    private int labelDetailSize = 6;
     /** Starting mouse position when beginning a drag. */
     private Point dragStartMouse;
     /** Original positions of nodes when a drag begins. */
     private final java.util.Map<Node, Point> dragStart = new java.util.HashMap<>();
+    /**
+     * Whether a drag is moving {@link #movingNodes}, which are drawn with
+     * {@link #movingEdges} over the static layer instead of in it.
+     */
+    private boolean moving;
+    private ElementSet<Node> movingNodes = graph.newNodeSet();
+    /** Edges attached to {@link #movingNodes}. */
+    private ElementSet<Edge> movingEdges = graph.newEdgeSet();
+    /** Part of the world {@link #movingNodes} and {@link #movingEdges} were last drawn over. */
+    private Rectangle movingArea;
+    /**
+     * Rendering of the grid and of everything the current gesture is not
+     * moving, drawn as one image until the view or what it shows changes.
+     */
+    private BufferedImage layer;
+    /** Whether {@link #layer} shows the current graph, selection and highlights. */
+    private boolean layerValid;
+    /** Transform from world to layer pixels {@link #layer} was rendered with. */
+    private AffineTransform layerView;
+    /**
+     * Part of the screen where {@link #layer} is out of date although
+     * {@link #layerValid} is set, or {@code null} if it is all up to date.
+     */
+    private Rectangle layerDamage;
+    /** Fill color of the node drawn last, see {@link #fillOf(Node)}. */
+    private Color lastFill;
 
     /**
-     * Update which node is currently hovered and adjust the cursor. The panel
-     * is repainted only when the hovered node actually changes.
+     * Update which node is currently hovered and adjust the cursor. Only the
+     * old and new hovered nodes are repainted, and only when they differ.
      */
     private void setHoveredNode(Node node) {
         if (hoveredNode != node) {
+            Rectangle dirty = union(drawnBounds(hoveredNode), drawnBounds(node));
             hoveredNode = node;
             if (node != null && !node.isLocked()) {
                 setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
@@ -91,8 +155,22 @@ public class GraphPanel extends JPanel {
             } else {
                 setCursor(Cursor.getDefaultCursor());
             }
-            repaint();
+            repaintLayer(dirty);
+        }
+    }
+
+    /**
+     * Update the node highlighted as the end of the edge being drawn, which
+     * may not be the start of the edge, and repaint.
+     */
+    private void setEdgeTarget(Node hit) {
+        Node target = hit != edgeStart ? hit : null;
+        if (edgeTarget != target) {
+            Rectangle dirty = union(drawnBounds(edgeTarget), drawnBounds(target));
+            edgeTarget = target;
+            repaintLayer(dirty);
         }
+        repaint();
     }
 
     private boolean isMenuShortcutDown(InputEvent e) {
@@ -100,6 +178,9 @@ public class GraphPanel extends JPanel {
     }
 
     public GraphPanel() {
+        graph.addChangeListener(graphListener);
+        graph.addChangeListener(journal);
+        history = new EditHistory(graph);
         popupMenu = new GraphPopupMenu(this);
         menuShortcutMask = Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx();
         showGrid = false;
@@ -112,13 +193,18 @@ public class GraphPanel extends JPanel {
         am.put("copy", new AbstractAction() {
             @Override
             public void actionPerformed(java.awt.event.ActionEvent e) {
-                copyContext(hoveredNode);
+                if (loader == null) {
+                    copyContext(hoveredNode);
+                }
             }
         });
         im.put(KeyStroke.getKeyStroke(KeyEvent.VK_V, menuShortcutMask), "paste");
         am.put("paste", new AbstractAction() {
             @Override
             public void actionPerformed(java.awt.event.ActionEvent e) {
+                if (loader != null) {
+                    return;
+                }
                 Point p = getMousePosition();
                 if (p == null) {
                     p = new Point(getWidth() / 2, getHeight() / 2);
@@ -131,7 +217,7 @@ public class GraphPanel extends JPanel {
             @Override
             public void actionPerformed(java.awt.event.ActionEvent e) {
                 java.util.List<Node> sel = getSelectedNodes();
-                if (!sel.isEmpty()) {
+                if (loader == null && !sel.isEmpty()) {
                     removeNodes(sel);
                 }
             }
@@ -158,11 +244,17 @@ public class GraphPanel extends JPanel {
         MouseAdapter handler = new MouseAdapter() {
             @Override
             public void mousePressed(MouseEvent e) {
+                // Each gesture is undone on its own
+                history.seal();
                 if (SwingUtilities.isMiddleMouseButton(e) || (spaceDown && SwingUtilities.isLeftMouseButton(e))) {
                     panStart = e.getPoint();
                     setCursor(Cursor.getPredefinedCursor(Cursor.MOVE_CURSOR));
                     return;
                 }
+                if (loader != null) {
+                    // The graph is read-only until loading completes
+                    return;
+                }
                 if (SwingUtilities.isLeftMouseButton(e)) {
                     int x = screenToWorldX(e.getX());
                     int y = screenToWorldY(e.getY());
@@ -177,7 +269,7 @@ public class GraphPanel extends JPanel {
                             edgeStart = editingEdge.getFrom();
                             tempEdgeNode = new Node(x, y, 0, "");
                             edgeTarget = null;
-                            repaint();
+                            repaintLayer();
                             return;
                         }
                     }
@@ -187,8 +279,9 @@ public class GraphPanel extends JPanel {
                             edgeStart = hit;
                             tempEdgeNode = new Node(x, y, 0, "");
                             edgeTarget = null;
-                            repaint();
+                            repaintLayer();
                         } else {
+                            Rectangle dirty = selectionBounds();
                             if (!selectedNodes.contains(hit) || selectedNodes.size() <= 1) {
                                 selectedNodes.clear();
                                 selectedNodes.add(hit);
@@ -211,10 +304,11 @@ public class GraphPanel extends JPanel {
                             }
                             selectedEdge = null;
                             fireNodeSelection(hit);
-                            repaint();
+                            repaintLayer(union(dirty, selectionBounds()));
                         }
                     } else {
                         Edge edgeHit = getEdgeAt(x, y);
+                        Rectangle dirty = selectionBounds();
                         if (edgeHit != null) {
                             selectedNodes.clear();
                             selectedNode = null;
@@ -225,7 +319,7 @@ public class GraphPanel extends JPanel {
                                 propertiesPanel.setNodes(java.util.Collections.emptyList());
                                 propertiesPanel.setEdge(selectedEdge);
                             }
-                            repaint();
+                            repaintLayer(union(dirty, selectionBounds()));
                         } else {
                             selectedNodes.clear();
                             selectedNode = null;
@@ -240,7 +334,7 @@ public class GraphPanel extends JPanel {
                                 propertiesPanel.setEdge(null);
                                 propertiesPanel.setNodes(selectedNodes);
                             }
-                            repaint();
+                            repaintLayer(dirty);
                         }
                     }
                 } else if (e.isPopupTrigger() || SwingUtilities.isRightMouseButton(e)) {
@@ -257,6 +351,7 @@ public class GraphPanel extends JPanel {
 
             @Override
             public void mouseReleased(MouseEvent e) {
+                history.seal();
                 if (panStart != null && (SwingUtilities.isMiddleMouseButton(e) || SwingUtilities.isLeftMouseButton(e))) {
                     panStart = null;
                     if (!spaceDown) {
@@ -269,10 +364,12 @@ public class GraphPanel extends JPanel {
                 if (editingEdge != null) {
                     Node hit = getNodeAt(x, y);
                     if (hit != null && hit != edgeStart) {
-                        editingEdge.setTo(hit);
+                        graph.beginUpdate();
+                        graph.setEdgeTarget(editingEdge, hit);
                         setSplineByExistingEdges(editingEdge);
+                        graph.endUpdate();
                     } else {
-                        edges.remove(editingEdge);
+                        graph.removeEdge(editingEdge);
                         if (editingEdge == selectedEdge) {
                             selectedEdge = null;
                             if (propertiesPanel != null) {
@@ -285,7 +382,7 @@ public class GraphPanel extends JPanel {
                     edgeStart = null;
                     tempEdgeNode = null;
                     edgeTarget = null;
-                    repaint();
+                    repaintLayer();
                 } else if (edgeStart != null) {
                     Node hit = getNodeAt(x, y);
                     if (hit != null && hit != edgeStart) {
@@ -294,8 +391,9 @@ public class GraphPanel extends JPanel {
                     edgeStart = null;
                     tempEdgeNode = null;
                     edgeTarget = null;
-                    repaint();
+                    repaintLayer();
                 } else if (selectionRect != null) {
+                    Rectangle dirty = selectionBounds();
                     selectedNodes.clear();
                     Rectangle r = selectionRect;
                     if (r.width < 0) {
@@ -304,18 +402,22 @@ public class GraphPanel extends JPanel {
                     if (r.height < 0) {
                         r = new Rectangle(r.x, r.y + r.height, r.width, -r.height);
                     }
-                    for (Node n : nodes) {
+                    for (Node n : graph.getNodesIn(r)) {
                         if (r.contains(n.getX(), n.getY())) {
                             selectedNodes.add(n);
                         }
                     }
-                    selectedNode = selectedNodes.size() == 1 ? selectedNodes.get(0) : null;
+                    selectedNode = selectedNodes.size() == 1 ? selectedNodes.first() : null;
                     if (propertiesPanel != null) {
                         propertiesPanel.setNodes(selectedNodes);
                     }
                     selectionStart = null;
                     selectionRect = null;
-                    repaint();
+                    // Also clear away the outline of the selection rectangle
+                    Rectangle outline = new Rectangle(r);
+                    outline.grow(STROKE_MARGIN, STROKE_MARGIN);
+                    repaintWorld(outline);
+                    repaintLayer(union(dirty, selectionBounds()));
                 } else {
                     if (e.isPopupTrigger()) {
                         Node hit = getNodeAt(x, y);
@@ -323,6 +425,7 @@ public class GraphPanel extends JPanel {
                     }
                     draggedNode = null;
                     dragStart.clear();
+                    stopMoving();
                 }
                 setHoveredNode(getNodeAt(x, y));
             }
@@ -342,24 +445,15 @@ public class GraphPanel extends JPanel {
                 int y = screenToWorldY(e.getY());
                 if (editingEdge != null) {
                     tempEdgeNode.setPosition(x, y);
-                    Node hit = getNodeAt(x, y);
-                    if (hit != null && hit != edgeStart) {
-                        edgeTarget = hit;
-                    } else {
-                        edgeTarget = null;
-                    }
-                    repaint();
+                    setEdgeTarget(getNodeAt(x, y));
                 } else if (edgeStart != null) {
                     tempEdgeNode.setPosition(x, y);
-                    Node hit = getNodeAt(x, y);
-                    if (hit != null && hit != edgeStart) {
-                        edgeTarget = hit;
-                    } else {
-                        edgeTarget = null;
-                    }
-                    repaint();
+                    setEdgeTarget(getNodeAt(x, y));
                 } else if (draggedNode != null) {
                     if (!draggedNode.isLocked()) {
+                        if (!moving) {
+                            startMoving();
+                        }
                         int dx = x - dragStartMouse.x;
                         int dy = y - dragStartMouse.y;
                         int moveX = dx;
@@ -371,6 +465,7 @@ public class GraphPanel extends JPanel {
                                 moveY = snapCoord(base.y + dy) - base.y;
                             }
                         }
+                        GraphModel.Batch batch = graph.beginBatch();
                         for (Node n : selectedNodes) {
                             if (!n.isLocked()) {
                                 Point start = dragStart.get(n);
@@ -378,16 +473,17 @@ public class GraphPanel extends JPanel {
                                     start = new Point(n.getX(), n.getY());
                                     dragStart.put(n, start);
                                 }
-                                n.setPosition(start.x + moveX, start.y + moveY);
+                                batch.moveNode(n, start.x + moveX, start.y + moveY);
                             }
                         }
+                        batch.commit();
                         if (propertiesPanel != null && selectedNodes.size() == 1) {
                             propertiesPanel.updatePositionFields();
                         }
-                        repaint();
                     } else {
                         draggedNode = null;
                         dragStart.clear();
+                        stopMoving();
                     }
                 } else if (selectionRect != null) {
                     selectionRect.width = x - selectionStart.x;
@@ -457,126 +553,47 @@ public class GraphPanel extends JPanel {
     }
 
     public void addNode(Node node) {
-        nodes.add(node);
+        graph.addNode(node);
     }
 
     /**
      * Get an immutable view of the nodes currently in the graph.
      */
     public List<Node> getNodes() {
-        return Collections.unmodifiableList(nodes);
+        return graph.getNodes();
     }
 
     /**
      * Get the current number of nodes in the graph.
      */
     public int getNodeCount() {
-        return nodes.size();
+        return graph.getNodes().size();
     }
 
     public void addEdge(Edge edge) {
         setSplineByExistingEdges(edge);
-        edges.add(edge);
+        graph.addEdge(edge);
     }
 
+    /** Curve the edge if an edge in the opposite direction exists. */
     private void setSplineByExistingEdges(Edge edge) {
-        boolean reverse = false;
-        for (Edge e : edges) {
-            if (e != edge && e.getFrom() == edge.getTo() && e.getTo() == edge.getFrom()) {
-                reverse = true;
-                break;
-            }
-        }
-        edge.setSplineType(reverse ? Edge.SplineType.BEZIER : Edge.SplineType.STRAIGHT);
+        Edge reverse = graph.findEdge(edge.getTo(), edge.getFrom());
+        edge.setSplineType(reverse != null && reverse != edge
+                ? Edge.SplineType.BEZIER : Edge.SplineType.STRAIGHT);
     }
 
     /**
      * Get the number of edges in the graph.
      */
     public int getEdgeCount() {
-        return edges.size();
+        return graph.getEdges().size();
     }
 
     /**
      * Find all directed cycles reachable from the provided start node.
      */
     public List<List<Edge>> findCyclesFrom(Node startNode) {
-        if (startNode == null || !nodes.contains(startNode)) {
-            return Collections.emptyList();
-        }
-        Map<Node, List<Edge>> adjacency = new HashMap<>();
-        for (Edge edge : edges) {
-            adjacency.computeIfAbsent(edge.getFrom(), k -> new ArrayList<>()).add(edge);
-        }
-        if (!adjacency.containsKey(startNode)) {
-            return Collections.emptyList();
-        }
-        List<List<Edge>> loops = new ArrayList<>();
-        List<Node> nodeStack = new ArrayList<>();
-        List<Edge> edgeStack = new ArrayList<>();
-        Set<Node> onStack = new HashSet<>();
-        Set<String> seenCycles = new HashSet<>();
-        findCyclesDepthFirst(startNode, adjacency, nodeStack, edgeStack,
-                onStack, seenCycles, loops);
-        return loops;
-    }
-
-    private void findCyclesDepthFirst(Node node, Map<Node, List<Edge>> adjacency,
-            List<Node> nodeStack, List<Edge> edgeStack, Set<Node> onStack,
-            Set<String> seenCycles, List<List<Edge>> loops) {
-        nodeStack.add(node);
-        onStack.add(node);
-        for (Edge edge : adjacency.getOrDefault(node, Collections.emptyList())) {
-            Node next = edge.getTo();
-            edgeStack.add(edge);
-            if (!onStack.contains(next)) {
-                findCyclesDepthFirst(next, adjacency, nodeStack, edgeStack,
-                        onStack, seenCycles, loops);
-            } else {
-                int idx = nodeStack.indexOf(next);
-                if (idx != -1) {
-                    List<Edge> cycle = new ArrayList<>();
-                    for (int i = idx; i < edgeStack.size(); i++) {
-                        cycle.add(edgeStack.get(i));
-                    }
-                    if (!cycle.isEmpty()) {
-                        String key = canonicalCycleKey(cycle);
-                        if (seenCycles.add(key)) {
-                            loops.add(new ArrayList<>(cycle));
-                        }
-                    }
-                }
-            }
-            edgeStack.remove(edgeStack.size() - 1);
-        }
-        nodeStack.remove(nodeStack.size() - 1);
-        onStack.remove(node);
-    }
-
-    private String canonicalCycleKey(List<Edge> cycle) {
-        if (cycle.isEmpty()) {
-            return "";
-        }
-        List<String> ids = new ArrayList<>();
-        for (Edge edge : cycle) {
-            ids.add(edge.getId());
-        }
-        int n = ids.size();
-        String best = null;
-        for (int i = 0; i < n; i++) {
-            StringBuilder sb = new StringBuilder();
-            for (int j = 0; j < n; j++) {
-                if (j > 0) {
-                    sb.append("->");
-                }
-                sb.append(ids.get((i + j) % n));
-            }
-            String candidate = sb.toString();
-            if (best == null || candidate.compareTo(best) < 0) {
-                best = candidate;
-            }
-        }
-        return best;
+        return GraphAnalysis.findCyclesFrom(graph, startNode, Integer.MAX_VALUE);
     }
 
     /**
@@ -584,6 +601,7 @@ public class GraphPanel extends JPanel {
      */
     public void setCycleAnalysis(List<List<Edge>> loops) {
         cycleAnalysisLoops.clear();
+        cycleAnalysisVersion = graph.getChangeCount();
         currentCycleIndex = -1;
         if (loops != null) {
             for (List<Edge> loop : loops) {
@@ -594,7 +612,38 @@ public class GraphPanel extends JPanel {
             currentCycleIndex = 0;
         }
         updateHighlightedEdges();
-        repaint();
+    }
+
+    /**
+     * Store cycles found in a snapshot of the graph and highlight the first.
+     * Each cycle is given by the identifiers of its edges, which are matched
+     * to the current graph; cycles that no longer exist because the graph
+     * changed since the snapshot are dropped.
+     */
+    public void setCycleAnalysis(GraphSnapshot.Result<List<List<UUID>>> result) {
+        List<List<Edge>> loops = new ArrayList<>();
+        for (List<UUID> cycle : result.getValue()) {
+            List<Edge> current = new ArrayList<>(cycle.size());
+            for (UUID id : cycle) {
+                Edge match = graph.getEdge(id);
+                if (match == null || (!current.isEmpty()
+                        && current.get(current.size() - 1).getTo() != match.getFrom())) {
+                    break;
+                }
+                current.add(match);
+            }
+            if (current.size() == cycle.size()
+                    && current.get(current.size() - 1).getTo() == current.get(0).getFrom()) {
+                loops.add(current);
+            }
+        }
+        setCycleAnalysis(loops);
+        cycleAnalysisVersion = result.getVersion();
+    }
+
+    /** Get the version of the graph the stored cycles were found in, or -1 if there are none. */
+    public long getCycleAnalysisVersion() {
+        return cycleAnalysisVersion;
     }
 
     /**
@@ -602,9 +651,9 @@ public class GraphPanel extends JPanel {
      */
     public void clearCycleAnalysis() {
         cycleAnalysisLoops.clear();
+        cycleAnalysisVersion = -1;
         currentCycleIndex = -1;
         updateHighlightedEdges();
-        repaint();
     }
 
     /**
@@ -618,7 +667,6 @@ public class GraphPanel extends JPanel {
                     Math.min(index, cycleAnalysisLoops.size() - 1));
         }
         updateHighlightedEdges();
-        repaint();
     }
 
     /**
@@ -642,34 +690,32 @@ public class GraphPanel extends JPanel {
         return Collections.unmodifiableList(cycleAnalysisLoops);
     }
 
+    /** Highlight the edges of the current cycle, repainting only the edges highlighted before and now. */
     private void updateHighlightedEdges() {
-        highlightedCycleEdgeIds.clear();
+        Rectangle dirty = drawnBounds(Collections.emptyList(), highlightedCycleEdges);
+        highlightedCycleEdges.clear();
         if (currentCycleIndex >= 0 && currentCycleIndex < cycleAnalysisLoops.size()) {
             for (Edge edge : cycleAnalysisLoops.get(currentCycleIndex)) {
-                highlightedCycleEdgeIds.add(edge.getId());
+                if (graph.contains(edge)) {
+                    highlightedCycleEdges.add(edge);
+                }
             }
         }
+        repaintLayer(union(dirty, drawnBounds(Collections.emptyList(), highlightedCycleEdges)));
     }
 
     /**
      * Remove a node and any edges that reference it.
      */
     public void removeNode(Node node) {
-        nodes.remove(node);
-        edges.removeIf(e -> {
-            if (e.getFrom() == node || e.getTo() == node) {
-                if (e == selectedEdge) {
-                    selectedEdge = null;
-                    if (propertiesPanel != null) {
-                        propertiesPanel.setEdge(null);
-                    }
+        List<Edge> removed = graph.removeNode(node);
+        if (removed != null) {
+            if (selectedEdge != null && removed.contains(selectedEdge)) {
+                selectedEdge = null;
+                if (propertiesPanel != null) {
+                    propertiesPanel.setEdge(null);
                 }
-                return true;
             }
-            return false;
-        });
-        if (startNode == node) {
-            startNode = null;
         }
         if (selectedNode == node) {
             selectedNode = null;
@@ -678,104 +724,44 @@ public class GraphPanel extends JPanel {
             }
         }
         selectedNodes.remove(node);
-        repaint();
     }
 
     /**
      * Return the topmost node at the given coordinates, or {@code null}.
      */
     private Node getNodeAt(int x, int y) {
-        for (int i = nodes.size() - 1; i >= 0; i--) {
-            Node n = nodes.get(i);
-            if (n.contains(x, y)) {
-                return n;
-            }
-        }
-        return null;
+        return graph.findNodeAt(x, y);
     }
 
     /**
      * Return the topmost edge that is near the given coordinates. The hitbox
-     * includes the entire curve rather than just the arrow head.
+     * includes the entire curve rather than just the arrow head. Only the
+     * edges whose bounds reach the point are tested.
      */
     private Edge getEdgeAt(int x, int y) {
-        final double threshold = 10.0;
+        final int threshold = 10;
+        List<Edge> edges = graph.getEdgesIn(
+                new Rectangle(x - threshold, y - threshold, 2 * threshold, 2 * threshold));
         for (int i = edges.size() - 1; i >= 0; i--) {
             Edge e = edges.get(i);
-            if (e.getSplineType() == Edge.SplineType.BEZIER) {
-                Point cp = bezierControlPoint(e.getFrom(), e.getTo(), e.getCurvature());
-                Point p1 = boundaryPoint(e.getFrom(), cp.x, cp.y);
-                Point p2 = boundaryPoint(e.getTo(), cp.x, cp.y);
-                if (bezierDistance(p1, cp, p2, x, y) <= threshold) {
-                    return e;
-                }
-            } else {
-                Point p1 = boundaryPoint(e.getFrom(), e.getTo());
-                Point p2 = boundaryPoint(e.getTo(), e.getFrom());
-                if (Line2D.ptSegDist(p1.x, p1.y, p2.x, p2.y, x, y) <= threshold) {
-                    return e;
-                }
+            if (EdgeGeometry.of(e).distance(x, y) <= threshold) {
+                return e;
             }
         }
         return null;
     }
 
-    private Point bezierControlPoint(Node from, Node to, float curvature) {
-        int x1 = from.getX();
-        int y1 = from.getY();
-        int x2 = to.getX();
-        int y2 = to.getY();
-
-        float midX = (x1 + x2) / 2f;
-        float midY = (y1 + y2) / 2f;
-        float dx = x2 - x1;
-        float dy = y2 - y1;
-        float dist = (float) Math.sqrt(dx * dx + dy * dy);
-        if (dist == 0) dist = 1f;
-        float nx = -dy / dist;
-        float ny = dx / dist;
-        float offset = curvature * dist;
-        int cx = Math.round(midX + nx * offset);
-        int cy = Math.round(midY + ny * offset);
-        return new Point(cx, cy);
-    }
-
-    /**
-     * Approximate the distance from a point to a quadratic bezier curve.
-     */
-    private double bezierDistance(Point p1, Point cp, Point p2, int x, int y) {
-        double min = Double.MAX_VALUE;
-        double prevX = p1.x;
-        double prevY = p1.y;
-        for (int i = 1; i <= 20; i++) {
-            double t = i / 20.0;
-            double it = 1 - t;
-            double bx = it * it * p1.x + 2 * it * t * cp.x + t * t * p2.x;
-            double by = it * it * p1.y + 2 * it * t * cp.y + t * t * p2.y;
-            double d = Line2D.ptSegDist(prevX, prevY, bx, by, x, y);
-            if (d < min) {
-                min = d;
-            }
-            prevX = bx;
-            prevY = by;
-        }
-        return min;
-    }
-
     public void setStartNode(Node node) {
-        this.startNode = node;
-        repaint();
+        graph.setStartNode(node);
     }
 
     /**
      * Remove all nodes and edges from the graph.
      */
     public void clearGraph() {
-        nodes.clear();
-        edges.clear();
-        startNode = null;
+        stopLoading();
+        bindGraph(new GraphModel());
         selectedNode = null;
-        selectedNodes.clear();
         selectedEdge = null;
         hoveredNode = null;
         draggedNode = null;
@@ -792,28 +778,144 @@ public class GraphPanel extends JPanel {
             propertiesPanel.setNodes(selectedNodes);
         }
         clearCycleAnalysis();
+        journal.start(null);
     }
 
     /**
      * Serialize the current graph to the specified file.
      */
     public void saveGraph(File file) throws IOException {
-        GraphIO.save(GraphIO.withExtension(file),
-                new GraphModel(nodes, edges, startNode));
+        File target = GraphIO.withExtension(file);
+        long mark = journal.mark();
+        GraphSnapshot snapshot = createSnapshot();
+        GraphIO.save(target, snapshot.toModel());
+        journal.rebase(target, mark);
+        graph.markSaved(snapshot.getVersion());
+    }
+
+    /**
+     * Capture the current graph so it can be saved, exported or analyzed on
+     * a background thread while editing continues.
+     */
+    public GraphSnapshot createSnapshot() {
+        return graph.snapshot();
     }
 
     /**
      * Load a graph from the given file, replacing the current contents.
      */
     public void loadGraph(File file) throws IOException, ClassNotFoundException {
-        GraphModel model = GraphIO.load(GraphIO.withExtension(file));
-        nodes.clear();
-        nodes.addAll(model.getNodes());
-        edges.clear();
-        edges.addAll(model.getEdges());
-        startNode = model.getStartNode();
+        File source = GraphIO.withExtension(file);
+        setGraph(GraphIO.load(source));
+        journal.start(source);
+        graph.markSaved(graph.getChangeCount());
+    }
+
+    /**
+     * Start loading a graph from the given file in the background, replacing
+     * the current contents. Outlines of nodes and edges appear as they are
+     * decoded and the graph can be edited once loading completes. Any load
+     * already in progress is cancelled.
+     */
+    public GraphLoadWorker openGraph(File file) {
+        setGraph(new GraphModel());
+        repaintLayer();
+        loader = new GraphLoadWorker(this, GraphIO.withExtension(file));
+        loader.execute();
+        return loader;
+    }
+
+    /** Check whether a background load is in progress. */
+    public boolean isLoading() {
+        return loader != null;
+    }
+
+    /**
+     * Add outlines decoded by the current load: the center and radius of
+     * each node and the endpoints of each edge.
+     */
+    void previewLoaded(GraphLoadWorker worker, int[] nodeOutlines, int[] edgeOutlines) {
+        if (worker != loader) {
+            return;
+        }
+        if (loadPreview == null) {
+            loadPreview = new Path2D.Float();
+        }
+        for (int i = 0; i < nodeOutlines.length; i += 3) {
+            int r = nodeOutlines[i + 2];
+            loadPreview.append(new Ellipse2D.Float(nodeOutlines[i] - r, nodeOutlines[i + 1] - r,
+                    2 * r, 2 * r), false);
+        }
+        for (int i = 0; i < edgeOutlines.length; i += 4) {
+            loadPreview.moveTo(edgeOutlines[i], edgeOutlines[i + 1]);
+            loadPreview.lineTo(edgeOutlines[i + 2], edgeOutlines[i + 3]);
+        }
+        repaint();
+    }
+
+    /** Start editing the model decoded by the current load and journaling edits to its file. */
+    void finishLoading(GraphLoadWorker worker, GraphModel model) {
+        if (worker != loader) {
+            return;
+        }
+        loader = null;
+        loadPreview = null;
+        // Keep the view the user may have adjusted while the outlines came in
+        bindGraph(model);
+        if (propertiesPanel != null) {
+            propertiesPanel.setNodes(selectedNodes);
+        }
+        graph.markSaved(graph.getChangeCount());
+        journal.start(worker.getFile());
+        repaintLayer();
+    }
+
+    /**
+     * Discard a partially loaded graph after the load was cancelled or failed.
+     *
+     * @return false if the worker had already been superseded
+     */
+    boolean abortLoading(GraphLoadWorker worker) {
+        if (worker != loader) {
+            return false;
+        }
+        clearGraph();
+        repaintLayer();
+        return true;
+    }
+
+    private void stopLoading() {
+        if (loader != null) {
+            loader.cancel(false);
+            loader = null;
+            loadPreview = null;
+        }
+    }
+
+    /**
+     * Replace the current graph with one imported from a DOT or GraphML file.
+     * The imported graph is treated as untitled.
+     */
+    public void importGraph(File file) throws IOException {
+        setGraph(GraphIO.importGraph(file));
+        journal.start(null);
+    }
+
+    /**
+     * Export the current graph to a DOT or GraphML file.
+     */
+    public void exportGraph(File file) throws IOException {
+        GraphIO.exportGraph(file, createSnapshot());
+    }
+
+    /**
+     * Replace the current contents with the given graph without touching the
+     * journal. The panel takes ownership of the model and edits it in place.
+     */
+    public void setGraph(GraphModel model) {
+        stopLoading();
+        bindGraph(model);
         selectedNode = null;
-        selectedNodes.clear();
         selectedEdge = null;
         hoveredNode = null;
         draggedNode = null;
@@ -832,6 +934,81 @@ public class GraphPanel extends JPanel {
         clearCycleAnalysis();
     }
 
+    /** Switch to editing another model with a new history, moving the listeners and the element sets to it. */
+    private void bindGraph(GraphModel model) {
+        graph.removeChangeListener(graphListener);
+        graph.removeChangeListener(journal);
+        history.dispose();
+        graph = model;
+        graph.addChangeListener(graphListener);
+        graph.addChangeListener(journal);
+        history = new EditHistory(graph);
+        selectedNodes = graph.newNodeSet();
+        highlightedCycleEdges = graph.newEdgeSet();
+        moving = false;
+        movingNodes = graph.newNodeSet();
+        movingEdges = graph.newEdgeSet();
+        movingArea = null;
+        layerValid = false;
+    }
+
+    /**
+     * Get the graph being edited. Changes made to it directly are recorded
+     * in the undo history and the journal like edits made through the panel.
+     */
+    public GraphModel getGraph() {
+        return graph;
+    }
+
+    /** Undo the most recent edit to the graph, if any. */
+    public void undo() {
+        if (loader == null) {
+            applyHistory(history.undo());
+        }
+    }
+
+    /** Redo the most recently undone edit, if any. */
+    public void redo() {
+        if (loader == null) {
+            applyHistory(history.redo());
+        }
+    }
+
+    public boolean canUndo() {
+        return loader == null && history.canUndo();
+    }
+
+    public boolean canRedo() {
+        return loader == null && history.canRedo();
+    }
+
+    /** Drop selections of elements removed by undo or redo. */
+    private void applyHistory(List<GraphChange> changes) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        if (selectedNode != null && !graph.contains(selectedNode)) {
+            selectedNode = null;
+        }
+        if (selectedEdge != null && !graph.contains(selectedEdge)) {
+            selectedEdge = null;
+        }
+        updateHighlightedEdges();
+        if (propertiesPanel != null) {
+            propertiesPanel.reload(selectedNodes, selectedEdge);
+        }
+    }
+
+    /** Check whether the graph has changed since it was opened or last saved. */
+    public boolean isModified() {
+        return graph.isModified();
+    }
+
+    /** Get the journal recording edits to this graph. */
+    public GraphJournal getJournal() {
+        return journal;
+    }
+
     /**
      * Reset the zoom and pan settings to their defaults.
      */
@@ -854,7 +1031,7 @@ public class GraphPanel extends JPanel {
      */
     public void setShowGrid(boolean show) {
         this.showGrid = show;
-        repaint();
+        repaintLayer();
     }
 
     /** Check whether node dragging snaps to the grid. */
@@ -867,56 +1044,379 @@ public class GraphPanel extends JPanel {
         this.snapToGrid = snap;
     }
 
+    /** Get the on-screen diameter in pixels below which nodes are drawn as plain squares. */
+    public int getNodeDetailSize() {
+        return nodeDetailSize;
+    }
+
+    /** Set the on-screen diameter in pixels below which nodes are drawn as plain squares. */
+    public void setNodeDetailSize(int pixels) {
+        nodeDetailSize = checkDetailSize(pixels);
+        repaintLayer();
+    }
+
+    /**
+     * Get the on-screen arrowhead length in pixels below which edges are drawn
+     * as plain lines without antialiasing.
+     */
+    public int getArrowDetailSize() {
+        return arrowDetailSize;
+    }
+
+    /**
+     * Set the on-screen arrowhead length in pixels below which edges are drawn
+     * as plain lines without antialiasing.
+     */
+    public void setArrowDetailSize(int pixels) {
+        arrowDetailSize = checkDetailSize(pixels);
+        repaintLayer();
+    }
+
+    /** Get the on-screen font size in pixels below which labels are not drawn. */
+    public int getLabelDetailSize() {
+        return labelDetailSize;
+    }
+
+    /** Set the on-screen font size in pixels below which labels are not drawn. */
+    public void setLabelDetailSize(int pixels) {
+        labelDetailSize = checkDetailSize(pixels);
+        repaintLayer();
+    }
+
+    private static int checkDetailSize(int pixels) {
+        if (pixels < 0) {
+            throw new IllegalArgumentException("Detail size must not be negative: " + pixels);
+        }
+        return pixels;
+    }
+
     @Override
     protected void paintComponent(Graphics g) {
         super.paintComponent(g);
         Graphics2D g2 = (Graphics2D) g;
+        AffineTransform device = g2.getTransform();
+        g2.drawImage(staticLayer(device.getScaleX(), device.getScaleY()),
+                0, 0, getWidth(), getHeight(), null);
+
+        // Draw what the current gesture is changing on top of the layer
+        Graphics2D screen = (Graphics2D) g2.create();
         g2.translate(translateX, translateY);
         g2.scale(scale, scale);
-        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        setDetailHints(g2);
+        Rectangle paintArea = paintArea(g2);
+        if (loadPreview != null) {
+            g2.setColor(Color.GRAY);
+            g2.draw(loadPreview);
+        }
+        if (moving) {
+            drawEdges(g2, movingEdges, paintArea, null);
+            drawNodes(g2, screen, movingNodes, null);
+        }
+        screen.dispose();
 
-        if (showGrid) {
-            int spacing = gridSpacing;
-            int majorSpacing = spacing * 5;
-            int left = screenToWorldX(0);
-            int right = screenToWorldX(getWidth());
-            int top = screenToWorldY(0);
-            int bottom = screenToWorldY(getHeight());
-
-            int startX = (int) (Math.floor(left / (double) spacing) * spacing);
-            int startY = (int) (Math.floor(top / (double) spacing) * spacing);
-
-            Stroke oldStroke = g2.getStroke();
-            g2.setStroke(new BasicStroke(0.5f));
-            Color minor = new Color(200, 200, 200, 80);
-            Color major = new Color(160, 160, 160, 120);
-
-            for (int x = startX; x <= right; x += spacing) {
-                if (x == 0) continue;
-                g2.setColor(x % majorSpacing == 0 ? major : minor);
-                g2.drawLine(x, top, x, bottom);
+        g2.setColor(Color.BLACK);
+        if ((edgeStart != null || editingEdge != null) && tempEdgeNode != null) {
+            drawArrow(g2, edgeStart, new Point(tempEdgeNode.getX(), tempEdgeNode.getY()));
+        }
+
+        if (selectionRect != null) {
+            Rectangle r = selectionRect;
+            if (r.width < 0) {
+                r = new Rectangle(r.x + r.width, r.y, -r.width, r.height);
             }
-            for (int y = startY; y <= bottom; y += spacing) {
-                if (y == 0) continue;
-                g2.setColor(y % majorSpacing == 0 ? major : minor);
-                g2.drawLine(left, y, right, y);
+            if (r.height < 0) {
+                r = new Rectangle(r.x, r.y + r.height, r.width, -r.height);
+            }
+            Stroke old = g2.getStroke();
+            g2.setColor(Color.GRAY);
+            float[] dash = {4f};
+            g2.setStroke(new BasicStroke(1f, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER, 10f, dash, 0f));
+            g2.drawRect(r.x, r.y, r.width, r.height);
+            g2.setStroke(old);
+        }
+    }
+
+    /**
+     * Repaint after the graph changed. While nodes are dragged only their old
+     * and new places are repainted; other changes render the layer again.
+     */
+    private void graphChanged(List<GraphChange> changes) {
+        if (onlyMoving(changes)) {
+            Rectangle area = drawnBounds(movingNodes, movingEdges);
+            repaintWorld(union(movingArea, area));
+            movingArea = area;
+        } else {
+            layerValid = false;
+            repaint();
+        }
+    }
+
+    /** Check whether changes only moved nodes drawn over the static layer. */
+    private boolean onlyMoving(List<GraphChange> changes) {
+        if (!moving) {
+            return false;
+        }
+        for (GraphChange c : changes) {
+            if (c.getType() != GraphChange.Type.NODE_MOVED || !movingNodes.contains(c.getNode())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Start drawing the unlocked selected nodes and their edges over the static layer. */
+    private void startMoving() {
+        movingNodes.clear();
+        movingEdges.clear();
+        for (Node n : selectedNodes) {
+            if (!n.isLocked()) {
+                movingNodes.add(n);
+                movingEdges.addAll(graph.getOutgoing(n));
+                movingEdges.addAll(graph.getIncoming(n));
             }
+        }
+        moving = true;
+        // Take them out of the layer; the overlay draws them in the same place
+        movingArea = drawnBounds(movingNodes, movingEdges);
+        repaintLayer(movingArea);
+    }
+
+    /** Put nodes moved by a drag back into the static layer. */
+    private void stopMoving() {
+        if (moving) {
+            Rectangle dirty = drawnBounds(movingNodes, movingEdges);
+            moving = false;
+            movingNodes.clear();
+            movingEdges.clear();
+            movingArea = null;
+            repaintLayer(dirty);
+        }
+    }
+
+    /** Mark the static layer out of date and repaint. */
+    private void repaintLayer() {
+        layerValid = false;
+        repaint();
+    }
+
+    /**
+     * Mark the part of the static layer showing a region of the world out of
+     * date and repaint just that part of the screen. The area already takes
+     * in {@link #PIXEL_MARGIN} for strokes and antialiasing at its edges.
+     *
+     * @param world region to repaint, or {@code null} for none
+     */
+    private void repaintLayer(Rectangle world) {
+        Rectangle area = toScreen(world);
+        if (area == null) {
+            return;
+        }
+        layerDamage = layerDamage == null ? area : layerDamage.union(area);
+        repaint(area);
+    }
+
+    /**
+     * Repaint the part of the screen showing a region of the world, leaving
+     * the static layer as it is.
+     *
+     * @param world region to repaint, or {@code null} for none
+     */
+    private void repaintWorld(Rectangle world) {
+        Rectangle area = toScreen(world);
+        if (area != null) {
+            repaint(area);
+        }
+    }
+
+    /**
+     * Get the part of the screen showing a region of the world, widened by
+     * {@link #PIXEL_MARGIN}, or {@code null} if none of it is on screen.
+     */
+    private Rectangle toScreen(Rectangle world) {
+        if (world == null) {
+            return null;
+        }
+        int x0 = (int) Math.floor(world.x * scale + translateX) - PIXEL_MARGIN;
+        int y0 = (int) Math.floor(world.y * scale + translateY) - PIXEL_MARGIN;
+        int x1 = (int) Math.ceil((world.x + (double) world.width) * scale + translateX) + PIXEL_MARGIN;
+        int y1 = (int) Math.ceil((world.y + (double) world.height) * scale + translateY) + PIXEL_MARGIN;
+        Rectangle area = new Rectangle(x0, y0, x1 - x0, y1 - y0)
+                .intersection(new Rectangle(0, 0, getWidth(), getHeight()));
+        return area.isEmpty() ? null : area;
+    }
+
+    /** Get the part of the world the selected nodes and edge are drawn over, or {@code null}. */
+    private Rectangle selectionBounds() {
+        return drawnBounds(selectedNodes, selectedEdge != null
+                ? Collections.singletonList(selectedEdge) : Collections.emptyList());
+    }
+
+    /** Get the part of the world nodes and edges are drawn over, or {@code null} if there are none. */
+    private Rectangle drawnBounds(Iterable<Node> nodes, Iterable<Edge> edges) {
+        Rectangle bounds = null;
+        for (Node n : nodes) {
+            bounds = union(bounds, drawnBounds(n));
+        }
+        for (Edge e : edges) {
+            bounds = union(bounds, drawnBounds(e));
+        }
+        return bounds;
+    }
+
+    /** Get the part of the world a node and its label are drawn over, or {@code null} for no node. */
+    private Rectangle drawnBounds(Node n) {
+        if (n == null) {
+            return null;
+        }
+        int r = n.getRadius();
+        Rectangle bounds = new Rectangle(n.getX() - r, n.getY() - r, 2 * r, 2 * r);
+        String label = n.getLabel();
+        if (label != null && !label.isEmpty() && getFont() != null) {
+            // Leave a line height of slack for text drawn wider when zoomed
+            FontMetrics fm = getFontMetrics(getFont());
+            int width = fm.stringWidth(label) + fm.getHeight();
+            bounds.add(new Rectangle(n.getX() - width / 2, n.getY() - fm.getHeight(),
+                    width, 2 * fm.getHeight()));
+        }
+        bounds.grow(STROKE_MARGIN, STROKE_MARGIN);
+        return bounds;
+    }
+
+    /** Get the part of the world an edge, its arrowhead and its text are drawn over. */
+    private Rectangle drawnBounds(Edge e) {
+        EdgeGeometry geometry = EdgeGeometry.of(e);
+        Rectangle bounds = geometry.shape.getBounds();
+        bounds.add(geometry.arrowHead.getBounds());
+        String text = e.getText();
+        if (text != null && !text.isEmpty() && getFont() != null) {
+            LabelLayout layout = labelLayouts.of(e, getFont(), this::getFontMetrics,
+                    EDGE_TEXT_WRAP_WIDTH);
+            // The box drawn around the text, with a line height of slack
+            int width = layout.width + 4 + layout.lineHeight;
+            int top = geometry.labelAnchor.y - 4 - layout.height / 2 - 2;
+            bounds.add(new Rectangle(geometry.labelAnchor.x - width / 2, top,
+                    width, layout.height + 4));
+        }
+        bounds.grow(STROKE_MARGIN, STROKE_MARGIN);
+        return bounds;
+    }
+
+    /** Get the smallest rectangle holding two rectangles, either of which may be {@code null}. */
+    private static Rectangle union(Rectangle a, Rectangle b) {
+        if (a == null) {
+            return b;
+        }
+        return b == null ? a : a.union(b);
+    }
+
+    /**
+     * Get the layer holding the grid and everything the current gesture is
+     * not moving, rendering it again if the view or its contents changed.
+     *
+     * @param deviceScaleX pixels per unit of the screen, above 1 on high resolution displays
+     * @param deviceScaleY pixels per unit of the screen vertically
+     */
+    private BufferedImage staticLayer(double deviceScaleX, double deviceScaleY) {
+        int w = Math.max(1, (int) Math.ceil(getWidth() * deviceScaleX));
+        int h = Math.max(1, (int) Math.ceil(getHeight() * deviceScaleY));
+        if (layer == null || layer.getWidth() != w || layer.getHeight() != h) {
+            GraphicsConfiguration gc = getGraphicsConfiguration();
+            layer = gc != null ? gc.createCompatibleImage(w, h)
+                    : new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+            layerValid = false;
+        }
+        AffineTransform view = AffineTransform.getScaleInstance(deviceScaleX, deviceScaleY);
+        view.translate(translateX, translateY);
+        view.scale(scale, scale);
+        if (!layerValid || !view.equals(layerView)) {
+            renderLayer(deviceScaleX, deviceScaleY, null);
+            layerView = view;
+            layerValid = true;
+        } else if (layerDamage != null) {
+            renderLayer(deviceScaleX, deviceScaleY, layerDamage);
+        }
+        layerDamage = null;
+        return layer;
+    }
 
-            g2.setStroke(new BasicStroke(1f));
-            g2.setColor(new Color(255, 0, 0, 150));
-            g2.drawLine(left, 0, right, 0);
-            g2.setColor(new Color(0, 0, 255, 150));
-            g2.drawLine(0, top, 0, bottom);
-            g2.setStroke(oldStroke);
+    /**
+     * Render the grid and everything the current gesture is not moving into
+     * {@link #layer}, over the whole screen or only part of it. Rendering
+     * part of the screen only draws what lies near it, so the cost depends on
+     * how much of the graph is there rather than on the size of the graph.
+     *
+     * @param deviceScaleX pixels of the layer per unit of the screen
+     * @param deviceScaleY pixels of the layer per unit of the screen vertically
+     * @param area part of the screen to render, or {@code null} for all of it
+     */
+    private void renderLayer(double deviceScaleX, double deviceScaleY, Rectangle area) {
+        Graphics2D lg = layer.createGraphics();
+        if (!showGrid && area == null) {
+            lg.setColor(getBackground());
+            lg.fillRect(0, 0, layer.getWidth(), layer.getHeight());
+        }
+        lg.scale(deviceScaleX, deviceScaleY);
+        lg.setClip(0, 0, getWidth(), getHeight());
+        if (getFont() != null) {
+            lg.setFont(getFont());
         }
+        Graphics2D screen = (Graphics2D) lg.create();
+        lg.translate(translateX, translateY);
+        lg.scale(scale, scale);
+        setDetailHints(lg);
+        // The grid is placed by what the whole screen shows, so that
+        // rendering part of it lines up with the rest
+        Rectangle visible = visibleWorld(lg);
+        if (area != null) {
+            screen.clip(area);
+            lg.clip(new Rectangle2D.Double((area.x - translateX) / scale,
+                    (area.y - translateY) / scale, area.width / scale, area.height / scale));
+            if (!showGrid) {
+                screen.setColor(getBackground());
+                screen.fill(area);
+            }
+        }
+        if (showGrid) {
+            grid.paint(lg, visible, gridSpacing, getBackground());
+        }
+        Rectangle paintArea = paintArea(lg);
+        drawEdges(lg, graph.getEdgesIn(paintArea), paintArea, moving ? movingEdges : null);
+        drawNodes(lg, screen, graph.getNodesIn(paintArea), moving ? movingNodes : null);
+        screen.dispose();
+        lg.dispose();
+    }
+
+    /** Turn antialiasing off once shapes are too small on screen to benefit. */
+    private void setDetailHints(Graphics2D g2) {
+        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, EdgeGeometry.BARB * scale >= arrowDetailSize
+                ? RenderingHints.VALUE_ANTIALIAS_ON : RenderingHints.VALUE_ANTIALIAS_OFF);
+    }
+
+    /**
+     * Get the part of the world worth painting through a graphics context in
+     * world coordinates: what shows through its clip, widened by
+     * {@link #PAINT_MARGIN}.
+     */
+    private Rectangle paintArea(Graphics2D g2) {
+        Rectangle paintArea = new Rectangle(visibleWorld(g2));
+        paintArea.grow(PAINT_MARGIN, PAINT_MARGIN);
+        return paintArea;
+    }
 
-        // Draw edges first
+    /**
+     * Draw edges with their text, leaving out the edge being re-targeted and
+     * any in {@code skip}.
+     */
+    private void drawEdges(Graphics2D g2, Iterable<Edge> edges, Rectangle paintArea, ElementSet<Edge> skip) {
+        // Choose what is large enough on screen to be worth drawing
+        boolean arrows = EdgeGeometry.BARB * scale >= arrowDetailSize;
+        boolean labels = g2.getFont().getSize2D() * scale >= labelDetailSize;
         g2.setColor(Color.BLACK);
         for (Edge e : edges) {
-            if (e != editingEdge) {
+            if (e != editingEdge && (skip == null || !skip.contains(e))) {
                 Stroke oldStroke = g2.getStroke();
                 Color oldColor = g2.getColor();
-                if (highlightedCycleEdgeIds.contains(e.getId())) {
+                if (highlightedCycleEdges.contains(e)) {
                     g2.setColor(Color.MAGENTA);
                     g2.setStroke(new BasicStroke(3f));
                 } else if (e == selectedEdge) {
@@ -925,46 +1425,58 @@ public class GraphPanel extends JPanel {
                 } else {
                     g2.setColor(Color.BLACK);
                 }
-                drawArrow(g2, e);
-                drawEdgeText(g2, e);
+                drawArrow(g2, e, arrows);
+                if (labels && paintArea.contains(EdgeGeometry.of(e).labelAnchor)) {
+                    drawEdgeText(g2, e);
+                }
                 g2.setStroke(oldStroke);
                 g2.setColor(oldColor);
             }
         }
-        if ((edgeStart != null || editingEdge != null) && tempEdgeNode != null) {
-            drawArrow(g2, edgeStart, new Point(tempEdgeNode.getX(), tempEdgeNode.getY()));
-        }
+    }
 
-        // Draw nodes on top
+    /**
+     * Draw nodes, leaving out any in {@code skip}. Nodes too small to show
+     * their outline are drawn as squares on {@code screen}, a graphics
+     * context in screen coordinates.
+     */
+    private void drawNodes(Graphics2D g2, Graphics2D screen, Iterable<Node> nodes, ElementSet<Node> skip) {
+        boolean labels = g2.getFont().getSize2D() * scale >= labelDetailSize;
         for (Node n : nodes) {
-            drawNode(g2, n);
-        }
-
-        if (selectionRect != null) {
-            Rectangle r = selectionRect;
-            if (r.width < 0) {
-                r = new Rectangle(r.x + r.width, r.y, -r.width, r.height);
+            if (skip != null && skip.contains(n)) {
+                continue;
             }
-            if (r.height < 0) {
-                r = new Rectangle(r.x, r.y + r.height, r.width, -r.height);
+            if (2 * n.getRadius() * scale >= nodeDetailSize) {
+                drawNode(g2, n, labels);
+            } else {
+                drawNodeSquare(screen, n);
             }
-            Stroke old = g2.getStroke();
-            g2.setColor(Color.GRAY);
-            float[] dash = {4f};
-            g2.setStroke(new BasicStroke(1f, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER, 10f, dash, 0f));
-            g2.drawRect(r.x, r.y, r.width, r.height);
-            g2.setStroke(old);
         }
     }
 
-    private void drawNode(Graphics2D g2, Node n) {
+    /**
+     * Get the part of the world showing through the clip of a graphics
+     * context already transformed to world coordinates.
+     */
+    private Rectangle visibleWorld(Graphics2D g2) {
+        Rectangle clip = g2.getClipBounds();
+        if (clip != null) {
+            return clip;
+        }
+        int left = screenToWorldX(0);
+        int top = screenToWorldY(0);
+        return new Rectangle(left, top, screenToWorldX(getWidth()) - left,
+                screenToWorldY(getHeight()) - top);
+    }
+
+    private void drawNode(Graphics2D g2, Node n, boolean label) {
         int r = n.getRadius();
         int x = n.getX() - r;
         int y = n.getY() - r;
-        if (n == startNode) {
+        if (n == graph.getStartNode()) {
             g2.setColor(new Color(144, 238, 144)); // light green
         } else {
-            g2.setColor(n.getColor());
+            g2.setColor(fillOf(n));
         }
         g2.fillOval(x, y, 2 * r, 2 * r);
         Stroke oldStroke = g2.getStroke();
@@ -982,6 +1494,9 @@ public class GraphPanel extends JPanel {
         }
         g2.drawOval(x, y, 2 * r, 2 * r);
         g2.setStroke(oldStroke);
+        if (!label) {
+            return;
+        }
         // Draw label centered
         FontMetrics fm = g2.getFontMetrics();
         int textWidth = fm.stringWidth(n.getLabel());
@@ -989,94 +1504,49 @@ public class GraphPanel extends JPanel {
         g2.drawString(n.getLabel(), n.getX() - textWidth / 2, n.getY() + textHeight / 2);
     }
 
-    private void drawArrow(Graphics2D g2, Edge edge) {
-        if (edge.getSplineType() == Edge.SplineType.BEZIER) {
-            drawBezierArrow(g2, edge.getFrom(), edge.getTo(), edge.getCurvature());
+    /**
+     * Draw a node too small to show its outline and label as a square of at
+     * least one pixel, on a graphics context in screen coordinates.
+     */
+    private void drawNodeSquare(Graphics2D screen, Node n) {
+        if (selectedNodes.contains(n)) {
+            screen.setColor(Color.RED);
+        } else if (n == graph.getStartNode()) {
+            screen.setColor(new Color(144, 238, 144)); // light green
         } else {
-            drawArrow(g2, edge.getFrom(), edge.getTo());
+            screen.setColor(fillOf(n));
         }
+        int size = Math.max(1, (int) Math.round(2 * n.getRadius() * scale));
+        int x = (int) Math.floor(n.getX() * scale + translateX) - size / 2;
+        int y = (int) Math.floor(n.getY() * scale + translateY) - size / 2;
+        screen.fillRect(x, y, size, size);
     }
 
-    private void drawArrow(Graphics2D g2, Node from, Node to) {
-        Point p1 = boundaryPoint(from, to);
-        Point p2 = boundaryPoint(to, from);
-        g2.drawLine(p1.x, p1.y, p2.x, p2.y);
-        drawArrowHead(g2, p1, p2);
+    /**
+     * Get the fill color of a node, reusing the color of the node drawn
+     * before it when they match, as they mostly do.
+     */
+    private Color fillOf(Node n) {
+        int argb = n.getArgb();
+        if (lastFill == null || lastFill.getRGB() != argb) {
+            lastFill = new Color(argb, true);
+        }
+        return lastFill;
+    }
+
+    private void drawArrow(Graphics2D g2, Edge edge, boolean arrowHead) {
+        EdgeGeometry geometry = EdgeGeometry.of(edge);
+        g2.draw(geometry.shape);
+        if (arrowHead) {
+            g2.draw(geometry.arrowHead);
+        }
     }
 
     private void drawArrow(Graphics2D g2, Node from, Point to) {
-        Point p1 = boundaryPoint(from, to.x, to.y);
+        Point p1 = EdgeGeometry.boundaryPoint(from, to.x, to.y);
         Point p2 = new Point(to.x, to.y);
         g2.drawLine(p1.x, p1.y, p2.x, p2.y);
-        drawArrowHead(g2, p1, p2);
-    }
-
-    private void drawBezierArrow(Graphics2D g2, Node from, Node to, float curvature) {
-        // compute control point using node centres so connection points can
-        // depend on the curvature
-        int x1 = from.getX();
-        int y1 = from.getY();
-        int x2 = to.getX();
-        int y2 = to.getY();
-
-        float midX = (x1 + x2) / 2f;
-        float midY = (y1 + y2) / 2f;
-        float dx = x2 - x1;
-        float dy = y2 - y1;
-        float dist = (float) Math.sqrt(dx * dx + dy * dy);
-        if (dist == 0) dist = 1f;
-        float nx = -dy / dist;
-        float ny = dx / dist;
-        float offset = curvature * dist;
-        float cx = midX + nx * offset;
-        float cy = midY + ny * offset;
-
-        // determine boundary points relative to the control point so that the
-        // curve attaches to the node slightly above or below the middle
-        Point p1 = boundaryPoint(from, (int) cx, (int) cy);
-        Point p2 = boundaryPoint(to, (int) cx, (int) cy);
-
-        QuadCurve2D.Float curve = new QuadCurve2D.Float(p1.x, p1.y, cx, cy, p2.x, p2.y);
-        g2.draw(curve);
-
-        // orientation for arrow head along tangent at the end
-        double tx = p2.x - cx;
-        double ty = p2.y - cy;
-        double len = Math.sqrt(tx * tx + ty * ty);
-        if (len == 0) len = 1;
-        Point base = new Point((int) Math.round(p2.x - tx / len * 1), (int) Math.round(p2.y - ty / len * 1));
-        drawArrowHead(g2, base, p2);
-    }
-
-    private Point boundaryPoint(Node from, Node to) {
-        return boundaryPoint(from, to.getX(), to.getY());
-    }
-
-    private Point boundaryPoint(Node from, int toX, int toY) {
-        double dx = toX - from.getX();
-        double dy = toY - from.getY();
-        double dist = Math.sqrt(dx * dx + dy * dy);
-        if (dist == 0) {
-            return new Point(from.getX(), from.getY());
-        }
-        double ratio = from.getRadius() / dist;
-        int x = (int) Math.round(from.getX() + dx * ratio);
-        int y = (int) Math.round(from.getY() + dy * ratio);
-        return new Point(x, y);
-    }
-
-    private void drawArrowHead(Graphics2D g2, Point from, Point to) {
-        final int barb = 10;
-        final double phi = Math.toRadians(40);
-        double dy = to.y - from.y;
-        double dx = to.x - from.x;
-        double theta = Math.atan2(dy, dx);
-        for (int j = 0; j < 2; j++) {
-            double rho = theta + phi - j * 2 * phi;
-            double x = to.x - barb * Math.cos(rho);
-            double y = to.y - barb * Math.sin(rho);
-            g2.draw(new Line2D.Double(to.x, to.y, x, y));
-        }
+        g2.draw(EdgeGeometry.arrowHead(p1, p2));
     }
 
     /** Draw any text associated with the given edge near its midpoint. */
@@ -1086,30 +1556,13 @@ public class GraphPanel extends JPanel {
             return;
         }
 
-        Point pos;
-        if (edge.getSplineType() == Edge.SplineType.BEZIER) {
-            Point cp = bezierControlPoint(edge.getFrom(), edge.getTo(), edge.getCurvature());
-            Point p1 = boundaryPoint(edge.getFrom(), cp.x, cp.y);
-            Point p2 = boundaryPoint(edge.getTo(), cp.x, cp.y);
-            double mx = 0.25 * p1.x + 0.5 * cp.x + 0.25 * p2.x;
-            double my = 0.25 * p1.y + 0.5 * cp.y + 0.25 * p2.y;
-            pos = new Point((int) Math.round(mx), (int) Math.round(my));
-        } else {
-            Point p1 = boundaryPoint(edge.getFrom(), edge.getTo());
-            Point p2 = boundaryPoint(edge.getTo(), edge.getFrom());
-            pos = new Point((p1.x + p2.x) / 2, (p1.y + p2.y) / 2);
-        }
+        Point pos = EdgeGeometry.of(edge).labelAnchor;
 
-        FontMetrics fm = g2.getFontMetrics();
-        java.util.List<String> lines = wrapText(fm, text, EDGE_TEXT_WRAP_WIDTH);
-        int ascent = fm.getAscent();
-        int descent = fm.getDescent();
-        int lineHeight = ascent + descent;
-        int textHeight = lineHeight * lines.size();
-        int textWidth = 0;
-        for (String line : lines) {
-            textWidth = Math.max(textWidth, fm.stringWidth(line));
-        }
+        // Measured unscaled, so a label wraps the same way at every zoom level
+        LabelLayout layout = labelLayouts.of(edge, g2.getFont(), this::getFontMetrics,
+                EDGE_TEXT_WRAP_WIDTH);
+        int textHeight = layout.height;
+        int textWidth = layout.width;
 
         int centerY = pos.y - 4;
         int top = centerY - textHeight / 2;
@@ -1121,69 +1574,15 @@ public class GraphPanel extends JPanel {
         g2.setColor(Color.BLACK);
         g2.drawRect(x - 2, top - 2, textWidth + 4, textHeight + 4);
 
-        int baseline = top + ascent;
-        for (String line : lines) {
-            int lineWidth = fm.stringWidth(line);
-            g2.drawString(line, pos.x - lineWidth / 2, baseline);
-            baseline += lineHeight;
+        int baseline = top + layout.ascent;
+        for (int i = 0; i < layout.lines.length; i++) {
+            g2.drawString(layout.lines[i], pos.x - layout.lineWidths[i] / 2, baseline);
+            baseline += layout.lineHeight;
         }
 
         g2.setColor(prev);
     }
 
-    /**
-     * Break the given text into multiple lines so each line fits within the specified width.
-     */
-    private static java.util.List<String> wrapText(FontMetrics fm, String text, int maxWidth) {
-        java.util.List<String> lines = new java.util.ArrayList<>();
-        if (text == null || text.isEmpty()) {
-            return lines;
-        }
-        String[] words = text.split("\\s+");
-        StringBuilder line = new StringBuilder();
-        for (String word : words) {
-            if (line.length() == 0) {
-                if (fm.stringWidth(word) <= maxWidth) {
-                    line.append(word);
-                } else {
-                    splitWord(lines, fm, word, maxWidth);
-                }
-                continue;
-            }
-
-            String candidate = line + " " + word;
-            if (fm.stringWidth(candidate) <= maxWidth) {
-                line.append(' ').append(word);
-            } else {
-                lines.add(line.toString());
-                line.setLength(0);
-                if (fm.stringWidth(word) <= maxWidth) {
-                    line.append(word);
-                } else {
-                    splitWord(lines, fm, word, maxWidth);
-                }
-            }
-        }
-        if (line.length() > 0) {
-            lines.add(line.toString());
-        }
-        return lines;
-    }
-
-    /** Break a long word into multiple lines. */
-    private static void splitWord(java.util.List<String> lines, FontMetrics fm, String word, int maxWidth) {
-        int start = 0;
-        while (start < word.length()) {
-            int end = start + 1;
-            while (end <= word.length() && fm.stringWidth(word.substring(start, end)) <= maxWidth) {
-                end++;
-            }
-            end--;
-            lines.add(word.substring(start, end));
-            start = end;
-        }
-    }
-
     /**
      * Get a snapshot of the currently selected nodes.
      */
@@ -1192,13 +1591,18 @@ public class GraphPanel extends JPanel {
     }
 
     /**
-     * Remove multiple nodes at once. A copy of the input list is used
-     * so callers can pass {@link #getSelectedNodes()} directly.
+     * Remove multiple nodes at once in a single batch, skipping any not in
+     * the graph. The list is read before anything is removed, so it may be
+     * a view of the selection.
      */
     public void removeNodes(java.util.List<Node> nodesToRemove) {
-        for (Node n : new java.util.ArrayList<>(nodesToRemove)) {
-            removeNode(n);
+        GraphModel.Batch batch = graph.beginBatch();
+        for (Node n : nodesToRemove) {
+            if (graph.contains(n)) {
+                batch.removeNode(n);
+            }
         }
+        batch.commit();
         clearSelection();
     }
 
@@ -1206,17 +1610,18 @@ public class GraphPanel extends JPanel {
      * Clear the current selection and update the properties panel.
      */
     public void clearSelection() {
+        Rectangle dirty = selectionBounds();
         selectedNode = null;
         selectedNodes.clear();
         selectedEdge = null;
         if (propertiesPanel != null) {
             propertiesPanel.setNodes(selectedNodes);
         }
-        repaint();
+        repaintLayer(dirty);
     }
 
     /** Copy the given nodes and any connecting edges to the internal clipboard. */
-    private void copyNodes(java.util.List<Node> nodesToCopy) {
+    private void copyNodes(java.util.Collection<Node> nodesToCopy) {
         clipboardNodes.clear();
         clipboardEdges.clear();
         if (nodesToCopy.isEmpty()) {
@@ -1234,12 +1639,14 @@ public class GraphPanel extends JPanel {
         }
         clipboardCenterX = Math.round((float) sumX / nodesToCopy.size());
         clipboardCenterY = Math.round((float) sumY / nodesToCopy.size());
-        for (Edge e : edges) {
-            if (map.containsKey(e.getFrom()) && map.containsKey(e.getTo())) {
-                Edge ec = new Edge(map.get(e.getFrom()), map.get(e.getTo()), e.getSplineType());
-                ec.setCurvature(e.getCurvature());
-                ec.setText(e.getText());
-                clipboardEdges.add(ec);
+        for (Node n : nodesToCopy) {
+            for (Edge e : graph.getOutgoing(n)) {
+                if (map.containsKey(e.getTo())) {
+                    Edge ec = new Edge(map.get(e.getFrom()), map.get(e.getTo()), e.getSplineType());
+                    ec.setCurvature(e.getCurvature());
+                    ec.setText(e.getText());
+                    clipboardEdges.add(ec);
+                }
             }
         }
     }
@@ -1270,11 +1677,12 @@ public class GraphPanel extends JPanel {
         }
         int dx = x - clipboardCenterX;
         int dy = y - clipboardCenterY;
-        java.util.Map<Node, Node> map = new java.util.HashMap<>();
+        java.util.Map<Node, Node> map = new java.util.LinkedHashMap<>();
+        GraphModel.Batch batch = graph.beginBatch();
         for (Node n : clipboardNodes) {
             Node c = cloneNode(n);
             c.moveBy(dx, dy);
-            nodes.add(c);
+            batch.addNode(c);
             map.put(n, c);
         }
         for (Edge e : clipboardEdges) {
@@ -1284,16 +1692,17 @@ public class GraphPanel extends JPanel {
                 Edge ec = new Edge(from, to, e.getSplineType());
                 ec.setCurvature(e.getCurvature());
                 ec.setText(e.getText());
-                edges.add(ec);
+                batch.addEdge(ec);
             }
         }
+        batch.commit();
         selectedNodes.clear();
         selectedNodes.addAll(map.values());
-        selectedNode = selectedNodes.size() == 1 ? selectedNodes.get(0) : null;
+        selectedNode = selectedNodes.size() == 1 ? selectedNodes.first() : null;
         if (propertiesPanel != null) {
             propertiesPanel.setNodes(selectedNodes);
         }
-        repaint();
+        repaintLayer();
     }
 
     /** Check if the clipboard currently contains nodes. */
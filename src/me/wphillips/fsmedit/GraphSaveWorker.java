@@ -0,0 +1,117 @@
+package me.wphillips.fsmedit;
+
+import javax.swing.*;
+import java.awt.Component;
+import java.io.File;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Writes a graph snapshot to disk on a background thread while a
+ * {@link ProgressMonitor} reports progress. The editor stays interactive for
+ * the duration of the save and cancelling leaves the target file untouched.
+ */
+public class GraphSaveWorker extends SwingWorker<Void, Void> {
+    private final Component parent;
+    private final File file;
+    private final GraphSnapshot snapshot;
+    private final GraphIO.Format format;
+    private final Runnable onSuccess;
+    private final ProgressMonitor monitor;
+
+    /**
+     * @param parent component used to position dialogs
+     * @param file destination file
+     * @param snapshot snapshot of the graph to write
+     * @param format format to write
+     * @param onSuccess optional action run on the event thread after a successful save
+     */
+    public GraphSaveWorker(Component parent, File file, GraphSnapshot snapshot,
+            GraphIO.Format format, Runnable onSuccess) {
+        this.parent = parent;
+        this.file = file;
+        this.snapshot = snapshot;
+        this.format = format;
+        this.onSuccess = onSuccess;
+        monitor = new ProgressMonitor(parent, "Saving " + file.getName(), null, 0, 100);
+        monitor.setMillisToDecideToPopup(250);
+        addPropertyChangeListener(evt -> {
+            if ("progress".equals(evt.getPropertyName())) {
+                monitor.setProgress((Integer) evt.getNewValue());
+                if (monitor.isCanceled()) {
+                    cancel(false);
+                }
+            }
+        });
+    }
+
+    /**
+     * Take a snapshot of the panel's graph and save it in the background.
+     * Once the save succeeds the journal is rebased onto the saved file and
+     * the graph is marked as saved up to the snapshot.
+     */
+    public static void save(GraphPanel panel, File file, GraphIO.Format format,
+            Runnable onSuccess) {
+        if (panel.isLoading()) {
+            JOptionPane.showMessageDialog(panel,
+                    "The graph is still being opened. Save once it has finished loading.",
+                    "Graph Loading", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        File target = GraphIO.withExtension(file);
+        GraphJournal journal = panel.getJournal();
+        long mark = journal.mark();
+        GraphModel graph = panel.getGraph();
+        GraphSnapshot snapshot = panel.createSnapshot();
+        new GraphSaveWorker(panel, target, snapshot, format, () -> {
+            journal.rebase(target, mark);
+            graph.markSaved(snapshot.getVersion());
+            if (onSuccess != null) {
+                onSuccess.run();
+            }
+        }).execute();
+    }
+
+    @Override
+    protected Void doInBackground() throws Exception {
+        GraphIO.save(file, snapshot.toModel(), format, new GraphIO.ProgressListener() {
+            @Override
+            public void progress(long done, long total) throws InterruptedIOException {
+                checkCancelled();
+                setProgress(total == 0 ? 100 : (int) (done * 100 / total));
+            }
+
+            @Override
+            public void replacing() throws InterruptedIOException {
+                // A cancel after the last record must still keep the target
+                checkCancelled();
+            }
+        });
+        return null;
+    }
+
+    private void checkCancelled() throws InterruptedIOException {
+        if (isCancelled()) {
+            throw new InterruptedIOException("Save cancelled");
+        }
+    }
+
+    @Override
+    protected void done() {
+        monitor.close();
+        try {
+            get();
+            if (onSuccess != null) {
+                onSuccess.run();
+            }
+        } catch (CancellationException | InterruptedException ex) {
+            // The temporary file has already been removed
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+            JOptionPane.showMessageDialog(parent,
+                    "Failed to save file: " + cause.getMessage(),
+                    "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package me.wphillips.fsmedit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Immutable copy of the state of a {@link GraphModel} at one version, taken
+ * with {@link GraphModel#snapshot()}. A snapshot can be read from any thread
+ * while the model keeps being edited, so saves, exports and analyses run in
+ * the background without racing the event thread.
+ * <p>
+ * Nodes and edges are stored in fixed-size chunks of primitive arrays. A new
+ * snapshot shares every chunk in which nothing changed since the previous
+ * one, so taking a snapshot after a local edit copies a few chunks rather
+ * than the whole graph.
+ */
+public final class GraphSnapshot {
+    /** Number of elements per chunk, as a power of two. */
+    static final int CHUNK_SHIFT = 10;
+    static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+    private final long version;
+    private final int nodeCount;
+    private final int edgeCount;
+    private final NodeChunk[] nodes;
+    private final EdgeChunk[] edges;
+    private final int startNode;
+
+    /** Value computed from a snapshot, tagged with the version it was computed from. */
+    public static final class Result<T> {
+        private final T value;
+        private final long version;
+
+        Result(T value, long version) {
+            this.value = value;
+            this.version = version;
+        }
+
+        public T getValue() {
+            return value;
+        }
+
+        /** Get the version of the graph the value was computed from. */
+        public long getVersion() {
+            return version;
+        }
+    }
+
+    /** State of up to {@link #CHUNK_SIZE} consecutive nodes. */
+    static final class NodeChunk {
+        final int[] x;
+        final int[] y;
+        final int[] radius;
+        final int[] argb;
+        final int[] flags;
+        final String[] label;
+        final String[] metadata;
+        final long[] idMsb;
+        final long[] idLsb;
+
+        NodeChunk(NodeStore store, int from, int length) {
+            int to = from + length;
+            x = Arrays.copyOfRange(store.x, from, to);
+            y = Arrays.copyOfRange(store.y, from, to);
+            radius = Arrays.copyOfRange(store.radius, from, to);
+            argb = Arrays.copyOfRange(store.argb, from, to);
+            flags = Arrays.copyOfRange(store.flags, from, to);
+            idMsb = Arrays.copyOfRange(store.idMsb, from, to);
+            idLsb = Arrays.copyOfRange(store.idLsb, from, to);
+            label = new String[length];
+            metadata = new String[length];
+            for (int i = 0; i < length; i++) {
+                label[i] = store.strings.get(store.label[from + i]);
+                metadata[i] = store.strings.get(store.metadata[from + i]);
+            }
+        }
+
+        int length() {
+            return x.length;
+        }
+    }
+
+    /** State of up to {@link #CHUNK_SIZE} consecutive edges, with endpoints as node indices. */
+    static final class EdgeChunk {
+        final int[] from;
+        final int[] to;
+        final Edge.SplineType[] splineType;
+        final float[] curvature;
+        final String[] text;
+        final long[] idMsb;
+        final long[] idLsb;
+
+        EdgeChunk(GraphModel model, List<Edge> edges, int start, int length) {
+            from = new int[length];
+            to = new int[length];
+            splineType = new Edge.SplineType[length];
+            curvature = new float[length];
+            text = new String[length];
+            idMsb = new long[length];
+            idLsb = new long[length];
+            for (int i = 0; i < length; i++) {
+                Edge e = edges.get(start + i);
+                from[i] = model.indexOf(e.getFrom());
+                to[i] = model.indexOf(e.getTo());
+                splineType[i] = e.getSplineType();
+                curvature[i] = e.getCurvature();
+                text[i] = e.getText();
+                idMsb[i] = e.getIdMostSigBits();
+                idLsb[i] = e.getIdLeastSigBits();
+            }
+        }
+
+        int length() {
+            return from.length;
+        }
+    }
+
+    GraphSnapshot(long version, int nodeCount, NodeChunk[] nodes,
+            int edgeCount, EdgeChunk[] edges, int startNode) {
+        this.version = version;
+        this.nodeCount = nodeCount;
+        this.nodes = nodes;
+        this.edgeCount = edgeCount;
+        this.edges = edges;
+        this.startNode = startNode;
+    }
+
+    /** Get the version of the model this snapshot was taken at. */
+    public long getVersion() {
+        return version;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public int getEdgeCount() {
+        return edgeCount;
+    }
+
+    /** Get the index of the start node, or -1 if there is none. */
+    public int getStartNode() {
+        return startNode;
+    }
+
+    /** Get the number of chunks of nodes, for sharing with the next snapshot. */
+    int nodeChunkCount() {
+        return nodes.length;
+    }
+
+    NodeChunk nodeChunk(int index) {
+        return nodes[index];
+    }
+
+    int edgeChunkCount() {
+        return edges.length;
+    }
+
+    EdgeChunk edgeChunk(int index) {
+        return edges[index];
+    }
+
+    /**
+     * Build a detached model holding the state of this snapshot. Nodes and
+     * edges keep their identifiers and order, so an element of the model has
+     * the same index as the element of the snapshot it was built from.
+     */
+    public GraphModel toModel() {
+        NodeStore store = new NodeStore(nodeCount);
+        for (NodeChunk c : nodes) {
+            for (int i = 0; i < c.length(); i++) {
+                Node n = new Node(store, c.x[i], c.y[i], c.radius[i], c.label[i],
+                        c.argb[i], c.idMsb[i], c.idLsb[i]);
+                n.setMetadata(c.metadata[i]);
+                n.setLocked((c.flags[i] & NodeStore.LOCKED) != 0);
+            }
+        }
+        List<Edge> edgeList = new ArrayList<>(edgeCount);
+        for (EdgeChunk c : edges) {
+            for (int i = 0; i < c.length(); i++) {
+                if (c.from[i] < 0 || c.to[i] < 0) {
+                    continue;
+                }
+                Edge e = new Edge(store.get(c.from[i]), store.get(c.to[i]),
+                        c.splineType[i], c.idMsb[i], c.idLsb[i]);
+                e.setCurvature(c.curvature[i]);
+                e.setText(c.text[i]);
+                edgeList.add(e);
+            }
+        }
+        return new GraphModel(store, edgeList, startNode < 0 ? null : store.get(startNode));
+    }
+
+    /**
+     * Run a computation on this snapshot and tag its result with the
+     * snapshot's version. This may be called on any thread.
+     */
+    public <T> Result<T> compute(Function<GraphSnapshot, T> computation) {
+        return new Result<>(computation.apply(this), version);
+    }
+}
@@ -0,0 +1,391 @@
+package me.wphillips.fsmedit;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Headless command-line entry point for converting, validating and analyzing
+ * graph files in bulk. Files are processed in parallel on a bounded worker
+ * pool and each result is printed as a single JSON object per line.
+ * <pre>
+ * GraphTool convert --format binary|compressed|serialized [--output DIR] PATH...
+ * GraphTool validate PATH...
+ * GraphTool analyze [--start LABEL] [--max-cycles N] PATH...
+ * </pre>
+ * Directories are searched recursively for {@code .fsm} files. Converted
+ * files are written under the {@code --output} directory at their path
+ * relative to the directory they were found in. The common option
+ * {@code --threads N} sets the number of workers. The exit status is 0 when
+ * every file succeeded, 1 when any file failed and 2 for usage errors,
+ * including two inputs that would be converted to the same output file.
+ */
+public final class GraphTool {
+    private GraphTool() {}
+
+    /** Default limit on the number of cycles reported per file. */
+    private static final int DEFAULT_MAX_CYCLES = 10_000;
+    /** Stack size for worker threads; cycle search recurses once per path step. */
+    private static final long WORKER_STACK_SIZE = 256L * 1024 * 1024;
+
+    /** Processes a single file and returns its JSON result fields. */
+    private interface Task {
+        void run(File file, Json result) throws Exception;
+    }
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        System.exit(run(args, System.out, System.err));
+    }
+
+    /**
+     * Run the tool with the given arguments.
+     *
+     * @return process exit status
+     */
+    static int run(String[] args, PrintStream out, PrintStream err) {
+        if (args.length == 0) {
+            usage(err);
+            return 2;
+        }
+        String command = args[0];
+        int threads = Runtime.getRuntime().availableProcessors();
+        GraphIO.Format format = null;
+        File outputDir = null;
+        String startLabel = null;
+        int maxCycles = DEFAULT_MAX_CYCLES;
+        List<File> inputs = new ArrayList<>();
+        try {
+            for (int i = 1; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--threads" -> threads = Integer.parseInt(value(args, ++i));
+                    case "--format" -> format = GraphIO.Format.valueOf(
+                            value(args, ++i).toUpperCase(Locale.ROOT));
+                    case "--output" -> outputDir = new File(value(args, ++i));
+                    case "--start" -> startLabel = value(args, ++i);
+                    case "--max-cycles" -> maxCycles = Integer.parseInt(value(args, ++i));
+                    default -> inputs.add(new File(args[i]));
+                }
+            }
+        } catch (IllegalArgumentException ex) {
+            err.println(ex.getMessage());
+            usage(err);
+            return 2;
+        }
+        if (inputs.isEmpty() || threads < 1) {
+            usage(err);
+            return 2;
+        }
+
+        Task task;
+        Map<File, File> targets = new HashMap<>();
+        switch (command) {
+            case "convert" -> {
+                if (format == null) {
+                    err.println("convert requires --format");
+                    return 2;
+                }
+                task = convert(format, outputDir == null ? null : targets);
+            }
+            case "validate" -> task = GraphTool::validate;
+            case "analyze" -> task = analyze(startLabel, maxCycles);
+            default -> {
+                usage(err);
+                return 2;
+            }
+        }
+
+        List<File> files;
+        Map<File, Path> relativePaths = new HashMap<>();
+        try {
+            files = collect(inputs, relativePaths);
+        } catch (IOException ex) {
+            err.println("Failed to list input files: " + ex.getMessage());
+            return 1;
+        }
+        if (command.equals("convert") && outputDir != null) {
+            String clash = placeOutputs(files, relativePaths, outputDir, targets);
+            if (clash != null) {
+                err.println(clash);
+                return 2;
+            }
+        }
+        return process(files, task, threads, out) ? 0 : 1;
+    }
+
+    private static String value(String[] args, int index) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + args[index - 1]);
+        }
+        return args[index];
+    }
+
+    private static void usage(PrintStream err) {
+        err.println("Usage: GraphTool <command> [options] PATH...");
+        err.println("  convert --format binary|compressed|serialized [--output DIR]");
+        err.println("  validate");
+        err.println("  analyze [--start LABEL] [--max-cycles N]");
+        err.println("Common options: --threads N");
+    }
+
+    /**
+     * Expand directories into the {@code .fsm} files they contain.
+     *
+     * @param relativePaths receives each file's path relative to the directory
+     *        it was found in, or its name if it was given directly
+     */
+    private static List<File> collect(List<File> inputs, Map<File, Path> relativePaths)
+            throws IOException {
+        List<File> files = new ArrayList<>();
+        for (File input : inputs) {
+            if (input.isDirectory()) {
+                Path root = input.toPath();
+                try (Stream<Path> paths = Files.walk(root)) {
+                    paths.filter(p -> p.getFileName().toString().toLowerCase(Locale.ROOT)
+                                    .endsWith("." + GraphIO.EXTENSION))
+                            .filter(Files::isRegularFile)
+                            .sorted()
+                            .forEach(p -> {
+                                files.add(p.toFile());
+                                relativePaths.put(p.toFile(), root.relativize(p));
+                            });
+                }
+            } else {
+                files.add(input);
+                relativePaths.put(input, input.toPath().getFileName());
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Choose where each file is converted to under the output directory.
+     *
+     * @return a message naming two files that would share an output, or
+     *         {@code null} if every output is distinct
+     */
+    private static String placeOutputs(List<File> files, Map<File, Path> relativePaths,
+            File outputDir, Map<File, File> targets) {
+        Map<Path, File> claimed = new HashMap<>();
+        for (File file : files) {
+            File target = outputDir.toPath().resolve(relativePaths.get(file)).toFile();
+            File other = claimed.putIfAbsent(target.toPath().toAbsolutePath().normalize(), file);
+            if (other != null) {
+                return other.getPath() + " and " + file.getPath()
+                        + " would both be converted to " + target.getPath();
+            }
+            targets.put(file, target);
+        }
+        return null;
+    }
+
+    /**
+     * Run the task on every file using a fixed number of workers and a
+     * bounded queue, so memory use does not grow with the number of files.
+     *
+     * @return true if every file succeeded
+     */
+    private static boolean process(List<File> files, Task task, int threads, PrintStream out) {
+        AtomicInteger ids = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0L,
+                TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(threads * 2),
+                r -> new Thread(null, r, "graph-tool-" + ids.incrementAndGet(), WORKER_STACK_SIZE),
+                (job, executor) -> {
+                    // Block the submitter until a worker frees a queue slot
+                    try {
+                        executor.getQueue().put(job);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        throw new RejectedExecutionException(ex);
+                    }
+                });
+        AtomicBoolean success = new AtomicBoolean(true);
+        for (File file : files) {
+            pool.execute(() -> {
+                Json result = new Json();
+                result.put("file", file.getPath());
+                try {
+                    task.run(file, result);
+                    result.put("status", "ok");
+                } catch (Exception | StackOverflowError ex) {
+                    success.set(false);
+                    result.put("status", "error");
+                    result.put("message", String.valueOf(ex.getMessage() != null
+                            ? ex.getMessage() : ex.getClass().getSimpleName()));
+                }
+                out.println(result);
+            });
+        }
+        pool.shutdown();
+        try {
+            while (!pool.awaitTermination(1, TimeUnit.MINUTES)) {
+                // Keep waiting for long-running analyses
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            pool.shutdownNow();
+            return false;
+        }
+        return success.get();
+    }
+
+    /**
+     * @param targets output file of each input, or {@code null} to convert in place
+     */
+    private static Task convert(GraphIO.Format format, Map<File, File> targets) {
+        return (file, result) -> {
+            GraphIO.Format source = GraphIO.detectFormat(file);
+            GraphModel model = GraphIO.load(file);
+            File target = targets == null ? file : targets.get(file);
+            if (targets != null) {
+                target.getAbsoluteFile().getParentFile().mkdirs();
+            }
+            GraphIO.save(target, model, format, null);
+            result.put("from", source.name().toLowerCase(Locale.ROOT));
+            result.put("to", format.name().toLowerCase(Locale.ROOT));
+            result.put("output", target.getPath());
+            result.put("bytes", target.length());
+        };
+    }
+
+    private static void validate(File file, Json result) throws Exception {
+        GraphModel model = GraphIO.load(file);
+        List<String> problems = new ArrayList<>();
+        Set<Node> nodes = new HashSet<>(model.getNodes());
+        Set<UUID> ids = new HashSet<>();
+        for (Node n : model.getNodes()) {
+            if (!ids.add(new UUID(n.getIdMostSigBits(), n.getIdLeastSigBits()))) {
+                problems.add("duplicate node id " + n.getId());
+            }
+            if (n.getRadius() <= 0) {
+                problems.add("node " + n.getId() + " has non-positive radius");
+            }
+        }
+        for (Edge e : model.getEdges()) {
+            if (!ids.add(new UUID(e.getIdMostSigBits(), e.getIdLeastSigBits()))) {
+                problems.add("duplicate edge id " + e.getId());
+            }
+            if (!nodes.contains(e.getFrom()) || !nodes.contains(e.getTo())) {
+                problems.add("edge " + e.getId() + " references a missing node");
+            }
+        }
+        if (model.getStartNode() != null && !nodes.contains(model.getStartNode())) {
+            problems.add("start node is not part of the graph");
+        }
+        result.put("format", GraphIO.detectFormat(file).name().toLowerCase(Locale.ROOT));
+        result.put("nodes", model.getNodes().size());
+        result.put("edges", model.getEdges().size());
+        result.put("valid", problems.isEmpty());
+        result.put("problems", problems);
+    }
+
+    private static Task analyze(String startLabel, int maxCycles) {
+        return (file, result) -> {
+            GraphModel model = GraphIO.load(file);
+            Node start = model.getStartNode();
+            if (startLabel != null) {
+                start = null;
+                for (Node n : model.getNodes()) {
+                    if (startLabel.equals(n.getLabel())) {
+                        start = n;
+                        break;
+                    }
+                }
+            } else if (start == null && !model.getNodes().isEmpty()) {
+                start = model.getNodes().get(0);
+            }
+            result.put("nodes", model.getNodes().size());
+            result.put("edges", model.getEdges().size());
+            if (start == null) {
+                result.put("start", null);
+                return;
+            }
+            Set<Node> reachable = GraphAnalysis.findReachable(model, start);
+            List<List<Edge>> cycles = GraphAnalysis.findCyclesFrom(model, start, maxCycles);
+            int longest = 0;
+            for (List<Edge> cycle : cycles) {
+                longest = Math.max(longest, cycle.size());
+            }
+            result.put("start", start.getLabel());
+            result.put("reachable", reachable.size());
+            result.put("unreachable", model.getNodes().size() - reachable.size());
+            result.put("cycles", cycles.size());
+            result.put("cyclesTruncated", cycles.size() >= maxCycles);
+            result.put("longestCycle", longest);
+        };
+    }
+
+    /** Minimal ordered JSON object writer for result lines. */
+    private static final class Json {
+        private final StringBuilder sb = new StringBuilder("{");
+
+        void put(String key, Object value) {
+            if (sb.length() > 1) {
+                sb.append(',');
+            }
+            quote(key);
+            sb.append(':');
+            if (value == null) {
+                sb.append("null");
+            } else if (value instanceof Number || value instanceof Boolean) {
+                sb.append(value);
+            } else if (value instanceof List) {
+                sb.append('[');
+                List<?> list = (List<?>) value;
+                for (int i = 0; i < list.size(); i++) {
+                    if (i > 0) {
+                        sb.append(',');
+                    }
+                    quote(String.valueOf(list.get(i)));
+                }
+                sb.append(']');
+            } else {
+                quote(value.toString());
+            }
+        }
+
+        private void quote(String s) {
+            sb.append('"');
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                switch (c) {
+                    case '"' -> sb.append("\\\"");
+                    case '\\' -> sb.append("\\\\");
+                    case '\n' -> sb.append("\\n");
+                    case '\r' -> sb.append("\\r");
+                    case '\t' -> sb.append("\\t");
+                    default -> {
+                        if (c < 0x20) {
+                            sb.append(String.format("\\u%04x", (int) c));
+                        } else {
+                            sb.append(c);
+                        }
+                    }
+                }
+            }
+            sb.append('"');
+        }
+
+        @Override
+        public String toString() {
+            return sb + "}";
+        }
+    }
+}
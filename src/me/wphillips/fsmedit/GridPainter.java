@@ -0,0 +1,132 @@
+package me.wphillips.fsmedit;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Stroke;
+import java.awt.geom.Line2D;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+
+/**
+ * Draws the background grid from an opaque sheet of grid lines over the
+ * background color, covering the visible area and rendered in device pixels
+ * at the current zoom level. The sheet is kept until the zoom level, the
+ * spacing or the colors change or the area grows, and panning only shifts
+ * where it is drawn, so painting the grid costs one image copy however many
+ * lines are visible. Minor lines are left out once they would
+ * be too close together on screen to tell apart, and major lines are spread
+ * out the same way.
+ */
+final class GridPainter {
+    /** Closest on-screen gap in pixels between grid lines that are drawn. */
+    static final int MIN_GAP = 4;
+    /** Number of minor grid squares between major lines. */
+    static final int MAJOR_EVERY = 5;
+
+    private static final float LINE_WIDTH = 0.5f;
+    private static final Stroke AXIS = new BasicStroke(1f);
+    private static final Color MINOR = new Color(200, 200, 200, 80);
+    private static final Color MAJOR = new Color(160, 160, 160, 120);
+    private static final Color X_AXIS = new Color(255, 0, 0, 150);
+    private static final Color Y_AXIS = new Color(0, 0, 255, 150);
+
+    /** Grid lines starting with a major line at the top left corner. */
+    private BufferedImage sheet;
+    private int sheetSpacing;
+    private double sheetScale;
+    private boolean sheetAntialiased;
+    private Color sheetBackground;
+
+    /**
+     * Fill a region of the world with the background, the grid and the axes.
+     *
+     * @param g2 graphics context transformed to world coordinates by scaling
+     *           and translation only
+     * @param area region of the world to cover
+     * @param spacing world units between minor grid lines
+     */
+    void paint(Graphics2D g2, Rectangle area, int spacing, Color background) {
+        if (spacing <= 0) {
+            throw new IllegalArgumentException("Grid spacing must be positive: " + spacing);
+        }
+        AffineTransform world = g2.getTransform();
+        double pixels = world.getScaleX();
+        boolean antialiased = RenderingHints.VALUE_ANTIALIAS_ON.equals(
+                g2.getRenderingHint(RenderingHints.KEY_ANTIALIASING));
+        long period = majorSpacing(spacing, pixels);
+        double periodPixels = period * pixels;
+
+        // Cover the area from the last major line before it, in whole pixels
+        Rectangle device = world.createTransformedShape(area).getBounds();
+        double firstX = world.getTranslateX() + Math.floor(
+                (device.x - world.getTranslateX()) / periodPixels) * periodPixels;
+        double firstY = world.getTranslateY() + Math.floor(
+                (device.y - world.getTranslateY()) / periodPixels) * periodPixels;
+        int x = (int) Math.round(firstX);
+        int y = (int) Math.round(firstY);
+        int width = device.x + device.width - x + 1;
+        int height = device.y + device.height - y + 1;
+        if (sheet == null || sheet.getWidth() < width || sheet.getHeight() < height
+                || sheetSpacing != spacing || sheetScale != pixels || sheetAntialiased != antialiased
+                || !background.equals(sheetBackground)) {
+            sheet = createSheet(width, height, spacing, pixels, antialiased, background);
+            sheetSpacing = spacing;
+            sheetScale = pixels;
+            sheetAntialiased = antialiased;
+            sheetBackground = background;
+        }
+        Graphics2D d = (Graphics2D) g2.create();
+        d.setTransform(new AffineTransform());
+        d.drawImage(sheet, x, y, null);
+        d.dispose();
+
+        Stroke oldStroke = g2.getStroke();
+        g2.setStroke(AXIS);
+        g2.setColor(X_AXIS);
+        g2.drawLine(area.x, 0, area.x + area.width, 0);
+        g2.setColor(Y_AXIS);
+        g2.drawLine(0, area.y, 0, area.y + area.height);
+        g2.setStroke(oldStroke);
+    }
+
+    /**
+     * Get the world units between major lines at the given pixels per world
+     * unit, widened until they are far enough apart to draw.
+     */
+    private static long majorSpacing(int spacing, double pixels) {
+        long period = (long) spacing * MAJOR_EVERY;
+        while (period * pixels < MIN_GAP && period < Integer.MAX_VALUE) {
+            period *= MAJOR_EVERY;
+        }
+        return period;
+    }
+
+    /** Render grid lines over an area of device pixels starting at a major line. */
+    private static BufferedImage createSheet(int width, int height, int spacing, double pixels,
+            boolean antialiased, Color background) {
+        boolean minor = spacing * pixels >= MIN_GAP;
+        long period = majorSpacing(spacing, pixels);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(background);
+        g.fillRect(0, 0, width, height);
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, antialiased
+                ? RenderingHints.VALUE_ANTIALIAS_ON : RenderingHints.VALUE_ANTIALIAS_OFF);
+        g.setStroke(new BasicStroke((float) (LINE_WIDTH * pixels)));
+        double step = (minor ? spacing : period) * pixels;
+        int every = minor ? MAJOR_EVERY : 1;
+        for (int k = 0; k * step <= width; k++) {
+            g.setColor(k % every == 0 ? MAJOR : MINOR);
+            g.draw(new Line2D.Double(k * step, 0, k * step, height));
+        }
+        for (int k = 0; k * step <= height; k++) {
+            g.setColor(k % every == 0 ? MAJOR : MINOR);
+            g.draw(new Line2D.Double(0, k * step, width, k * step));
+        }
+        g.dispose();
+        return image;
+    }
+}
@@ -0,0 +1,13 @@
+package me.wphillips.fsmedit;
+
+import java.util.UUID;
+
+/**
+ * Source of unique identifiers for new nodes and edges.
+ *
+ * @see ElementIds#setGenerator(IdGenerator)
+ */
+public interface IdGenerator {
+    /** Generate a new identifier. */
+    UUID next();
+}
@@ -0,0 +1,115 @@
+package me.wphillips.fsmedit;
+
+/**
+ * Hash index from element identifiers to element slots. Only the
+ * indices are stored, in an open addressing table; the identifier of an
+ * entry is read back from the elements themselves through {@link Ids}, so
+ * the index costs a few bytes per element.
+ */
+final class IdIndex {
+    /** Access to the identifiers of the indexed elements. */
+    interface Ids {
+        long msb(int index);
+
+        long lsb(int index);
+    }
+
+    private final Ids ids;
+    /** Table of index + 1, with 0 marking an empty slot. */
+    private int[] table;
+    private int count;
+
+    IdIndex(Ids ids, int capacity) {
+        this.ids = ids;
+        table = new int[Integer.highestOneBit(Math.max(4, capacity * 2) - 1) << 1];
+    }
+
+    /**
+     * Find the element with the given identifier.
+     *
+     * @return its index, or -1 if there is none
+     */
+    int get(long msb, long lsb) {
+        int mask = table.length - 1;
+        for (int h = hash(msb, lsb) & mask, t; (t = table[h]) != 0; h = (h + 1) & mask) {
+            if (ids.msb(t - 1) == msb && ids.lsb(t - 1) == lsb) {
+                return t - 1;
+            }
+        }
+        return -1;
+    }
+
+    /** Size the table to hold {@code capacity} elements without rehashing. */
+    void ensureCapacity(int capacity) {
+        int size = Integer.highestOneBit(Math.max(4, capacity * 2) - 1) << 1;
+        if (size > table.length) {
+            rehash(size);
+        }
+    }
+
+    /** Index the element at the given index. */
+    void add(int index) {
+        if (++count * 2 > table.length) {
+            rehash(table.length * 2);
+        }
+        insert(table, index);
+    }
+
+    /**
+     * Update the index after the element at {@code from} moved to {@code to}.
+     * The element's identifier must already be readable at {@code to}.
+     */
+    void move(int from, int to) {
+        table[find(to, from)] = to + 1;
+    }
+
+    /** Drop the element at the given index, which must still be readable. */
+    void remove(int index) {
+        int mask = table.length - 1;
+        int gap = find(index, index);
+        // Shift later entries of the probe run back so lookups never stop early
+        for (int j = (gap + 1) & mask; table[j] != 0; j = (j + 1) & mask) {
+            int home = hash(ids.msb(table[j] - 1), ids.lsb(table[j] - 1)) & mask;
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                table[gap] = table[j];
+                gap = j;
+            }
+        }
+        table[gap] = 0;
+        count--;
+    }
+
+    /** Find the table slot holding {@code entry}, probing from the hash of the element at {@code at}. */
+    private int find(int at, int entry) {
+        int mask = table.length - 1;
+        int h = hash(ids.msb(at), ids.lsb(at)) & mask;
+        while (table[h] != entry + 1) {
+            h = (h + 1) & mask;
+        }
+        return h;
+    }
+
+    private void insert(int[] t, int index) {
+        int mask = t.length - 1;
+        int h = hash(ids.msb(index), ids.lsb(index)) & mask;
+        while (t[h] != 0) {
+            h = (h + 1) & mask;
+        }
+        t[h] = index + 1;
+    }
+
+    private void rehash(int size) {
+        int[] old = table;
+        table = new int[size];
+        for (int t : old) {
+            if (t != 0) {
+                insert(table, t - 1);
+            }
+        }
+    }
+
+    private static int hash(long msb, long lsb) {
+        long h = (msb ^ lsb) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,176 @@
+package me.wphillips.fsmedit;
+
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * Text wrapped to a maximum width, with the width of each line and the size
+ * of the whole block measured. Laying out text measures every word and,
+ * for words too wide to fit, every prefix of them, so layouts are kept in a
+ * {@link Cache} and on the edges they were made for.
+ */
+final class LabelLayout {
+    final String text;
+    final Font font;
+    final int wrapWidth;
+    final String[] lines;
+    final int[] lineWidths;
+    /** Width of the widest line. */
+    final int width;
+    /** Height of all lines together. */
+    final int height;
+    final int ascent;
+    final int lineHeight;
+
+    private LabelLayout(String text, FontMetrics fm, int wrapWidth) {
+        this.text = text;
+        this.font = fm.getFont();
+        this.wrapWidth = wrapWidth;
+        List<String> wrapped = wrapText(fm, text, wrapWidth);
+        lines = wrapped.toArray(new String[0]);
+        lineWidths = new int[lines.length];
+        int widest = 0;
+        for (int i = 0; i < lines.length; i++) {
+            lineWidths[i] = fm.stringWidth(lines[i]);
+            widest = Math.max(widest, lineWidths[i]);
+        }
+        width = widest;
+        ascent = fm.getAscent();
+        lineHeight = fm.getAscent() + fm.getDescent();
+        height = lineHeight * lines.length;
+    }
+
+    /** Check whether this layout is of the given text in the given font and width. */
+    boolean matches(String text, Font font, int wrapWidth) {
+        return this.wrapWidth == wrapWidth && this.text.equals(text) && this.font.equals(font);
+    }
+
+    /**
+     * Recently used layouts, keyed by text, font and wrap width. Labels
+     * repeated across many edges share one layout, and the least recently
+     * used layout is dropped once the cache is full.
+     */
+    static final class Cache {
+        private final Map<Key, LabelLayout> layouts;
+
+        Cache(int capacity) {
+            if (capacity < 1) {
+                throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+            }
+            layouts = new LinkedHashMap<Key, LabelLayout>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, LabelLayout> eldest) {
+                    return size() > capacity;
+                }
+            };
+        }
+
+        /**
+         * Get the layout of an edge's text in a font, reusing the one last
+         * made for the edge while its text, the font and the wrap width are
+         * unchanged. Text is only measured, with the metrics given for the
+         * font, when no layout of it is cached.
+         */
+        LabelLayout of(Edge edge, Font font, Function<Font, FontMetrics> metrics, int wrapWidth) {
+            String text = edge.getText();
+            LabelLayout layout = edge.labelLayout;
+            if (layout == null || !layout.matches(text, font, wrapWidth)) {
+                Key key = new Key(text, font, wrapWidth);
+                layout = layouts.get(key);
+                if (layout == null) {
+                    layout = new LabelLayout(text, metrics.apply(font), wrapWidth);
+                    layouts.put(key, layout);
+                }
+                edge.labelLayout = layout;
+            }
+            return layout;
+        }
+    }
+
+    private static final class Key {
+        private final String text;
+        private final Font font;
+        private final int wrapWidth;
+        private final int hash;
+
+        Key(String text, Font font, int wrapWidth) {
+            this.text = text;
+            this.font = font;
+            this.wrapWidth = wrapWidth;
+            hash = Objects.hash(text, font, wrapWidth);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return wrapWidth == k.wrapWidth && text.equals(k.text) && font.equals(k.font);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Break the given text into multiple lines so each line fits within the specified width.
+     */
+    private static List<String> wrapText(FontMetrics fm, String text, int maxWidth) {
+        List<String> lines = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return lines;
+        }
+        String[] words = text.split("\\s+");
+        StringBuilder line = new StringBuilder();
+        for (String word : words) {
+            if (line.length() == 0) {
+                if (fm.stringWidth(word) <= maxWidth) {
+                    line.append(word);
+                } else {
+                    splitWord(lines, fm, word, maxWidth);
+                }
+                continue;
+            }
+
+            String candidate = line + " " + word;
+            if (fm.stringWidth(candidate) <= maxWidth) {
+                line.append(' ').append(word);
+            } else {
+                lines.add(line.toString());
+                line.setLength(0);
+                if (fm.stringWidth(word) <= maxWidth) {
+                    line.append(word);
+                } else {
+                    splitWord(lines, fm, word, maxWidth);
+                }
+            }
+        }
+        if (line.length() > 0) {
+            lines.add(line.toString());
+        }
+        return lines;
+    }
+
+    /** Break a long word into multiple lines. */
+    private static void splitWord(List<String> lines, FontMetrics fm, String word, int maxWidth) {
+        int start = 0;
+        while (start < word.length()) {
+            int end = start + 1;
+            while (end <= word.length() && fm.stringWidth(word.substring(start, end)) <= maxWidth) {
+                end++;
+            }
+            end--;
+            lines.add(word.substring(start, end));
+            start = end;
+        }
+    }
+}
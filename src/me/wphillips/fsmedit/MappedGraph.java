@@ -0,0 +1,370 @@
+package me.wphillips.fsmedit;
+
+import java.awt.Rectangle;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Read-only view of a graph stored in the binary format described by
+ * {@link GraphBinaryFormat}. The file is memory-mapped and {@link Node} and
+ * {@link Edge} objects are only created when they are requested, either by
+ * index or by spatial region. Materialized objects are cached so repeated
+ * requests return the same instance. Region queries scan the node records
+ * without creating objects.
+ * <p>
+ * Close the graph once done with it to release the mapping, since a mapped
+ * file cannot be replaced on Windows. Instances are not thread-safe.
+ */
+public class MappedGraph implements Closeable {
+    /** Number of records decoded between progress updates. */
+    private static final int PROGRESS_INTERVAL = 4096;
+
+    /** The file's contents, or {@code null} once closed. */
+    private ByteBuffer buffer;
+    private final int version;
+    private final int nodeRecordSize;
+    private final int edgeRecordSize;
+    private final int stringCount;
+    private final int nodeCount;
+    private final int edgeCount;
+    private final int startIndex;
+    private final int stringOffsetsPos;
+    private final int stringDataPos;
+    private final int nodesPos;
+    private final int edgesPos;
+    private final String[] strings;
+    private Node[] nodeCache;
+    private Edge[] edgeCache;
+
+    /**
+     * Create a view over a buffer positioned at the start of the magic header.
+     */
+    MappedGraph(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.remaining() < GraphBinaryFormat.HEADER_SIZE
+                || buffer.getInt(0) != GraphBinaryFormat.MAGIC) {
+            throw new IOException("Not a binary graph file");
+        }
+        version = buffer.getInt(4);
+        if (version < GraphBinaryFormat.MIN_VERSION || version > GraphBinaryFormat.VERSION) {
+            throw new IOException("Unsupported graph file version " + version);
+        }
+        nodeRecordSize = version == 1
+                ? GraphBinaryFormat.V1_NODE_RECORD_SIZE : GraphBinaryFormat.NODE_RECORD_SIZE;
+        edgeRecordSize = version == 1
+                ? GraphBinaryFormat.V1_EDGE_RECORD_SIZE : GraphBinaryFormat.EDGE_RECORD_SIZE;
+        stringCount = buffer.getInt(8);
+        int stringBytes = buffer.getInt(12);
+        nodeCount = buffer.getInt(16);
+        edgeCount = buffer.getInt(20);
+        startIndex = buffer.getInt(24);
+        if (stringCount < 0 || stringBytes < 0 || nodeCount < 0 || edgeCount < 0
+                || startIndex < -1 || startIndex >= nodeCount) {
+            throw new IOException("Corrupt graph file header");
+        }
+        long offsetsPos = GraphBinaryFormat.HEADER_SIZE;
+        long dataPos = offsetsPos + 4L * (stringCount + 1);
+        long nodes = dataPos + stringBytes;
+        long edges = nodes + (long) nodeCount * nodeRecordSize;
+        long end = edges + (long) edgeCount * edgeRecordSize;
+        if (end > buffer.limit()) {
+            throw new IOException("Graph file is truncated");
+        }
+        stringOffsetsPos = (int) offsetsPos;
+        stringDataPos = (int) dataPos;
+        nodesPos = (int) nodes;
+        edgesPos = (int) edges;
+        strings = new String[stringCount];
+    }
+
+    /**
+     * Memory-map a binary graph file.
+     */
+    public static MappedGraph open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Graph file is too large to map: " + size + " bytes");
+            }
+            return new MappedGraph(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    /**
+     * Release the mapping now instead of when it is garbage collected.
+     * Materialized nodes and edges remain usable, but nothing more can be
+     * read from the graph.
+     */
+    @Override
+    public void close() {
+        ByteBuffer mapped = buffer;
+        buffer = null;
+        if (mapped instanceof MappedByteBuffer) {
+            unmap(mapped);
+        }
+    }
+
+    /** Unmap a buffer that is no longer referenced anywhere else. */
+    private static void unmap(ByteBuffer mapped) {
+        try {
+            Class<?> unsafe = Class.forName("sun.misc.Unsafe");
+            Field instance = unsafe.getDeclaredField("theUnsafe");
+            instance.setAccessible(true);
+            unsafe.getMethod("invokeCleaner", ByteBuffer.class).invoke(instance.get(null), mapped);
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            // The mapping is released once the buffer is garbage collected
+        }
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public int getEdgeCount() {
+        return edgeCount;
+    }
+
+    /** Get the index of the start node, or -1 if none is set. */
+    public int getStartIndex() {
+        return startIndex;
+    }
+
+    public int getNodeX(int index) {
+        return buffer.getInt(nodeRecord(index));
+    }
+
+    public int getNodeY(int index) {
+        return buffer.getInt(nodeRecord(index) + 4);
+    }
+
+    public int getNodeRadius(int index) {
+        return buffer.getInt(nodeRecord(index) + 8);
+    }
+
+    /** Get the index of the node an edge starts from without materializing it. */
+    public int getEdgeFrom(int index) {
+        return buffer.getInt(edgeRecord(index));
+    }
+
+    /** Get the index of the node an edge points to without materializing it. */
+    public int getEdgeTo(int index) {
+        return buffer.getInt(edgeRecord(index) + 4);
+    }
+
+    /**
+     * Get the node at the given index, creating it on first access.
+     */
+    public Node getNode(int index) throws IOException {
+        if (nodeCache == null) {
+            nodeCache = new Node[nodeCount];
+        }
+        Node n = nodeCache[checkIndex(index, nodeCount)];
+        if (n == null) {
+            n = readNode(index, NodeStore.scratch());
+            nodeCache[index] = n;
+        }
+        return n;
+    }
+
+    /** Decode the node record at an index into a new slot of a store. */
+    private Node readNode(int index, NodeStore store) throws IOException {
+        int pos = nodeRecord(index);
+        int flags = buffer.getInt(pos + 16);
+        String label = string(buffer.getInt(pos + 20));
+        String metadata;
+        long idMsb;
+        long idLsb;
+        if (version == 1) {
+            UUID id = ElementIds.parse(string(buffer.getInt(pos + 24)));
+            idMsb = id.getMostSignificantBits();
+            idLsb = id.getLeastSignificantBits();
+            metadata = string(buffer.getInt(pos + 28));
+        } else {
+            metadata = string(buffer.getInt(pos + 24));
+            idMsb = buffer.getLong(pos + 28);
+            idLsb = buffer.getLong(pos + 36);
+        }
+        Node n = new Node(store, buffer.getInt(pos), buffer.getInt(pos + 4),
+                buffer.getInt(pos + 8), label, buffer.getInt(pos + 12), idMsb, idLsb);
+        n.setMetadata(metadata == null ? "" : metadata);
+        n.setLocked((flags & GraphBinaryFormat.NODE_LOCKED) != 0);
+        return n;
+    }
+
+    /**
+     * Get the edge at the given index, creating it and its endpoints on first access.
+     */
+    public Edge getEdge(int index) throws IOException {
+        if (edgeCache == null) {
+            edgeCache = new Edge[edgeCount];
+        }
+        Edge e = edgeCache[checkIndex(index, edgeCount)];
+        if (e == null) {
+            int pos = edgeRecord(index);
+            int flags = buffer.getInt(pos + 8);
+            Edge.SplineType type = (flags & GraphBinaryFormat.EDGE_BEZIER) != 0
+                    ? Edge.SplineType.BEZIER : Edge.SplineType.STRAIGHT;
+            String text;
+            long idMsb;
+            long idLsb;
+            if (version == 1) {
+                UUID id = ElementIds.parse(string(buffer.getInt(pos + 16)));
+                idMsb = id.getMostSignificantBits();
+                idLsb = id.getLeastSignificantBits();
+                text = string(buffer.getInt(pos + 20));
+            } else {
+                text = string(buffer.getInt(pos + 16));
+                idMsb = buffer.getLong(pos + 20);
+                idLsb = buffer.getLong(pos + 28);
+            }
+            e = new Edge(getNode(buffer.getInt(pos)), getNode(buffer.getInt(pos + 4)),
+                    type, idMsb, idLsb);
+            e.setCurvature(buffer.getFloat(pos + 12));
+            e.setText(text);
+            edgeCache[index] = e;
+        }
+        return e;
+    }
+
+    /** Get the start node, or {@code null} if none is set. */
+    public Node getStartNode() throws IOException {
+        return startIndex < 0 ? null : getNode(startIndex);
+    }
+
+    /**
+     * Find the indices of all nodes whose circle intersects the given world
+     * region. Only the fixed-width records are scanned; no objects are created.
+     */
+    public int[] findNodesIn(Rectangle region) {
+        ensureOpen();
+        int[] result = new int[16];
+        int count = 0;
+        for (int i = 0; i < nodeCount; i++) {
+            int pos = nodesPos + i * nodeRecordSize;
+            int x = buffer.getInt(pos);
+            int y = buffer.getInt(pos + 4);
+            int r = buffer.getInt(pos + 8);
+            if (x + r >= region.x && x - r <= region.x + region.width
+                    && y + r >= region.y && y - r <= region.y + region.height) {
+                if (count == result.length) {
+                    result = Arrays.copyOf(result, count * 2);
+                }
+                result[count++] = i;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Materialize the nodes whose circle intersects the given world region.
+     */
+    public List<Node> getNodesIn(Rectangle region) throws IOException {
+        int[] indices = findNodesIn(region);
+        List<Node> result = new ArrayList<>(indices.length);
+        for (int index : indices) {
+            result.add(getNode(index));
+        }
+        return result;
+    }
+
+    /**
+     * Materialize the whole graph into an editable {@link GraphModel}. Nodes
+     * not requested before are decoded straight into the model's store.
+     */
+    public GraphModel toModel() throws IOException {
+        return toModel(null);
+    }
+
+    /**
+     * Materialize the whole graph, reporting the number of nodes and then
+     * edges decoded so far.
+     *
+     * @param listener optional listener notified as records are decoded
+     */
+    public GraphModel toModel(GraphIO.ProgressListener listener) throws IOException {
+        if (nodeCache == null) {
+            nodeCache = new Node[nodeCount];
+        }
+        long total = (long) nodeCount + edgeCount;
+        NodeStore nodes = new NodeStore(nodeCount);
+        for (int i = 0; i < nodeCount; i++) {
+            if (nodeCache[i] == null) {
+                nodeCache[i] = readNode(i, nodes);
+            } else {
+                nodes.add(nodeCache[i]);
+            }
+            progress(listener, i + 1L, total);
+        }
+        List<Edge> edges = new ArrayList<>(edgeCount);
+        for (int i = 0; i < edgeCount; i++) {
+            edges.add(getEdge(i));
+            progress(listener, nodeCount + i + 1L, total);
+        }
+        return new GraphModel(nodes, edges, getStartNode());
+    }
+
+    private static void progress(GraphIO.ProgressListener listener, long done, long total)
+            throws InterruptedIOException {
+        if (listener != null && (done % PROGRESS_INTERVAL == 0 || done == total)) {
+            listener.progress(done, total);
+        }
+    }
+
+    private void ensureOpen() {
+        if (buffer == null) {
+            throw new IllegalStateException("Graph has been closed");
+        }
+    }
+
+    private int nodeRecord(int index) {
+        ensureOpen();
+        return nodesPos + checkIndex(index, nodeCount) * nodeRecordSize;
+    }
+
+    private int edgeRecord(int index) {
+        ensureOpen();
+        return edgesPos + checkIndex(index, edgeCount) * edgeRecordSize;
+    }
+
+    private static int checkIndex(int index, int count) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for " + count);
+        }
+        return index;
+    }
+
+    private String string(int index) throws IOException {
+        if (index == -1) {
+            return null;
+        }
+        if (index < 0 || index >= stringCount) {
+            throw new IOException("Invalid string reference " + index);
+        }
+        String s = strings[index];
+        if (s == null) {
+            ensureOpen();
+            int start = buffer.getInt(stringOffsetsPos + 4 * index);
+            int end = buffer.getInt(stringOffsetsPos + 4 * (index + 1));
+            if (start < 0 || end < start || stringDataPos + end > nodesPos) {
+                throw new IOException("Corrupt string table");
+            }
+            byte[] data = new byte[end - start];
+            buffer.get(stringDataPos + start, data);
+            s = new String(data, StandardCharsets.UTF_8);
+            strings[index] = s;
+        }
+        return s;
+    }
+}
@@ -1,104 +1,176 @@
 package me.wphillips.fsmedit;
 
 import java.awt.Color;
+import java.awt.Point;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.UUID;
 
+/**
+ * A state of the machine. The node's fields are held in a {@link NodeStore}
+ * shared with the other nodes of its graph, or with other nodes not yet part
+ * of one; the node itself only records where.
+ */
 public class Node implements Serializable {
     private static final long serialVersionUID = 1L;
 
-    private int x;
-    private int y;
-    private int radius;
-    private String label;
-    private Color color;
-    /** Unique identifier for this node. */
-    private String id;
-    /** Additional notes attached to the node. */
-    private String metadata;
-    /** Whether the node's position is locked. */
-    private boolean locked;
+    /**
+     * Serialized form, kept identical to earlier versions which stored the
+     * fields in the node itself and the identifier as a UUID string.
+     */
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("x", int.class),
+        new ObjectStreamField("y", int.class),
+        new ObjectStreamField("radius", int.class),
+        new ObjectStreamField("label", String.class),
+        new ObjectStreamField("color", Color.class),
+        new ObjectStreamField("id", String.class),
+        new ObjectStreamField("metadata", String.class),
+        new ObjectStreamField("locked", boolean.class)
+    };
+
+    /** Store holding this node's state; the node is a handle to one of its slots. */
+    transient NodeStore store;
+    transient int slot;
 
     public Node(int x, int y, int radius, String label) {
         this(x, y, radius, label, Color.WHITE);
     }
 
     public Node(int x, int y, int radius, String label, Color color) {
-        this.x = x;
-        this.y = y;
-        this.radius = radius;
-        this.label = label;
-        this.color = color;
-        this.id = UUID.randomUUID().toString();
-        this.metadata = "";
-        this.locked = false;
+        this(x, y, radius, label, color, ElementIds.next());
+    }
+
+    private Node(int x, int y, int radius, String label, Color color, UUID id) {
+        this(x, y, radius, label, color, id.getMostSignificantBits(), id.getLeastSignificantBits());
+    }
+
+    /**
+     * Create a node with an existing identifier, used when decoding saved graphs.
+     */
+    Node(int x, int y, int radius, String label, Color color,
+            long idMostSigBits, long idLeastSigBits) {
+        this(NodeStore.scratch(), x, y, radius, label, argb(color),
+                idMostSigBits, idLeastSigBits);
+    }
+
+    /**
+     * Create a node in a new slot of the given store, used by loaders
+     * filling the store of a graph they are about to build.
+     */
+    Node(NodeStore store, int x, int y, int radius, String label, int argb,
+            long idMostSigBits, long idLeastSigBits) {
+        store.allocate(this, x, y, radius, label, argb, idMostSigBits, idLeastSigBits);
     }
 
     public int getX() {
-        return x;
+        return store.x[slot];
     }
 
     /** Set the x-coordinate of this node. */
     public void setX(int x) {
-        this.x = x;
+        Point old = getPosition();
+        store.x[slot] = x;
+        changed(GraphChange.Type.NODE_MOVED, GraphChange.Property.POSITION, old);
     }
 
     public int getY() {
-        return y;
+        return store.y[slot];
     }
 
     /** Set the y-coordinate of this node. */
     public void setY(int y) {
-        this.y = y;
+        Point old = getPosition();
+        store.y[slot] = y;
+        changed(GraphChange.Type.NODE_MOVED, GraphChange.Property.POSITION, old);
     }
 
     public int getRadius() {
-        return radius;
+        return store.radius[slot];
+    }
+
+    public void setRadius(int radius) {
+        int old = store.radius[slot];
+        store.radius[slot] = radius;
+        changed(GraphChange.Type.NODE_RESTYLED, GraphChange.Property.RADIUS, old);
     }
 
     public String getLabel() {
-        return label;
+        return store.strings.get(store.label[slot]);
     }
 
-    /** Get the unique identifier for this node. */
+    /** Get the unique identifier for this node formatted as a UUID string. */
     public String getId() {
-        return id;
+        return ElementIds.format(getIdMostSigBits(), getIdLeastSigBits());
+    }
+
+    /** Get the most significant half of this node's identifier. */
+    public long getIdMostSigBits() {
+        return store.idMsb[slot];
+    }
+
+    /** Get the least significant half of this node's identifier. */
+    public long getIdLeastSigBits() {
+        return store.idLsb[slot];
     }
 
     public void setLabel(String label) {
-        this.label = label;
+        String old = getLabel();
+        store.setLabel(slot, label);
+        changed(GraphChange.Type.NODE_RESTYLED, GraphChange.Property.LABEL, old);
     }
 
     public Color getColor() {
-        return color;
+        return new Color(store.argb[slot], true);
+    }
+
+    /**
+     * Get the color packed as by {@link Color#getRGB()}, without creating a
+     * {@link Color} as {@link #getColor()} does.
+     */
+    public int getArgb() {
+        return store.argb[slot];
     }
 
     public void setColor(Color color) {
-        this.color = color;
+        Color old = getColor();
+        store.argb[slot] = argb(color);
+        changed(GraphChange.Type.NODE_RESTYLED, GraphChange.Property.COLOR, old);
     }
 
     /** Get additional metadata/notes for this node. */
     public String getMetadata() {
-        return metadata;
+        return store.strings.get(store.metadata[slot]);
     }
 
     /** Set metadata/notes for this node. */
     public void setMetadata(String metadata) {
-        this.metadata = metadata;
+        String old = getMetadata();
+        store.setMetadata(slot, metadata);
+        changed(GraphChange.Type.NODE_EDITED, GraphChange.Property.METADATA, old);
     }
 
     /**
      * Check whether the node's position is locked.
      */
     public boolean isLocked() {
-        return locked;
+        return (store.flags[slot] & NodeStore.LOCKED) != 0;
     }
 
     /**
      * Set whether the node's position should be locked.
      */
     public void setLocked(boolean locked) {
-        this.locked = locked;
+        boolean old = isLocked();
+        if (locked) {
+            store.flags[slot] |= NodeStore.LOCKED;
+        } else {
+            store.flags[slot] &= ~NodeStore.LOCKED;
+        }
+        changed(GraphChange.Type.NODE_EDITED, GraphChange.Property.LOCKED, old);
     }
 
     /**
@@ -108,8 +180,10 @@ public class Node implements Serializable {
      * @param y new y-coordinate
      */
     public void setPosition(int x, int y) {
-        this.x = x;
-        this.y = y;
+        Point old = getPosition();
+        store.x[slot] = x;
+        store.y[slot] = y;
+        changed(GraphChange.Type.NODE_MOVED, GraphChange.Property.POSITION, old);
     }
 
     /**
@@ -119,8 +193,15 @@ public class Node implements Serializable {
      * @param dy change in y-coordinate
      */
     public void moveBy(int dx, int dy) {
-        this.x += dx;
-        this.y += dy;
+        Point old = getPosition();
+        store.x[slot] += dx;
+        store.y[slot] += dy;
+        changed(GraphChange.Type.NODE_MOVED, GraphChange.Property.POSITION, old);
+    }
+
+    /** Get the center of this node. */
+    public Point getPosition() {
+        return new Point(store.x[slot], store.y[slot]);
     }
 
     /**
@@ -131,22 +212,48 @@ public class Node implements Serializable {
      * @return true if the point is inside the node
      */
     public boolean contains(int px, int py) {
-        int dx = px - x;
-        int dy = py - y;
+        int dx = px - getX();
+        int dy = py - getY();
+        int radius = getRadius();
         return dx * dx + dy * dy <= radius * radius;
     }
 
+    /** Report an edit to the graph holding this node, if any. */
+    private void changed(GraphChange.Type type, GraphChange.Property property, Object oldValue) {
+        store.changed(slot, type, property, oldValue);
+    }
+
+    /** Pack a color, storing a missing color as white. */
+    private static int argb(Color c) {
+        return c == null ? Color.WHITE.getRGB() : c.getRGB();
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("x", getX());
+        fields.put("y", getY());
+        fields.put("radius", getRadius());
+        fields.put("label", getLabel());
+        fields.put("color", getColor());
+        fields.put("id", getId());
+        fields.put("metadata", getMetadata());
+        fields.put("locked", isLocked());
+        out.writeFields();
+    }
+
     /**
-     * Ensure newly deserialized nodes have a UUID.
+     * Read the string identifier of the serialized form, assigning a new one
+     * to nodes saved without it.
      */
-    private void readObject(java.io.ObjectInputStream in)
-            throws java.io.IOException, ClassNotFoundException {
-        in.defaultReadObject();
-        if (id == null || id.isEmpty()) {
-            id = UUID.randomUUID().toString();
-        }
-        if (metadata == null) {
-            metadata = "";
-        }
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        UUID id = ElementIds.parse((String) fields.get("id", null));
+        NodeStore.scratch().allocate(this, fields.get("x", 0), fields.get("y", 0),
+                fields.get("radius", 0), (String) fields.get("label", null),
+                argb((Color) fields.get("color", null)),
+                id.getMostSignificantBits(), id.getLeastSignificantBits());
+        String metadata = (String) fields.get("metadata", "");
+        setMetadata(metadata == null ? "" : metadata);
+        setLocked(fields.get("locked", false));
     }
 }
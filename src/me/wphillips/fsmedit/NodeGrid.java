@@ -0,0 +1,152 @@
+package me.wphillips.fsmedit;
+
+/**
+ * Uniform grid over world coordinates indexing the nodes of a
+ * {@link NodeStore} by slot, so point and region queries look at a few
+ * cells instead of every node. Each node is filed under the cell holding its
+ * center; a node containing a point therefore lies in a cell within one
+ * radius of it. Nodes larger than a cell are kept in a separate cell that
+ * every query scans.
+ * <p>
+ * The owner must report every node added, removed, moved to another slot or
+ * changed in position or radius.
+ */
+final class NodeGrid {
+    /** Width of a cell in world units, as a power of two. */
+    static final int CELL_SHIFT = 7;
+    static final int CELL_SIZE = 1 << CELL_SHIFT;
+
+    /** Cell key of the nodes too large to file under a cell. */
+    private static final long LARGE = Long.MIN_VALUE;
+
+    private final NodeStore store;
+    private final CellChains chains;
+
+    NodeGrid(NodeStore store) {
+        this.store = store;
+        chains = new CellChains(store.size());
+        for (int i = 0; i < store.size(); i++) {
+            if (store.get(i) != null) {
+                add(i);
+            }
+        }
+    }
+
+    /** File the node in the given slot. */
+    void add(int slot) {
+        chains.link(slot, keyOf(slot));
+    }
+
+    /** Drop the node in the given slot. */
+    void remove(int slot) {
+        chains.unlink(slot);
+    }
+
+    /** Refile the node in the given slot after its position or radius changed. */
+    void update(int slot) {
+        long key = keyOf(slot);
+        if (key != chains.cellOf(slot)) {
+            chains.unlink(slot);
+            chains.link(slot, key);
+        }
+    }
+
+    /** Follow a node that moved from slot {@code from} to the vacant slot {@code to}. */
+    void move(int from, int to) {
+        chains.move(from, to);
+    }
+
+    /**
+     * Find the topmost node containing a point.
+     *
+     * @return its slot, or -1 if there is none
+     */
+    int indexAt(int px, int py) {
+        int best = scanAt(chains.head(LARGE), px, py, -1);
+        int cx0 = cell(px - (long) CELL_SIZE);
+        int cx1 = cell(px + (long) CELL_SIZE);
+        int cy0 = cell(py - (long) CELL_SIZE);
+        int cy1 = cell(py + (long) CELL_SIZE);
+        for (int cx = cx0; cx <= cx1; cx++) {
+            for (int cy = cy0; cy <= cy1; cy++) {
+                best = scanAt(chains.head(key(cx, cy)), px, py, best);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Find the nodes whose circle intersects a region, given by its inclusive
+     * bounds.
+     *
+     * @return their slots in ascending order
+     */
+    int[] indicesIn(long minX, long minY, long maxX, long maxY) {
+        CellChains.Hits hits = new CellChains.Hits();
+        scanIn(chains.head(LARGE), minX, minY, maxX, maxY, hits);
+        int cx0 = cell(minX - CELL_SIZE);
+        int cx1 = cell(maxX + CELL_SIZE);
+        int cy0 = cell(minY - CELL_SIZE);
+        int cy1 = cell(maxY + CELL_SIZE);
+        if ((long) (cx1 - cx0 + 1) * (cy1 - cy0 + 1) > chains.cellCount()) {
+            // A region spanning more cells than are occupied is cheaper to answer from the table
+            for (int i = 0; i < chains.tableLength(); i++) {
+                long key = chains.keyAt(i);
+                if (chains.headAt(i) >= 0 && key != LARGE) {
+                    int cx = (int) (key >> 32);
+                    int cy = (int) key;
+                    if (cx >= cx0 && cx <= cx1 && cy >= cy0 && cy <= cy1) {
+                        scanIn(chains.headAt(i), minX, minY, maxX, maxY, hits);
+                    }
+                }
+            }
+        } else {
+            for (int cx = cx0; cx <= cx1; cx++) {
+                for (int cy = cy0; cy <= cy1; cy++) {
+                    scanIn(chains.head(key(cx, cy)), minX, minY, maxX, maxY, hits);
+                }
+            }
+        }
+        return hits.sorted();
+    }
+
+    private int scanAt(int slot, int px, int py, int best) {
+        for (int s = slot; s >= 0; s = chains.next(s)) {
+            if (s > best) {
+                long dx = (long) px - store.x[s];
+                long dy = (long) py - store.y[s];
+                long r = store.radius[s];
+                if (dx * dx + dy * dy <= r * r) {
+                    best = s;
+                }
+            }
+        }
+        return best;
+    }
+
+    private void scanIn(int slot, long minX, long minY, long maxX, long maxY, CellChains.Hits hits) {
+        for (int s = slot; s >= 0; s = chains.next(s)) {
+            long x = store.x[s];
+            long y = store.y[s];
+            long r = store.radius[s];
+            if (x + r >= minX && x - r <= maxX && y + r >= minY && y - r <= maxY) {
+                hits.add(s);
+            }
+        }
+    }
+
+    private long keyOf(int slot) {
+        if (store.radius[slot] > CELL_SIZE) {
+            return LARGE;
+        }
+        return key(cell(store.x[slot]), cell(store.y[slot]));
+    }
+
+    private static int cell(long coordinate) {
+        return (int) (coordinate >> CELL_SHIFT);
+    }
+
+    private static long key(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,289 @@
+package me.wphillips.fsmedit;
+
+import java.util.Arrays;
+
+/**
+ * Struct-of-arrays storage for the state of many nodes. Positions, sizes,
+ * colors and flags live in parallel primitive arrays and labels and metadata
+ * in a shared {@link StringPool}, so a graph with millions of states costs a
+ * few dozen bytes per node and scans such as hit-testing walk contiguous
+ * memory. {@link Node} objects are small handles holding their store and
+ * slot.
+ * <p>
+ * Slots are in drawing order. Removing a node leaves its slot vacant, and
+ * the owning graph later compacts the store by moving the nodes after each
+ * vacancy down in order.
+ * <p>
+ * Nodes outside any graph live in a 256-slot scratch store owned by the
+ * thread that created or removed them. Adding a node to a graph moves it
+ * into the graph's store and keeps the same handle. Loaders allocate nodes
+ * straight into the new graph's store instead. The nodes of one store must
+ * not be edited from several threads at once.
+ */
+public final class NodeStore {
+    /** Flag bit for a node whose position is locked. */
+    static final int LOCKED = 1;
+
+    /** Number of slots in a scratch store. */
+    private static final int SCRATCH_SLOTS = 256;
+    /** Scratch store of each thread that still has free slots. */
+    private static final ThreadLocal<NodeStore> SCRATCH = new ThreadLocal<>();
+
+    private Node[] handles;
+    int[] x;
+    int[] y;
+    int[] radius;
+    int[] argb;
+    int[] flags;
+    /** Pool ids of the labels. */
+    int[] label;
+    /** Pool ids of the metadata. */
+    int[] metadata;
+    long[] idMsb;
+    long[] idLsb;
+    final StringPool strings;
+    /** Graph told about edits made through the node handles, if any. */
+    GraphModel owner;
+    private int size;
+    /** Whether this store only holds nodes outside any graph. */
+    private boolean scratch;
+
+    NodeStore(int capacity) {
+        int c = Math.max(1, capacity);
+        handles = new Node[c];
+        x = new int[c];
+        y = new int[c];
+        radius = new int[c];
+        argb = new int[c];
+        flags = new int[c];
+        label = new int[c];
+        metadata = new int[c];
+        idMsb = new long[c];
+        idLsb = new long[c];
+        strings = new StringPool(Math.min(c * 2, 64));
+    }
+
+    /**
+     * Get a scratch store of the current thread with room for another node.
+     * A full scratch store is never grown; it is left to the handles still
+     * referring to it and a new one started.
+     */
+    static NodeStore scratch() {
+        NodeStore s = SCRATCH.get();
+        if (s == null || s.size == s.handles.length) {
+            s = new NodeStore(SCRATCH_SLOTS);
+            s.scratch = true;
+            SCRATCH.set(s);
+        }
+        return s;
+    }
+
+    /** Get the number of slots in use, including those left vacant by removed nodes. */
+    public int size() {
+        return size;
+    }
+
+    /** Get the node in the given slot, or {@code null} if the slot is vacant. */
+    public Node get(int slot) {
+        if (slot < 0 || slot >= size) {
+            throw new IndexOutOfBoundsException("Slot " + slot + " of " + size);
+        }
+        return handles[slot];
+    }
+
+    /** Check whether the node's state is held by this store. */
+    public boolean contains(Node n) {
+        return n.store == this;
+    }
+
+    /**
+     * Find the topmost node containing a point.
+     *
+     * @return the slot of the node, or -1 if there is none
+     */
+    public int indexAt(int px, int py) {
+        for (int i = size - 1; i >= 0; i--) {
+            long dx = px - x[i];
+            long dy = py - y[i];
+            long r = radius[i];
+            if (dx * dx + dy * dy <= r * r && handles[i] != null && handles[i].store == this) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Reserve a slot for a new node and bind the handle to it. */
+    int allocate(Node n, int nx, int ny, int nradius, String nlabel, int nargb,
+            long msb, long lsb) {
+        int slot = grow();
+        x[slot] = nx;
+        y[slot] = ny;
+        radius[slot] = nradius;
+        argb[slot] = nargb;
+        flags[slot] = 0;
+        label[slot] = strings.intern(nlabel);
+        metadata[slot] = strings.intern("");
+        idMsb[slot] = msb;
+        idLsb[slot] = lsb;
+        bind(n, slot);
+        return slot;
+    }
+
+    /**
+     * Move a node's state into this store.
+     *
+     * @return false if the node is already held here
+     */
+    boolean add(Node n) {
+        if (n.store == this) {
+            return false;
+        }
+        take(n, grow());
+        return true;
+    }
+
+    /** Move a node's state into a vacant slot of this store. */
+    void put(Node n, int slot) {
+        take(n, slot);
+    }
+
+    /**
+     * Move a node's state into the given slot of this store, first moving
+     * the nodes from that slot on up by one.
+     */
+    void insert(Node n, int slot) {
+        int end = grow();
+        int length = end - slot;
+        System.arraycopy(handles, slot, handles, slot + 1, length);
+        System.arraycopy(x, slot, x, slot + 1, length);
+        System.arraycopy(y, slot, y, slot + 1, length);
+        System.arraycopy(radius, slot, radius, slot + 1, length);
+        System.arraycopy(argb, slot, argb, slot + 1, length);
+        System.arraycopy(flags, slot, flags, slot + 1, length);
+        System.arraycopy(label, slot, label, slot + 1, length);
+        System.arraycopy(metadata, slot, metadata, slot + 1, length);
+        System.arraycopy(idMsb, slot, idMsb, slot + 1, length);
+        System.arraycopy(idLsb, slot, idLsb, slot + 1, length);
+        for (int i = slot + 1; i <= end; i++) {
+            if (handles[i] != null) {
+                handles[i].slot = i;
+            }
+        }
+        take(n, slot);
+    }
+
+    /** Copy a node's state from its current store into a slot of this one and bind it there. */
+    private void take(Node n, int slot) {
+        NodeStore from = n.store;
+        int s = n.slot;
+        copy(from, s, slot);
+        bind(n, slot);
+        if (from.scratch) {
+            // The slot is not reused, but should not keep the node reachable
+            from.handles[s] = null;
+        }
+    }
+
+    /**
+     * Remove a node, moving its state into a scratch store so the handle
+     * stays usable, and leave its slot vacant.
+     *
+     * @return false if the node is not held by this store
+     */
+    boolean remove(Node n) {
+        if (n.store != this) {
+            return false;
+        }
+        int slot = n.slot;
+        scratch().add(n);
+        strings.release(label[slot]);
+        strings.release(metadata[slot]);
+        handles[slot] = null;
+        return true;
+    }
+
+    /** Move the node in slot {@code from} to the vacant slot {@code to}. */
+    void move(int from, int to) {
+        x[to] = x[from];
+        y[to] = y[from];
+        radius[to] = radius[from];
+        argb[to] = argb[from];
+        flags[to] = flags[from];
+        label[to] = label[from];
+        metadata[to] = metadata[from];
+        idMsb[to] = idMsb[from];
+        idLsb[to] = idLsb[from];
+        bind(handles[from], to);
+        handles[from] = null;
+    }
+
+    /** Drop the slots from {@code size} on, which must all be vacant. */
+    void truncate(int size) {
+        this.size = size;
+    }
+
+    /** Report an edit of the node in the given slot to the owning graph. */
+    void changed(int slot, GraphChange.Type type, GraphChange.Property property, Object oldValue) {
+        if (owner != null) {
+            owner.nodeChanged(handles[slot], type, property, oldValue);
+        }
+    }
+
+    void setLabel(int slot, String value) {
+        int old = label[slot];
+        label[slot] = strings.intern(value);
+        strings.release(old);
+    }
+
+    void setMetadata(int slot, String value) {
+        int old = metadata[slot];
+        metadata[slot] = strings.intern(value);
+        strings.release(old);
+    }
+
+    private void copy(NodeStore from, int s, int d) {
+        x[d] = from.x[s];
+        y[d] = from.y[s];
+        radius[d] = from.radius[s];
+        argb[d] = from.argb[s];
+        flags[d] = from.flags[s];
+        label[d] = strings.intern(from.strings.get(from.label[s]));
+        metadata[d] = strings.intern(from.strings.get(from.metadata[s]));
+        idMsb[d] = from.idMsb[s];
+        idLsb[d] = from.idLsb[s];
+    }
+
+    private void bind(Node n, int slot) {
+        handles[slot] = n;
+        n.store = this;
+        n.slot = slot;
+    }
+
+    /** Make room for at least {@code capacity} nodes without further growth. */
+    void ensureCapacity(int capacity) {
+        if (capacity > handles.length) {
+            resize(capacity);
+        }
+    }
+
+    private int grow() {
+        if (size == handles.length) {
+            resize(size * 2);
+        }
+        return size++;
+    }
+
+    private void resize(int c) {
+        handles = Arrays.copyOf(handles, c);
+        x = Arrays.copyOf(x, c);
+        y = Arrays.copyOf(y, c);
+        radius = Arrays.copyOf(radius, c);
+        argb = Arrays.copyOf(argb, c);
+        flags = Arrays.copyOf(flags, c);
+        label = Arrays.copyOf(label, c);
+        metadata = Arrays.copyOf(metadata, c);
+        idMsb = Arrays.copyOf(idMsb, c);
+        idLsb = Arrays.copyOf(idLsb, c);
+    }
+}
@@ -40,6 +40,8 @@ public class PropertiesPanel extends JPanel {
     private final GraphPanel graphPanel;
     private Node node;
     private Edge edge;
+    /** Set while fields are populated from the selection so edits are not recorded. */
+    private boolean updatingFields;
 
     private final javax.swing.border.TitledBorder titledBorder;
 
@@ -70,9 +72,8 @@ public class PropertiesPanel extends JPanel {
             public void removeUpdate(DocumentEvent e) { update(); }
             public void changedUpdate(DocumentEvent e) { update(); }
             private void update() {
-                if (node != null) {
+                if (node != null && !updatingFields) {
                     node.setLabel(labelField.getText());
-                    graphPanel.repaint();
                 }
             }
         });
@@ -95,9 +96,8 @@ public class PropertiesPanel extends JPanel {
         xSpinner.addChangeListener(new ChangeListener() {
             @Override
             public void stateChanged(ChangeEvent e) {
-                if (node != null) {
+                if (node != null && !updatingFields) {
                     node.setX((Integer) xSpinner.getValue());
-                    graphPanel.repaint();
                 }
             }
         });
@@ -111,9 +111,8 @@ public class PropertiesPanel extends JPanel {
         ySpinner.addChangeListener(new ChangeListener() {
             @Override
             public void stateChanged(ChangeEvent e) {
-                if (node != null) {
+                if (node != null && !updatingFields) {
                     node.setY((Integer) ySpinner.getValue());
-                    graphPanel.repaint();
                 }
             }
         });
@@ -130,9 +129,8 @@ public class PropertiesPanel extends JPanel {
         splineCombo = new JComboBox<>(Edge.SplineType.values());
         splineCombo.setEnabled(false);
         splineCombo.addActionListener(e -> {
-            if (edge != null) {
+            if (edge != null && !updatingFields) {
                 edge.setSplineType((Edge.SplineType) splineCombo.getSelectedItem());
-                graphPanel.repaint();
             }
         });
         add(splineCombo, gbc);
@@ -147,9 +145,8 @@ public class PropertiesPanel extends JPanel {
         curvatureSpinner.addChangeListener(new ChangeListener() {
             @Override
             public void stateChanged(ChangeEvent e) {
-                if (edge != null) {
+                if (edge != null && !updatingFields) {
                     edge.setCurvature(((Number) curvatureSpinner.getValue()).floatValue());
-                    graphPanel.repaint();
                 }
             }
         });
@@ -167,9 +164,8 @@ public class PropertiesPanel extends JPanel {
             public void removeUpdate(DocumentEvent e) { update(); }
             public void changedUpdate(DocumentEvent e) { update(); }
             private void update() {
-                if (edge != null) {
+                if (edge != null && !updatingFields) {
                     edge.setText(edgeTextField.getText());
-                    graphPanel.repaint();
                 }
             }
         });
@@ -207,7 +203,6 @@ public class PropertiesPanel extends JPanel {
                                     Color chosen = colorChooser.getColor();
                                     node.setColor(chosen);
                                     colorButton.setBackground(chosen);
-                                    graphPanel.repaint();
                                 }
                             }, null);
                 }
@@ -236,7 +231,7 @@ public class PropertiesPanel extends JPanel {
             public void removeUpdate(DocumentEvent e) { update(); }
             public void changedUpdate(DocumentEvent e) { update(); }
             private void update() {
-                if (node != null) {
+                if (node != null && !updatingFields) {
                     node.setMetadata(metadataArea.getText());
                 }
             }
@@ -314,6 +309,7 @@ public class PropertiesPanel extends JPanel {
             lockPositionCheck.setSelected(false);
             lockPositionCheck.setEnabled(false);
         }
+        updatingFields = true;
         if (node == null) {
             labelField.setText("");
             idValue.setText("");
@@ -329,6 +325,7 @@ public class PropertiesPanel extends JPanel {
             colorButton.setBackground(node.getColor());
             metadataArea.setText(node.getMetadata());
         }
+        updatingFields = false;
         revalidate();
         repaint();
     }
@@ -361,6 +358,7 @@ public class PropertiesPanel extends JPanel {
         splineCombo.setEnabled(visible);
         curvatureSpinner.setEnabled(visible);
         edgeTextField.setEnabled(visible);
+        updatingFields = true;
         if (edge == null) {
             splineCombo.setSelectedIndex(0);
             curvatureSpinner.setValue(0.4);
@@ -372,11 +370,12 @@ public class PropertiesPanel extends JPanel {
             edgeTextField.setText(edge.getText());
             idValue.setText(edge.getId());
         }
+        updatingFields = false;
         revalidate();
         repaint();
     }
 
-    public void setNodes(java.util.List<Node> nodes) {
+    public void setNodes(java.util.Collection<Node> nodes) {
         if (nodes == null || nodes.isEmpty()) {
             if (this.node != null) {
                 commitPositionEdits();
@@ -410,7 +409,7 @@ public class PropertiesPanel extends JPanel {
             return;
         }
         if (nodes.size() == 1) {
-            setNode(nodes.get(0));
+            setNode(nodes.iterator().next());
             return;
         }
         if (this.node != null) {
@@ -445,14 +444,29 @@ public class PropertiesPanel extends JPanel {
         repaint();
     }
 
+    /**
+     * Show a selection again after the graph was changed underneath the
+     * fields, discarding rather than committing what they held.
+     */
+    public void reload(java.util.Collection<Node> nodes, Edge edge) {
+        this.node = null;
+        if (edge != null) {
+            setEdge(edge);
+        } else {
+            setNodes(nodes);
+        }
+    }
+
     /**
      * Refresh the X and Y spinner values from the current node state. This
      * is used by the graph panel when a node is dragged.
      */
     public void updatePositionFields() {
         if (node != null) {
+            updatingFields = true;
             xSpinner.setValue(node.getX());
             ySpinner.setValue(node.getY());
+            updatingFields = false;
             xSpinner.setEnabled(!node.isLocked());
             ySpinner.setEnabled(!node.isLocked());
             lockPositionCheck.setSelected(node.isLocked());
@@ -471,9 +485,11 @@ public class PropertiesPanel extends JPanel {
             } catch (java.text.ParseException ignored) {
                 // If the user entered invalid text, ignore and keep last value
             }
-            node.setX((Integer) xSpinner.getValue());
-            node.setY((Integer) ySpinner.getValue());
-            graphPanel.repaint();
+            int x = (Integer) xSpinner.getValue();
+            int y = (Integer) ySpinner.getValue();
+            if (x != node.getX() || y != node.getY()) {
+                node.setPosition(x, y);
+            }
         }
     }
 }
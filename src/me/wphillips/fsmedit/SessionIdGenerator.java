@@ -0,0 +1,38 @@
+package me.wphillips.fsmedit;
+
+import java.security.SecureRandom;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates identifiers from a random 64-bit prefix chosen once per session
+ * followed by an atomic counter, so creating an element never touches
+ * {@link SecureRandom}. The result is formatted as an RFC 4122 version 8
+ * UUID, keeping identifiers interchangeable with random UUIDs in saved files.
+ */
+public class SessionIdGenerator implements IdGenerator {
+    private static final long VERSION_MASK = 0xFFFFFFFFFFFF0FFFL;
+    private static final long VERSION_8 = 0x0000000000008000L;
+    private static final long VARIANT_MASK = 0x3FFFFFFFFFFFFFFFL;
+    private static final long VARIANT_RFC4122 = 0x8000000000000000L;
+
+    private final long prefix;
+    private final AtomicLong counter = new AtomicLong();
+
+    public SessionIdGenerator() {
+        this(new SecureRandom().nextLong());
+    }
+
+    /**
+     * @param prefix session prefix; the UUID version bits are overwritten
+     */
+    public SessionIdGenerator(long prefix) {
+        this.prefix = (prefix & VERSION_MASK) | VERSION_8;
+    }
+
+    @Override
+    public UUID next() {
+        long low = (counter.getAndIncrement() & VARIANT_MASK) | VARIANT_RFC4122;
+        return new UUID(prefix, low);
+    }
+}
@@ -0,0 +1,109 @@
+package me.wphillips.fsmedit;
+
+import java.util.Arrays;
+
+/**
+ * Reference counted pool of strings addressed by small integer ids. Equal
+ * strings share one entry, so labels and metadata repeated across many nodes
+ * are stored once. Lookup uses an open addressing table of ids rather than a
+ * map so each distinct string costs a few array slots.
+ */
+final class StringPool {
+    /** Id standing for {@code null}. */
+    static final int NULL_ID = -1;
+
+    private String[] strings;
+    private int[] refs;
+    /** Hash table of id + 1, with 0 marking an empty slot. */
+    private int[] table;
+    private int[] freeIds = new int[0];
+    private int freeCount;
+    /** Lowest id that has never been handed out. */
+    private int next;
+    private int count;
+
+    StringPool(int capacity) {
+        int size = Math.max(2, capacity);
+        strings = new String[size];
+        refs = new int[size];
+        table = new int[Integer.highestOneBit(size * 2 - 1) << 1];
+    }
+
+    /** Get the id for a string, adding it to the pool or taking another reference to it. */
+    int intern(String s) {
+        if (s == null) {
+            return NULL_ID;
+        }
+        int mask = table.length - 1;
+        int h = hash(s) & mask;
+        for (int t; (t = table[h]) != 0; h = (h + 1) & mask) {
+            if (strings[t - 1].equals(s)) {
+                refs[t - 1]++;
+                return t - 1;
+            }
+        }
+        int id = freeCount > 0 ? freeIds[--freeCount] : next++;
+        if (id == strings.length) {
+            strings = Arrays.copyOf(strings, id * 2);
+            refs = Arrays.copyOf(refs, id * 2);
+        }
+        strings[id] = s;
+        refs[id] = 1;
+        table[h] = id + 1;
+        if (++count * 2 > table.length) {
+            rehash(table.length * 2);
+        }
+        return id;
+    }
+
+    String get(int id) {
+        return id == NULL_ID ? null : strings[id];
+    }
+
+    /** Drop a reference taken by {@link #intern(String)}, freeing the entry with the last one. */
+    void release(int id) {
+        if (id == NULL_ID || --refs[id] > 0) {
+            return;
+        }
+        int mask = table.length - 1;
+        int gap = hash(strings[id]) & mask;
+        while (table[gap] != id + 1) {
+            gap = (gap + 1) & mask;
+        }
+        // Shift later entries of the probe run back so lookups never stop early
+        for (int j = (gap + 1) & mask; table[j] != 0; j = (j + 1) & mask) {
+            int home = hash(strings[table[j] - 1]) & mask;
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                table[gap] = table[j];
+                gap = j;
+            }
+        }
+        table[gap] = 0;
+        strings[id] = null;
+        if (freeCount == freeIds.length) {
+            freeIds = Arrays.copyOf(freeIds, Math.max(4, freeCount * 2));
+        }
+        freeIds[freeCount++] = id;
+        count--;
+    }
+
+    private void rehash(int size) {
+        int[] old = table;
+        table = new int[size];
+        int mask = size - 1;
+        for (int t : old) {
+            if (t != 0) {
+                int h = hash(strings[t - 1]) & mask;
+                while (table[h] != 0) {
+                    h = (h + 1) & mask;
+                }
+                table[h] = t;
+            }
+        }
+    }
+
+    private static int hash(String s) {
+        int h = s.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
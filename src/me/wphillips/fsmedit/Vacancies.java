@@ -0,0 +1,109 @@
+package me.wphillips.fsmedit;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Slots of an ordered list left vacant by removals until the list is
+ * compacted. The vacancies are counted in a Fenwick tree as well as marked,
+ * so the number of them before a slot, and with it the position an element
+ * has among the occupied slots, is found in logarithmic time.
+ */
+final class Vacancies {
+    private final BitSet marks = new BitSet();
+    /** Fenwick tree over the marks, indexed from 1. */
+    private int[] tree = new int[0];
+    private int count;
+
+    /**
+     * Mark a slot vacant.
+     *
+     * @return the number of slots before it that were already vacant
+     */
+    int add(int slot) {
+        if (slot + 1 >= tree.length) {
+            rebuild(Math.max(slot + 2, tree.length * 2));
+        }
+        int before = 0;
+        for (int i = slot; i > 0; i -= i & -i) {
+            before += tree[i];
+        }
+        for (int i = slot + 1; i < tree.length; i += i & -i) {
+            tree[i]++;
+        }
+        marks.set(slot);
+        count++;
+        return before;
+    }
+
+    /** Mark a vacant slot as occupied again. */
+    void fill(int slot) {
+        for (int i = slot + 1; i < tree.length; i += i & -i) {
+            tree[i]--;
+        }
+        marks.clear(slot);
+        count--;
+    }
+
+    /**
+     * Find a vacant slot that an element can be put back into to take the
+     * given position among the occupied slots, keeping their order.
+     *
+     * @param size number of slots in use
+     * @return the slot, or -1 if none is vacant at that position
+     */
+    int slotFor(int position, int size) {
+        if (count == 0) {
+            return -1;
+        }
+        int slot;
+        if (position >= size - count) {
+            slot = size - 1;
+        } else {
+            // Descend the tree to the occupied slot holding the position now
+            int remaining = position + 1;
+            int at = 0;
+            for (int step = Integer.highestOneBit(tree.length - 1); step > 0; step >>= 1) {
+                int next = at + step;
+                if (next < tree.length && step - tree[next] < remaining) {
+                    at = next;
+                    remaining -= step - tree[next];
+                }
+            }
+            slot = at + remaining - 2;
+        }
+        return slot >= 0 && marks.get(slot) ? slot : -1;
+    }
+
+    /** Get the number of vacant slots. */
+    int count() {
+        return count;
+    }
+
+    /** Get the first vacant slot, or -1 if there is none. */
+    int first() {
+        return marks.nextSetBit(0);
+    }
+
+    /** Forget every vacancy, after the list was compacted. */
+    void clear() {
+        if (count > 0) {
+            marks.clear();
+            Arrays.fill(tree, 0);
+            count = 0;
+        }
+    }
+
+    private void rebuild(int length) {
+        tree = new int[length];
+        for (int slot = marks.nextSetBit(0); slot >= 0; slot = marks.nextSetBit(slot + 1)) {
+            tree[slot + 1] = 1;
+        }
+        for (int i = 1; i < length; i++) {
+            int parent = i + (i & -i);
+            if (parent < length) {
+                tree[parent] += tree[i];
+            }
+        }
+    }
+}